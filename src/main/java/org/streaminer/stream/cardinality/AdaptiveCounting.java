@@ -17,6 +17,8 @@
 package org.streaminer.stream.cardinality;
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
 import java.util.Arrays;
 
 import org.streaminer.util.hash.Lookup3Hash;
@@ -43,6 +45,12 @@ public class AdaptiveCounting extends LogLog {
      */
     protected final double B_s = 0.051;
 
+    /**
+     * Masks used to process eight 1-byte buckets at a time as a long
+     */
+    private static final long LOW_BITS  = 0x7F7F7F7F7F7F7F7FL;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
     public AdaptiveCounting(int k) {
         super(k);
         b_e = m;
@@ -51,30 +59,64 @@ public class AdaptiveCounting extends LogLog {
     public AdaptiveCounting(byte[] M) {
         super(M);
 
-        for (byte b : M) {
-            if (b == 0) {
-                b_e++;
+        if (M.length % 8 == 0) {
+            LongBuffer words = ByteBuffer.wrap(M).asLongBuffer();
+            for (int i = 0; i < words.limit(); i++) {
+                b_e += zeroBytes(words.get(i));
+            }
+        } else {
+            for (byte b : M) {
+                if (b == 0) {
+                    b_e++;
+                }
             }
         }
     }
 
     @Override
     public boolean offer(Object o) {
+        return offerHashed(Lookup3Hash.lookup3ycs64(o.toString()));
+    }
+
+    /**
+     * Offers a batch of hashed values.
+     *
+     * @param hashes the 64-bit hashes of the items to offer to the estimator
+     * @return false if the value returned by cardinality() is unaffected by the batch
+     */
+    public boolean offerHashed(long[] hashes) {
         boolean modified = false;
+        for (long x : hashes) {
+            modified |= offerHashed(x);
+        }
+        return modified;
+    }
+
+    @Override
+    public boolean offerHashed(long hashedLong) {
+        int j = (int) (hashedLong >>> (Long.SIZE - k));
+        byte r = (byte) (Long.numberOfLeadingZeros((hashedLong << k) | (1 << (k - 1))) + 1);
+        return update(j, r);
+    }
 
-        long x = Lookup3Hash.lookup3ycs64(o.toString());
-        int j = (int) (x >>> (Long.SIZE - k));
-        byte r = (byte) (Long.numberOfLeadingZeros((x << k) | (1 << (k - 1))) + 1);
+    @Override
+    public boolean offerHashed(int hashedInt) {
+        int j = hashedInt >>> (Integer.SIZE - k);
+        byte r = (byte) (Integer.numberOfLeadingZeros((hashedInt << k) | (1 << (k - 1))) + 1);
+        return update(j, r);
+    }
+
+    private boolean update(int j, byte r) {
         if (M[j] < r) {
             Rsum += r - M[j];
             if (M[j] == 0) {
                 b_e--;
             }
             M[j] = r;
-            modified = true;
+            return true;
         }
 
-        return modified;
+        return false;
     }
 
     @Override
@@ -106,8 +148,50 @@ public class AdaptiveCounting extends LogLog {
      */
     @Override
     public IRichCardinality merge(IRichCardinality... estimators) throws LogLogMergeException {
-        LogLog res = (LogLog) super.merge(estimators);
-        return new AdaptiveCounting(res.M);
+        if (estimators == null || M.length % 8 != 0) {
+            LogLog res = (LogLog) super.merge(estimators);
+            return new AdaptiveCounting(res.M);
+        }
+
+        LongBuffer[] others = new LongBuffer[estimators.length];
+        for (int i = 0; i < estimators.length; i++) {
+            if (!(this.getClass().isInstance(estimators[i]))) {
+                throw new LogLogMergeException("Cannot merge estimators of different class");
+            }
+            if (estimators[i].sizeof() != this.sizeof()) {
+                throw new LogLogMergeException("Cannot merge estimators of different sizes");
+            }
+            others[i] = ByteBuffer.wrap(((LogLog) estimators[i]).M).asLongBuffer();
+        }
+
+        byte[] mergedBytes = Arrays.copyOf(M, M.length);
+        LongBuffer merged = ByteBuffer.wrap(mergedBytes).asLongBuffer();
+
+        for (int w = 0; w < merged.limit(); w++) {
+            long word = merged.get(w);
+            for (LongBuffer other : others) {
+                word = maxBytes(word, other.get(w));
+            }
+            merged.put(w, word);
+        }
+
+        return new AdaptiveCounting(mergedBytes);
+    }
+
+    /**
+     * @return the number of zero bytes in the word
+     */
+    protected static int zeroBytes(long word) {
+        return Long.bitCount(~(((word & LOW_BITS) + LOW_BITS) | word | LOW_BITS));
+    }
+
+    /**
+     * Byte-wise maximum of two words whose bytes are all in the [0, 127] range.
+     */
+    protected static long maxBytes(long a, long b) {
+        long ge = ((a | HIGH_BITS) - b) & HIGH_BITS;
+        long mask = (ge >>> 7) * 0xFF;
+        return (a & mask) | (b & ~mask);
     }
 
     /**
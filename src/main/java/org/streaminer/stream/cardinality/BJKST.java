@@ -1,40 +1,49 @@
 package org.streaminer.stream.cardinality;
 
 import java.io.Serializable;
-import java.util.*;
-import org.streaminer.util.hash.function.HashFunction;
-import org.streaminer.util.hash.function.MurmurHashFunction;
+import java.util.Arrays;
+import java.util.Random;
+import org.streaminer.util.hash.MurmurHash;
+import org.streaminer.util.hash.MurmurHash3;
 
 /**
  * Implementation of the BJKST algprothm for distinct counting.
- * 
+ *
+ * Each median attempt keeps a buffer of (g-hash, zeros) pairs packed into a
+ * single long and stored in an open-addressing table. The element is hashed
+ * once and the h and g hashes of each attempt are derived from that value
+ * with a seeded MurmurHash3 finalizer.
+ *
  * Source code: https://github.com/ananthc/streamstats
- * 
+ *
  * Reference:
- *   Bar-Yossef, Ziv, et al. "Counting distinct elements in a data stream." 
- *   Randomization and Approximation Techniques in Computer Science. Springer 
+ *   Bar-Yossef, Ziv, et al. "Counting distinct elements in a data stream."
+ *   Randomization and Approximation Techniques in Computer Science. Springer
  *   Berlin Heidelberg, 2002. 1-10.
- * 
+ *
  * @author ananthc
  */
 public class BJKST implements Serializable {
-    private static final long serialVersionUID = -2032575802259420762L;
+    private static final long serialVersionUID = -2032575802259420763L;
+
+    private static final long ZEROS_MASK = 0x7FL;
 
     private int numMedians=25;
     private int sizeOfMedianSet;
-    
+
     private double error = 0.02f;
-    
-    private List<Integer> limits;
-    
+
+    private int[] limits;
+
     private int bufferSize = 100;
-    private List<HashSet<String>> buffers;
+    private long[][] buffers;
+    private int[] sizes;
+    private int mask;
 
-    private List<HashFunction<Object>> hHashers;
-    private List<HashFunction<Object>> gHashers;
+    private long[] hSeeds;
+    private long[] gSeeds;
 
-    private int intLength = Integer.toString(Integer.MAX_VALUE).length();
-    private String lengthOfIntegerRepresentation = null;
+    private long[] scratch;
 
     public BJKST(int numberOfMedianAttempts, int sizeOfEachMedianSet) {
         this.numMedians = numberOfMedianAttempts;
@@ -55,71 +64,91 @@ public class BJKST implements Serializable {
 
     private void init() {
         this.bufferSize =  (int) ((this.sizeOfMedianSet) / Math.pow(this.error,2.0) ) ;
-        lengthOfIntegerRepresentation = ("%0" + intLength + "d");
-        
-        limits   = new ArrayList<Integer>(numMedians);
-        buffers  = new ArrayList<HashSet<String>>(numMedians);
-        hHashers = new ArrayList<HashFunction<Object>>(numMedians);
-        gHashers = new ArrayList<HashFunction<Object>>(numMedians);
-        
+
+        // keep the tables at most half full, including the element that overflows the buffer
+        int capacity = Integer.highestOneBit(2 * bufferSize + 1) << 1;
+        mask = capacity - 1;
+
+        limits  = new int[numMedians];
+        sizes   = new int[numMedians];
+        buffers = new long[numMedians][capacity];
+        scratch = new long[capacity];
+
+        hSeeds = new long[numMedians];
+        gSeeds = new long[numMedians];
+
+        Random random = new Random(serialVersionUID);
         for ( int i =0 ; i < numMedians; i++) {
-            limits.add(0);
-            buffers.add(new HashSet<String>());
-            hHashers.add(new MurmurHashFunction<Object>());
-            gHashers.add(new MurmurHashFunction<Object>());
+            hSeeds[i] = random.nextLong();
+            gSeeds[i] = random.nextLong();
         }
     }
 
     public void offer(Object o) {
+        offerHashed(MurmurHash.getInstance().hash64(o));
+    }
+
+    /**
+     * Offer the value as a hashed long value.
+     * @param hash The 64-bit hash of the element
+     */
+    public void offerHashed(long hash) {
         for ( int i =0 ; i < numMedians; i++) {
-            String binaryRepr = Long.toBinaryString(hHashers.get(i).hash(o));
-            
-            int zereosP = binaryRepr.length() - binaryRepr.lastIndexOf('1');
-            int currentZ = limits.get(i);
-            
-            if (zereosP >= currentZ) {
-                HashSet<String> currentBuffer = buffers.get(i);
-                
-                currentBuffer.add(String.format(lengthOfIntegerRepresentation, gHashers.get(i).hash(o)) +
-                            String.format(lengthOfIntegerRepresentation, zereosP));
-
-                while (currentBuffer.size() > bufferSize) {
-                    currentZ = currentZ + 1;
-                    for (Iterator<String> itr = currentBuffer.iterator(); itr.hasNext();) {
-                        String element = itr.next();
-                        long zeroesOld = Long.parseLong(element.substring(intLength));
-                        if (zeroesOld < currentZ) {
-                            itr.remove();
-                        }
+            int zeros = Long.numberOfTrailingZeros(MurmurHash3.fmix(hash ^ hSeeds[i]));
+
+            if (zeros >= limits[i]) {
+                long g = MurmurHash3.fmix(hash ^ gSeeds[i]);
+
+                // zeros is in the [0, 64] range, stored shifted by one so that no entry is zero
+                if (add(buffers[i], (g & ~ZEROS_MASK) | (zeros + 1))) {
+                    sizes[i]++;
+
+                    while (sizes[i] > bufferSize) {
+                        limits[i]++;
+                        sizes[i] = evict(buffers[i], limits[i]);
                     }
                 }
             }
         }
     }
-    
+
     public long cardinality() {
-        HashMap<Integer,Integer> results = new HashMap<Integer,Integer>();
+        long[] guesses = new long[numMedians];
         for ( int i =0 ; i < numMedians; i++) {
-            int currentGuess = (int)  (buffers.get(i).size() * Math.pow(2,limits.get(i)));
-            if (!results.containsKey(currentGuess)) {
-                results.put(currentGuess,1);
-            }
-            else {
-                int currentCount = results.get(currentGuess);
-                results.put(currentGuess,(currentCount + 1));
-            }
+            guesses[i] = ((long) sizes[i]) << limits[i];
         }
-        
-        int finalEstimate = 0;
-        int highestVote = 0;
-        for (Map.Entry<Integer,Integer> pair : results.entrySet()) {
-            int possibleAnswer = pair.getValue();
-            if (possibleAnswer > highestVote ) {
-                highestVote = possibleAnswer;
-                finalEstimate = pair.getKey();
-            }
+
+        Arrays.sort(guesses);
+        return guesses[numMedians / 2];
+    }
+
+    private boolean add(long[] buffer, long entry) {
+        int idx = (int) (entry >>> 32) & mask;
+        while (buffer[idx] != 0) {
+            if (buffer[idx] == entry)
+                return false;
+            idx = (idx + 1) & mask;
         }
-        
-        return finalEstimate;
+
+        buffer[idx] = entry;
+        return true;
+    }
+
+    /**
+     * Removes all entries with less than the given number of zeros.
+     * @return The number of entries left in the buffer
+     */
+    private int evict(long[] buffer, int limit) {
+        int n = 0;
+        for (int i=0; i<buffer.length; i++) {
+            if (buffer[i] != 0 && (buffer[i] & ZEROS_MASK) - 1 >= limit)
+                scratch[n++] = buffer[i];
+        }
+
+        Arrays.fill(buffer, 0);
+        for (int i=0; i<n; i++)
+            add(buffer, scratch[i]);
+
+        return n;
     }
-}
\ No newline at end of file
+}
@@ -172,29 +172,7 @@ public class CountThenEstimate implements IRichCardinality, Externalizable {
     public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
         tipped = in.readBoolean();
         if (tipped) {
-            byte type = in.readByte();
-            byte[] bytes = new byte[in.readInt()];
-            in.readFully(bytes);
-
-            switch (type) {
-                case LC:
-                    estimator = new LinearCounting(bytes);
-                    break;
-                case AC:
-                    estimator = new AdaptiveCounting(bytes);
-                    break;
-                case HLC:
-                    estimator = HyperLogLog.Builder.build(bytes);
-                    break;
-                case HLPC:
-                    estimator = HyperLogLogPlus.Builder.build(bytes);
-                    break;
-                case LLC:
-                    estimator = new LinearCounting(bytes);
-                    break;
-                default:
-                    throw new IOException("Unrecognized estimator type: " + type);
-            }
+            estimator = readEstimator(in);
         } else {
             tippingPoint = in.readInt();
             builder = (IBuilder) in.readObject();
@@ -213,23 +191,7 @@ public class CountThenEstimate implements IRichCardinality, Externalizable {
     public void writeExternal(ObjectOutput out) throws IOException {
         out.writeBoolean(tipped);
         if (tipped) {
-            if (estimator instanceof LinearCounting) {
-                out.writeByte(LC);
-            } else if (estimator instanceof AdaptiveCounting) {
-                out.writeByte(AC);
-            } else if (estimator instanceof HyperLogLog) {
-                out.writeByte(HLC);
-            } else if (estimator instanceof HyperLogLogPlus) {
-                out.writeByte(HLPC);
-            } else if (estimator instanceof LogLog) {
-                out.writeByte(LLC);
-            } else {
-                throw new IOException("Estimator unsupported for serialization: " + estimator.getClass().getName());
-            }
-
-            byte[] bytes = estimator.getBytes();
-            out.writeInt(bytes.length);
-            out.write(bytes);
+            writeEstimator(estimator, out);
         } else {
             out.writeInt(tippingPoint);
             out.writeObject(builder);
@@ -240,6 +202,53 @@ public class CountThenEstimate implements IRichCardinality, Externalizable {
         }
     }
 
+    /**
+     * Reads an estimator written by {@link #writeEstimator(IRichCardinality, ObjectOutput)}
+     */
+    static IRichCardinality readEstimator(ObjectInput in) throws IOException {
+        byte type = in.readByte();
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+
+        switch (type) {
+            case LC:
+                return new LinearCounting(bytes);
+            case AC:
+                return new AdaptiveCounting(bytes);
+            case HLC:
+                return HyperLogLog.Builder.build(bytes);
+            case HLPC:
+                return HyperLogLogPlus.Builder.build(bytes);
+            case LLC:
+                return new LinearCounting(bytes);
+            default:
+                throw new IOException("Unrecognized estimator type: " + type);
+        }
+    }
+
+    /**
+     * Writes the type and the bytes of one of the supported estimators
+     */
+    static void writeEstimator(IRichCardinality estimator, ObjectOutput out) throws IOException {
+        if (estimator instanceof LinearCounting) {
+            out.writeByte(LC);
+        } else if (estimator instanceof AdaptiveCounting) {
+            out.writeByte(AC);
+        } else if (estimator instanceof HyperLogLog) {
+            out.writeByte(HLC);
+        } else if (estimator instanceof HyperLogLogPlus) {
+            out.writeByte(HLPC);
+        } else if (estimator instanceof LogLog) {
+            out.writeByte(LLC);
+        } else {
+            throw new IOException("Estimator unsupported for serialization: " + estimator.getClass().getName());
+        }
+
+        byte[] bytes = estimator.getBytes();
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
     @Override
     public IRichCardinality merge(IRichCardinality... estimators) throws CardinalityMergeException {
         if (estimators == null) {
@@ -0,0 +1,339 @@
+package org.streaminer.stream.cardinality;
+
+import org.streaminer.util.ExternalizableUtil;
+import org.streaminer.util.IBuilder;
+import org.streaminer.util.hash.MurmurHash;
+import org.streaminer.util.hash.MurmurHash3;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Exact -> Estimator cardinality counting over 64-bit hashes
+ * <p/>
+ * <p>
+ * Like {@link CountThenEstimate}, but the exact phase keeps the 64-bit hashes of
+ * the elements in an open-addressing <code>long[]</code> instead of a set of objects,
+ * and the tipping point is given in bytes of memory used by that table. When the
+ * table would grow beyond the tipping point, the hashes are replayed into the
+ * estimator with {@link IRichCardinality#offerHashed(long)}, so the elements are
+ * never hashed twice.
+ * </p>
+ * <p/>
+ * <p>
+ * The estimator created by the builder must support <code>offerHashed(long)</code>
+ * (e.g. LinearCounting, AdaptiveCounting, HyperLogLog or HyperLogLogPlus), as
+ * it keeps receiving hashed values after the tipping point.
+ * </p>
+ */
+public class HashedCountThenEstimate implements IRichCardinality, Externalizable {
+    private static final int INITIAL_CAPACITY = 4;
+
+    /**
+     * Memory, in bytes, after which exact counting gives way to estimation
+     */
+    protected long tippingPoint;
+
+    /**
+     * True after switching to estimation
+     */
+    protected boolean tipped = false;
+
+    /**
+     * Factory for instantiating estimator after the tipping point is reached
+     */
+    protected IBuilder<IRichCardinality> builder;
+
+    /**
+     * Cardinality estimator
+     * Null until tipping point is reached
+     */
+    protected IRichCardinality estimator;
+
+    /**
+     * Open-addressing table of hashes, zero marks an empty slot
+     * Null after tipping point is reached
+     */
+    protected long[] hashes;
+
+    /**
+     * Number of distinct hashes in the table, including the zero hash
+     */
+    protected int size;
+
+    /**
+     * True if the zero hash, which can't be stored in the table, was offered
+     */
+    protected boolean containsZero;
+
+    /**
+     * Default constructor
+     * Tips when the exact phase needs more memory than the estimator
+     */
+    public HashedCountThenEstimate() {
+        this(AdaptiveCounting.Builder.obyCount(1000000000));
+    }
+
+    /**
+     * Tips when the exact phase needs more memory than the estimator built
+     * by the given builder.
+     *
+     * @param builder Factory for instantiating estimator after the tipping point is reached
+     */
+    public HashedCountThenEstimate(IBuilder<IRichCardinality> builder) {
+        this(builder.sizeof(), builder);
+    }
+
+    /**
+     * @param tippingPoint Memory, in bytes, at which exact counting gives way to estimation
+     * @param builder      Factory for instantiating estimator after the tipping point is reached
+     */
+    public HashedCountThenEstimate(long tippingPoint, IBuilder<IRichCardinality> builder) {
+        this.tippingPoint = tippingPoint;
+        this.builder = builder;
+        this.hashes = new long[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Deserialization constructor
+     *
+     * @param bytes
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    public HashedCountThenEstimate(byte[] bytes) throws IOException, ClassNotFoundException {
+        readExternal(new ObjectInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    @Override
+    public long cardinality() {
+        if (tipped) {
+            return estimator.cardinality();
+        }
+        return size;
+    }
+
+    @Override
+    public boolean offer(Object o) {
+        return offerHashed(MurmurHash.getInstance().hash64(o));
+    }
+
+    @Override
+    public boolean offerHashed(long hashedLong) {
+        if (tipped) {
+            return estimator.offerHashed(hashedLong);
+        }
+
+        if (hashedLong == 0) {
+            if (containsZero) {
+                return false;
+            }
+            containsZero = true;
+            size++;
+            return true;
+        }
+
+        if (!insert(hashes, hashedLong)) {
+            return false;
+        }
+
+        size++;
+        if (4L * size > 3L * hashes.length) {
+            if (16L * hashes.length > tippingPoint) {
+                tip();
+            } else {
+                rehash(2 * hashes.length);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The int hash is spread over 64 bits, so it should not be mixed with {@link #offerHashed(long)}.
+     */
+    @Override
+    public boolean offerHashed(int hashedInt) {
+        return offerHashed(MurmurHash3.fmix(hashedInt));
+    }
+
+    /**
+     * @return the size of the estimator if tipped, otherwise the memory used by the exact phase
+     */
+    @Override
+    public int sizeof() {
+        if (tipped) {
+            return estimator.sizeof();
+        }
+        return 8 * hashes.length;
+    }
+
+    /**
+     * Switch from exact counting to estimation
+     */
+    private void tip() {
+        estimator = builder.build();
+
+        if (containsZero) {
+            estimator.offerHashed(0L);
+        }
+        for (long h : hashes) {
+            if (h != 0) {
+                estimator.offerHashed(h);
+            }
+        }
+
+        hashes = null;
+        builder = null;
+        tipped = true;
+    }
+
+    public boolean tipped() {
+        return tipped;
+    }
+
+    private void rehash(int capacity) {
+        long[] table = new long[capacity];
+        for (long h : hashes) {
+            if (h != 0) {
+                insert(table, h);
+            }
+        }
+        hashes = table;
+    }
+
+    private static boolean insert(long[] table, long hash) {
+        int mask = table.length - 1;
+        int i = (int) MurmurHash3.fmix(hash) & mask;
+        while (table[i] != 0) {
+            if (table[i] == hash) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        table[i] = hash;
+        return true;
+    }
+
+    @Override
+    public byte[] getBytes() throws IOException {
+        return ExternalizableUtil.toBytes(this);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        tipped = in.readBoolean();
+        if (tipped) {
+            estimator = CountThenEstimate.readEstimator(in);
+        } else {
+            tippingPoint = in.readLong();
+            builder = (IBuilder<IRichCardinality>) in.readObject();
+            containsZero = in.readBoolean();
+            int count = in.readInt();
+
+            size = containsZero ? 1 : 0;
+            hashes = new long[INITIAL_CAPACITY];
+            while (4L * count > 3L * hashes.length) {
+                hashes = new long[2 * hashes.length];
+            }
+            for (int i = 0; i < count; i++) {
+                insert(hashes, in.readLong());
+                size++;
+            }
+        }
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeBoolean(tipped);
+        if (tipped) {
+            CountThenEstimate.writeEstimator(estimator, out);
+        } else {
+            out.writeLong(tippingPoint);
+            out.writeObject(builder);
+            out.writeBoolean(containsZero);
+            out.writeInt(containsZero ? size - 1 : size);
+            for (long h : hashes) {
+                if (h != 0) {
+                    out.writeLong(h);
+                }
+            }
+        }
+    }
+
+    @Override
+    public IRichCardinality merge(IRichCardinality... estimators) throws CardinalityMergeException {
+        if (estimators == null) {
+            return mergeEstimators(this);
+        }
+
+        HashedCountThenEstimate[] all = new HashedCountThenEstimate[estimators.length + 1];
+        for (int i = 0; i < estimators.length; i++) {
+            if (!(estimators[i] instanceof HashedCountThenEstimate)) {
+                throw new HashedCountThenEstimateMergeException("Cannot merge estimators of different class");
+            }
+            all[i] = (HashedCountThenEstimate) estimators[i];
+        }
+        all[all.length - 1] = this;
+        return mergeEstimators(all);
+    }
+
+    /**
+     * Merges estimators to produce an estimator for their combined streams
+     *
+     * @param estimators
+     * @return merged estimator or null if no estimators were provided
+     * @throws CardinalityMergeException if the tipped estimators are not mergeable
+     */
+    public static HashedCountThenEstimate mergeEstimators(HashedCountThenEstimate... estimators) throws CardinalityMergeException {
+        HashedCountThenEstimate merged = null;
+        int numEstimators = (estimators == null) ? 0 : estimators.length;
+        if (numEstimators > 0) {
+            List<IRichCardinality> tipped = new ArrayList<IRichCardinality>(numEstimators);
+            List<HashedCountThenEstimate> untipped = new ArrayList<HashedCountThenEstimate>(numEstimators);
+
+            for (HashedCountThenEstimate estimator : estimators) {
+                if (estimator.tipped) {
+                    tipped.add(estimator.estimator);
+                } else {
+                    untipped.add(estimator);
+                }
+            }
+
+            if (untipped.size() > 0) {
+                merged = new HashedCountThenEstimate(untipped.get(0).tippingPoint, untipped.get(0).builder);
+
+                for (HashedCountThenEstimate cte : untipped) {
+                    if (cte.containsZero) {
+                        merged.offerHashed(0L);
+                    }
+                    for (long h : cte.hashes) {
+                        if (h != 0) {
+                            merged.offerHashed(h);
+                        }
+                    }
+                }
+            } else {
+                merged = new HashedCountThenEstimate(0, new LinearCounting.Builder(1));
+                merged.tip();
+                merged.estimator = tipped.remove(0);
+            }
+
+            if (!tipped.isEmpty()) {
+                if (!merged.tipped) {
+                    merged.tip();
+                }
+                merged.estimator = merged.estimator.merge(tipped.toArray(new IRichCardinality[tipped.size()]));
+            }
+        }
+        return merged;
+    }
+
+    @SuppressWarnings("serial")
+    protected static class HashedCountThenEstimateMergeException extends CardinalityMergeException {
+        public HashedCountThenEstimateMergeException(String message) {
+            super(message);
+        }
+    }
+}
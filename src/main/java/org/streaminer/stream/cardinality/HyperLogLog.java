@@ -204,6 +204,10 @@ public class HyperLogLog implements IRichCardinality {
         return baos.toByteArray();
     }
 
+    RegisterSet getRegisterSet() {
+        return registerSet;
+    }
+
     /** Add all the elements of the other set to this set.
      * 
      * This operation does not imply a loss of precision.
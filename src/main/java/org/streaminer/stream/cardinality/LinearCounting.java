@@ -31,17 +31,28 @@ import static java.lang.Math.*;
  */
 public class LinearCounting implements IRichCardinality
 {
+    /**
+     * Number of words merged at a time by {@link #mergeEstimators(LinearCounting...)},
+     * so that the block of the merged bitmap being written stays in cache
+     */
+    private static final int MERGE_BLOCK_WORDS = 1024;
+
     /**
      * Bitmap
-     * Hashed stream elements are mapped to bits in this array
+     * Hashed stream elements are mapped to bits in this array, 64 bits per word
      */
-    protected byte[] map;
+    protected long[] map;
 
     /**
      * Size of the map in bits
      */
     protected final int length;
 
+    /**
+     * Size of the map in bytes
+     */
+    protected final int size;
+
 
     /**
      * Number of bits left unset in the map
@@ -53,15 +64,31 @@ public class LinearCounting implements IRichCardinality
      */
     public LinearCounting(int size)
     {
+        this.size = size;
         this.length = 8 * size;
         this.count = this.length;
-        map = new byte[size];
+        map = new long[words(size)];
     }
 
+    /**
+     * @param map bit array as returned by {@link #getBytes()}
+     */
     public LinearCounting(byte[] map)
+    {
+        this(map.length);
+
+        for (int i = 0; i < map.length; i++)
+        {
+            this.map[i >>> 3] |= (map[i] & 0xFFL) << ((i & 7) << 3);
+        }
+        this.count = computeCount();
+    }
+
+    protected LinearCounting(long[] map, int size)
     {
         this.map = map;
-        this.length = 8 * map.length;
+        this.size = size;
+        this.length = 8 * size;
         this.count = computeCount();
     }
 
@@ -71,56 +98,93 @@ public class LinearCounting implements IRichCardinality
         return (long) (Math.round(length * Math.log(length / ((double) count))));
     }
 
+    /**
+     * @return the bitmap as a byte array, with bit i of the map stored in bit (i % 8) of byte (i / 8)
+     */
     @Override
     public byte[] getBytes()
     {
-        return map;
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++)
+        {
+            bytes[i] = (byte) (map[i >>> 3] >>> ((i & 7) << 3));
+        }
+        return bytes;
     }
 
+    /**
+     * The long hash is reduced to a position in the map with its 63 least
+     * significant bits, so it should not be mixed with {@link #offerHashed(int)}.
+     */
     @Override
     public boolean offerHashed(long hashedLong)
     {
-        throw new UnsupportedOperationException();
+        return set((int) ((hashedLong >>> 1) % length));
     }
 
     @Override
     public boolean offerHashed(int hashedInt)
     {
-        throw new UnsupportedOperationException();
+        return set((int) ((hashedInt & 0xFFFFFFFFL) % (long) length));
+    }
+
+    /**
+     * Offers a batch of hashed values.
+     *
+     * @param hashes the hashes of the items to offer to the estimator
+     * @return false if the value returned by cardinality() is unaffected by the batch
+     * @see #offerHashed(long)
+     */
+    public boolean offerHashed(long[] hashes)
+    {
+        int unset = count;
+        for (long hash : hashes)
+        {
+            int bit = (int) ((hash >>> 1) % length);
+            long mask = 1L << bit;
+            int i = bit >>> 6;
+            long word = map[i];
+            if ((word & mask) == 0)
+            {
+                map[i] = word | mask;
+                count--;
+            }
+        }
+        return count != unset;
     }
 
     @Override
     public boolean offer(Object o)
     {
-        boolean modified = false;
-
-        long hash = (long) MurmurHash.getInstance().hash(o);
-        int bit = (int) ((hash & 0xFFFFFFFFL) % (long) length);
-        int i = bit / 8;
-        byte b = map[i];
-        byte mask = (byte) (1 << (bit % 8));
-        if ((mask & b) == 0)
+        return offerHashed(MurmurHash.getInstance().hash(o));
+    }
+
+    private boolean set(int bit)
+    {
+        int i = bit >>> 6;
+        long mask = 1L << bit;
+        long word = map[i];
+        if ((word & mask) == 0)
         {
-            map[i] = (byte) (b | mask);
+            map[i] = word | mask;
             count--;
-            modified = true;
+            return true;
         }
-
-        return modified;
+        return false;
     }
 
     @Override
     public int sizeof()
     {
-        return map.length;
+        return size;
     }
 
     public int computeCount()
     {
         int c = 0;
-        for (byte b : map)
+        for (long w : map)
         {
-            c += Integer.bitCount(b & 0xFF);
+            c += Long.bitCount(w);
         }
 
         return length - c;
@@ -152,9 +216,9 @@ public class LinearCounting implements IRichCardinality
     protected String mapAsBitString()
     {
         StringBuilder sb = new StringBuilder();
-        for (byte b : map)
+        for (byte b : getBytes())
         {
-            String bits = Integer.toBinaryString(b);
+            String bits = Integer.toBinaryString(b & 0xFF);
             for (int i = 0; i < 8 - bits.length(); i++)
             {
                 sb.append('0');
@@ -173,7 +237,7 @@ public class LinearCounting implements IRichCardinality
     {
         if (estimators == null) 
         {
-            return new LinearCounting(map);
+            return new LinearCounting(map.clone(), size);
         }
         LinearCounting[] lcs = Arrays.copyOf(estimators, estimators.length + 1, LinearCounting[].class);
         lcs[lcs.length - 1] = this;
@@ -181,7 +245,8 @@ public class LinearCounting implements IRichCardinality
     }
 
     /**
-     * Merges estimators to produce an estimator for their combined streams
+     * Merges estimators to produce an estimator for their combined streams.
+     * The bitmaps are OR'ed one block of words at a time across all estimators.
      *
      * @param estimators
      * @return merged estimator or null if no estimators were provided
@@ -192,27 +257,40 @@ public class LinearCounting implements IRichCardinality
         LinearCounting merged = null;
         if (estimators != null && estimators.length > 0)
         {
-            int size = estimators[0].map.length;
-            byte[] mergedBytes = new byte[size];
-
+            int size = estimators[0].size;
             for (LinearCounting estimator : estimators)
             {
-                if (estimator.map.length != size)
+                if (estimator.size != size)
                 {
                     throw new LinearCountingMergeException("Cannot merge estimators of different sizes");
                 }
+            }
 
-                for (int b = 0; b < size; b++)
+            long[] mergedWords = estimators[0].map.clone();
+
+            for (int from = 0; from < mergedWords.length; from += MERGE_BLOCK_WORDS)
+            {
+                int to = Math.min(from + MERGE_BLOCK_WORDS, mergedWords.length);
+                for (int e = 1; e < estimators.length; e++)
                 {
-                    mergedBytes[b] |= estimator.map[b];
+                    long[] other = estimators[e].map;
+                    for (int w = from; w < to; w++)
+                    {
+                        mergedWords[w] |= other[w];
+                    }
                 }
             }
 
-            merged = new LinearCounting(mergedBytes);
+            merged = new LinearCounting(mergedWords, size);
         }
         return merged;
     }
 
+    private static int words(int size)
+    {
+        return (size + 7) >>> 3;
+    }
+
     @SuppressWarnings("serial")
     protected static class LinearCountingMergeException extends CardinalityMergeException
     {
@@ -0,0 +1,292 @@
+package org.streaminer.stream.cardinality;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import org.streaminer.util.hash.MurmurHash;
+
+/**
+ * A store of fixed-size {@link HyperLogLog} sketches laid out in a memory-mapped
+ * file. Each sketch occupies a slot with the same register packing used by
+ * {@link RegisterSet}, so offers and merges act directly on the mapped pages,
+ * re-opening the store is a mmap instead of a deserialization pass, and sketches
+ * that are not being used stay paged out instead of occupying heap.
+ * <p/>
+ * The file starts with a 16-byte header (magic, version, log2m and capacity),
+ * followed by the slots. Files larger than 2GB are mapped in several segments.
+ * <p/>
+ * Like the sketches themselves, the store is not thread-safe.
+ *
+ * @author Maycon Viana Bordin <mayconbordin@gmail.com>
+ */
+public class MappedHyperLogLogStore implements Closeable {
+    private static final int MAGIC = 0x484C4C53;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+
+    private final int log2m;
+    private final int registerCount;
+    private final int slotSize;
+    private final int slotsPerSegment;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private MappedByteBuffer header;
+    private MappedByteBuffer[] segments;
+    private int capacity;
+
+    /**
+     * Opens the store in the given file, creating it if it does not exist.
+     *
+     * @param file     The file backing the store
+     * @param log2m    The number of bits used as basis for the HyperLogLog sketches
+     * @param capacity The minimum number of sketches, the file is enlarged if needed
+     * @throws IOException If the file cannot be mapped
+     * @throws IllegalArgumentException If the file holds sketches with a different log2m
+     */
+    public MappedHyperLogLogStore(File file, int log2m, int capacity) throws IOException {
+        if (log2m < 0 || log2m > 30) {
+            throw new IllegalArgumentException("log2m argument is "
+                + log2m + " and is outside the range [0, 30]");
+        }
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity must not be negative");
+        }
+
+        this.log2m = log2m;
+        this.registerCount = 1 << log2m;
+        this.slotSize = 4 * RegisterSet.getSizeForCount(registerCount);
+        this.slotsPerSegment = Integer.MAX_VALUE / slotSize;
+
+        boolean exists = file.exists() && file.length() >= HEADER_SIZE;
+        this.file = new RandomAccessFile(file, "rw");
+        this.channel = this.file.getChannel();
+
+        try {
+            header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+
+            int stored = 0;
+            if (exists) {
+                if (header.getInt(0) != MAGIC) {
+                    throw new IOException("File is not a HyperLogLog store: " + file);
+                }
+                if (header.getInt(8) != log2m) {
+                    throw new IllegalArgumentException("Store has log2m " + header.getInt(8)
+                        + ", requested " + log2m);
+                }
+                stored = header.getInt(12);
+            } else {
+                header.putInt(0, MAGIC);
+                header.putInt(4, VERSION);
+                header.putInt(8, log2m);
+            }
+
+            this.capacity = Math.max(stored, capacity);
+            header.putInt(12, this.capacity);
+            map();
+        } catch (IOException e) {
+            this.file.close();
+            throw e;
+        } catch (RuntimeException e) {
+            this.file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens an existing store.
+     *
+     * @param file The file backing the store
+     * @return The store
+     * @throws IOException If the file is not a store or cannot be mapped
+     */
+    public static MappedHyperLogLogStore open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            if (raf.length() < HEADER_SIZE || Integer.reverseBytes(raf.readInt()) != MAGIC) {
+                throw new IOException("File is not a HyperLogLog store: " + file);
+            }
+            raf.seek(8);
+            int log2m = Integer.reverseBytes(raf.readInt());
+            return new MappedHyperLogLogStore(file, log2m, 0);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Grows the store so that it holds at least the given number of sketches.
+     * New sketches are empty.
+     *
+     * @param capacity The new minimum number of sketches
+     * @throws IOException If the file cannot be mapped
+     */
+    public void ensureCapacity(int capacity) throws IOException {
+        if (capacity > this.capacity) {
+            this.capacity = capacity;
+            header.putInt(12, capacity);
+            map();
+        }
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int getLog2m() {
+        return log2m;
+    }
+
+    /**
+     * Returns a sketch backed by the mapped registers of the given slot. Changes
+     * made to the sketch are written to the store without any copy.
+     *
+     * @param index The slot of the sketch
+     * @return A view of the sketch
+     */
+    public HyperLogLog get(int index) {
+        return new HyperLogLog(log2m, registers(index));
+    }
+
+    /**
+     * Replaces the registers of a slot with those of the given sketch.
+     *
+     * @param index The slot of the sketch
+     * @param hll   A sketch with the same log2m of the store
+     * @throws CardinalityMergeException If the sketch has a different size
+     */
+    public void put(int index, HyperLogLog hll) throws CardinalityMergeException {
+        MappedRegisterSet registers = registers(index);
+        if (hll.sizeof() != registers.size * 4) {
+            throw new HyperLogLog.HyperLogLogMergeException("Cannot store estimators of different sizes");
+        }
+        registers.setBits(hll.getRegisterSet().readOnlyBits());
+    }
+
+    public boolean offer(int index, Object o) {
+        return offerHashed(index, MurmurHash.getInstance().hash(o));
+    }
+
+    /**
+     * @see HyperLogLog#offerHashed(long)
+     */
+    public boolean offerHashed(int index, long hashedValue) {
+        final int j = (int) (hashedValue >>> (Long.SIZE - log2m));
+        final int r = Long.numberOfLeadingZeros((hashedValue << this.log2m) | (1 << (this.log2m - 1)) + 1) + 1;
+        return updateIfGreater(index, j, r);
+    }
+
+    /**
+     * @see HyperLogLog#offerHashed(int)
+     */
+    public boolean offerHashed(int index, int hashedValue) {
+        final int j = hashedValue >>> (Integer.SIZE - log2m);
+        final int r = Integer.numberOfLeadingZeros((hashedValue << this.log2m) | (1 << (this.log2m - 1)) + 1) + 1;
+        return updateIfGreater(index, j, r);
+    }
+
+    public long cardinality(int index) {
+        return get(index).cardinality();
+    }
+
+    /**
+     * Merges the registers of the source slot into the target slot, in place.
+     *
+     * @param target The slot that receives the union
+     * @param source The slot to be merged, left unchanged
+     */
+    public void merge(int target, int source) {
+        registers(target).merge(registers(source));
+    }
+
+    /**
+     * Merges a sketch into a slot, in place.
+     *
+     * @param target The slot that receives the union
+     * @param hll    A sketch with the same log2m of the store
+     * @throws CardinalityMergeException If the sketch has a different size
+     */
+    public void merge(int target, HyperLogLog hll) throws CardinalityMergeException {
+        get(target).addAll(hll);
+    }
+
+    /**
+     * Resets all registers of a slot to zero.
+     *
+     * @param index The slot of the sketch
+     */
+    public void clear(int index) {
+        registers(index).setBits(new int[slotSize / 4]);
+    }
+
+    /**
+     * Forces any changes made to the store to be written to the file.
+     */
+    public void flush() {
+        header.force();
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+
+    /**
+     * Flushes the store and closes the file. The mapped segments are released
+     * once they are garbage collected.
+     *
+     * @throws IOException If the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+        file.close();
+    }
+
+    private boolean updateIfGreater(int index, int position, int value) {
+        MappedByteBuffer segment = segments[checkIndex(index) / slotsPerSegment];
+        int offset = (index % slotsPerSegment) * slotSize;
+
+        int bucket = position / RegisterSet.LOG2_BITS_PER_WORD;
+        int shift  = RegisterSet.REGISTER_SIZE * (position - (bucket * RegisterSet.LOG2_BITS_PER_WORD));
+        int mask = 0x1f << shift;
+        int pos = offset + 4 * bucket;
+        int word = segment.getInt(pos);
+
+        if ((word & mask) < (value << shift)) {
+            segment.putInt(pos, (word & ~mask) | (value << shift));
+            return true;
+        }
+        return false;
+    }
+
+    private MappedRegisterSet registers(int index) {
+        MappedByteBuffer segment = segments[checkIndex(index) / slotsPerSegment];
+        return new MappedRegisterSet(registerCount, segment, (index % slotsPerSegment) * slotSize);
+    }
+
+    private int checkIndex(int index) {
+        if (index < 0 || index >= capacity) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", capacity: " + capacity);
+        }
+        return index;
+    }
+
+    /**
+     * Maps the slots in segments of at most 2GB each, remapping the whole file.
+     */
+    private void map() throws IOException {
+        int numSegments = (capacity + slotsPerSegment - 1) / slotsPerSegment;
+        segments = new MappedByteBuffer[numSegments];
+
+        for (int s = 0; s < numSegments; s++) {
+            int slots = Math.min(slotsPerSegment, capacity - s * slotsPerSegment);
+            long position = HEADER_SIZE + (long) s * slotsPerSegment * slotSize;
+            segments[s] = channel.map(FileChannel.MapMode.READ_WRITE, position, (long) slots * slotSize);
+            segments[s].order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+}
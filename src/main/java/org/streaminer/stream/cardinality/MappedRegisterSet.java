@@ -0,0 +1,119 @@
+package org.streaminer.stream.cardinality;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link RegisterSet} whose words live in a region of a (usually memory-mapped)
+ * {@link ByteBuffer} instead of an int array, using the same packing of six
+ * 5-bit registers per word. Updates are written straight to the buffer.
+ *
+ * @see MappedHyperLogLogStore
+ */
+class MappedRegisterSet extends RegisterSet
+{
+    private final ByteBuffer buffer;
+    private final int offset;
+
+    /**
+     * @param count  number of registers
+     * @param buffer buffer holding the words, absolute positions only are used
+     * @param offset position of the first word in the buffer, in bytes
+     */
+    MappedRegisterSet(int count, ByteBuffer buffer, int offset)
+    {
+        super(count, getSizeForCount(count));
+        this.buffer = buffer;
+        this.offset = offset;
+    }
+
+    @Override
+    public void set(int position, int value)
+    {
+        int bucketPos = position / LOG2_BITS_PER_WORD;
+        int shift = REGISTER_SIZE * (position - (bucketPos * LOG2_BITS_PER_WORD));
+        int index = offset + 4 * bucketPos;
+        buffer.putInt(index, (buffer.getInt(index) & ~(0x1f << shift)) | (value << shift));
+    }
+
+    @Override
+    public int get(int position)
+    {
+        int bucketPos = position / LOG2_BITS_PER_WORD;
+        int shift = REGISTER_SIZE * (position - (bucketPos * LOG2_BITS_PER_WORD));
+        return (buffer.getInt(offset + 4 * bucketPos) & (0x1f << shift)) >>> shift;
+    }
+
+    @Override
+    public boolean updateIfGreater(int position, int value)
+    {
+        int bucket = position / LOG2_BITS_PER_WORD;
+        int shift  = REGISTER_SIZE * (position - (bucket * LOG2_BITS_PER_WORD));
+        int mask = 0x1f << shift;
+        int index = offset + 4 * bucket;
+        int word = buffer.getInt(index);
+
+        if ((word & mask) < (value << shift))
+        {
+            buffer.putInt(index, (word & ~mask) | (value << shift));
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void merge(RegisterSet that)
+    {
+        for (int bucket = 0; bucket < size; bucket++)
+        {
+            int index = offset + 4 * bucket;
+            int thisWord = buffer.getInt(index);
+            int thatWord = that.word(bucket);
+            int word = 0;
+            for (int j = 0; j < LOG2_BITS_PER_WORD; j++)
+            {
+                int mask = 0x1f << (REGISTER_SIZE * j);
+
+                int thisVal = (thisWord & mask);
+                int thatVal = (thatWord & mask);
+                word |= (thisVal < thatVal) ? thatVal : thisVal;
+            }
+            buffer.putInt(index, word);
+        }
+    }
+
+    @Override
+    protected int word(int bucket)
+    {
+        return buffer.getInt(offset + 4 * bucket);
+    }
+
+    @Override
+    int[] readOnlyBits()
+    {
+        return bits();
+    }
+
+    @Override
+    public int[] bits()
+    {
+        int[] copy = new int[size];
+        for (int i = 0; i < size; i++)
+        {
+            copy[i] = buffer.getInt(offset + 4 * i);
+        }
+        return copy;
+    }
+
+    /**
+     * Overwrites the registers with the given words.
+     *
+     * @param words the words of another register set with the same count
+     */
+    void setBits(int[] words)
+    {
+        for (int i = 0; i < size; i++)
+        {
+            buffer.putInt(offset + 4 * i, words[i]);
+        }
+    }
+}
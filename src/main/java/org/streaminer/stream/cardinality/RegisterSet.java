@@ -46,6 +46,19 @@ public class RegisterSet
         this.size = this.M.length;
     }
 
+    /**
+     * Constructor for subclasses that keep the registers outside of the heap.
+     *
+     * @param count number of registers
+     * @param size  number of 32-bit words used to store the registers
+     */
+    protected RegisterSet(int count, int size)
+    {
+        this.count = count;
+        this.size = size;
+        this.M = null;
+    }
+
     public static int getBits(int count)
     {
         return count / LOG2_BITS_PER_WORD;
@@ -109,13 +122,22 @@ public class RegisterSet
                 int mask = 0x1f << (REGISTER_SIZE * j);
 
                 int thisVal = (this.M[bucket] & mask);
-                int thatVal = (that.M[bucket] & mask);
+                int thatVal = (that.word(bucket) & mask);
                 word |= (thisVal < thatVal) ? thatVal : thisVal;
             }
             this.M[bucket] = word;
         }
     }
 
+    /**
+     * @param bucket index of the word
+     * @return the 32-bit word holding the registers of the bucket
+     */
+    protected int word(int bucket)
+    {
+        return M[bucket];
+    }
+
     int[] readOnlyBits()
     {
         return M;
@@ -0,0 +1,400 @@
+package org.streaminer.stream.cardinality;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+import org.streaminer.util.ArrayUtils;
+import org.streaminer.util.IBuilder;
+import org.streaminer.util.Varint;
+import org.streaminer.util.hash.Hash;
+import org.streaminer.util.hash.MurmurHash3;
+
+/**
+ * K-Minimum Values sketch with a threshold theta (Theta Sketch), storing 63-bit
+ * hashes in a primitive open-addressing table.
+ * <p/>
+ * A hash is retained only while it is smaller than theta. Hashes are inserted
+ * until the table is 15/16 full, at which point a batch rebuild selects the
+ * k-th smallest retained hash as the new theta and drops everything above it,
+ * so the amortized cost of an offer is constant and no objects are allocated
+ * on the hot path.
+ * <p/>
+ * Sketches can be combined with {@link #union(ThetaSketch...)},
+ * {@link #intersection(ThetaSketch...)} and {@link #aNotB(ThetaSketch, ThetaSketch...)},
+ * each of which produces a new sketch whose estimate is the size of the resulting
+ * set.
+ * <p/>
+ * Reference:
+ *   Dasgupta, Anirban, et al. "A framework for estimating stream expression
+ *   cardinalities." Proceedings of the 19th International Conference on
+ *   Database Theory (ICDT 2016).
+ *
+ * @author Maycon Viana Bordin <mayconbordin@gmail.com>
+ */
+public class ThetaSketch implements IRichCardinality {
+    private static final double REBUILD_LOAD_FACTOR = 15.0 / 16.0;
+
+    private final int k;
+    private final Hash hasher;
+
+    private long[] table;
+    private int mask;
+    private int maxCount;
+    private int count;
+    private long theta;
+
+    /**
+     * Create a new sketch that retains at most k hashes after each rebuild.
+     * The relative standard error of the estimate is about 1/sqrt(k).
+     * @param k The nominal number of entries
+     */
+    public ThetaSketch(int k) {
+        this(k, Hash.getInstance(Hash.MURMUR_HASH3));
+    }
+
+    /**
+     * @param k The nominal number of entries
+     * @param hasher The hash function used by {@link #offer(java.lang.Object)}
+     */
+    public ThetaSketch(int k, Hash hasher) {
+        if (k < 2) {
+            throw new IllegalArgumentException("k must be at least 2");
+        }
+
+        this.k = k;
+        this.hasher = hasher;
+        this.theta = Long.MAX_VALUE;
+        this.count = 0;
+
+        int size = Integer.highestOneBit(2*k - 1) << 1;
+        this.table = new long[size];
+        this.mask = size - 1;
+        this.maxCount = (int) (size * REBUILD_LOAD_FACTOR);
+    }
+
+    @Override
+    public boolean offer(Object o) {
+        return offerHashed(hasher.hash64(o));
+    }
+
+    @Override
+    public boolean offerHashed(long hashedLong) {
+        return update(hashedLong >>> 1);
+    }
+
+    @Override
+    public boolean offerHashed(int hashedInt) {
+        return offerHashed(MurmurHash3.fmix(hashedInt));
+    }
+
+    @Override
+    public long cardinality() {
+        return Math.round(getEstimate());
+    }
+
+    /**
+     * @return The estimated number of distinct elements, without rounding
+     */
+    public double getEstimate() {
+        if (theta == Long.MAX_VALUE)
+            return count;
+        return count / getTheta();
+    }
+
+    /**
+     * @return The sampling probability of the sketch, in the (0, 1] range
+     */
+    public double getTheta() {
+        return theta / (double) Long.MAX_VALUE;
+    }
+
+    /**
+     * @return The number of hashes currently stored in the sketch
+     */
+    public int getRetainedEntries() {
+        return count;
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    /**
+     * @return An upper bound for the size of the serialized sketch
+     */
+    @Override
+    public int sizeof() {
+        return 16 + 9 * count;
+    }
+
+    /**
+     * Serializes the sketch in a compact form: the header is followed by the
+     * retained hashes in ascending order, delta-encoded as variable-length integers.
+     * @return The serialized sketch
+     * @throws IOException
+     */
+    @Override
+    public byte[] getBytes() throws IOException {
+        long[] values = getSortedEntries();
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(sizeof());
+        DataOutputStream dos = new DataOutputStream(baos);
+
+        dos.writeInt(k);
+        dos.writeLong(theta);
+        dos.writeInt(values.length);
+
+        long previous = 0;
+        for (long value : values) {
+            Varint.writeUnsignedVarLong(value - previous, dos);
+            previous = value;
+        }
+
+        return baos.toByteArray();
+    }
+
+    /**
+     * Merges this sketch with the given ones. Neither this sketch nor the
+     * estimators passed as parameters are modified.
+     * @param estimators Zero or more ThetaSketch instances
+     * @return A sketch for the union of all streams
+     * @throws CardinalityMergeException If one of the estimators is not a ThetaSketch
+     */
+    @Override
+    public IRichCardinality merge(IRichCardinality... estimators) throws CardinalityMergeException {
+        if (estimators == null) {
+            return union(this);
+        }
+
+        ThetaSketch[] sketches = new ThetaSketch[estimators.length + 1];
+        sketches[0] = this;
+        for (int i=0; i<estimators.length; i++) {
+            if (!(estimators[i] instanceof ThetaSketch)) {
+                throw new ThetaSketchMergeException("Cannot merge estimators of different class");
+            }
+            sketches[i+1] = (ThetaSketch) estimators[i];
+        }
+
+        return union(sketches);
+    }
+
+    /**
+     * @param sketches One or more sketches
+     * @return A sketch estimating the number of distinct elements seen by any of the sketches
+     */
+    public static ThetaSketch union(ThetaSketch... sketches) {
+        ThetaSketch result = new ThetaSketch(smallestK(sketches), sketches[0].hasher);
+        result.theta = smallestTheta(sketches);
+
+        for (ThetaSketch sketch : sketches) {
+            long[] t = sketch.table;
+            for (int i=0; i<t.length; i++) {
+                if (t[i] != 0) result.update(t[i]);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @param sketches One or more sketches
+     * @return A sketch estimating the number of distinct elements seen by all of the sketches
+     */
+    public static ThetaSketch intersection(ThetaSketch... sketches) {
+        ThetaSketch smallest = sketches[0];
+        for (ThetaSketch sketch : sketches) {
+            if (sketch.count < smallest.count)
+                smallest = sketch;
+        }
+
+        ThetaSketch result = new ThetaSketch(smallestK(sketches), sketches[0].hasher);
+        result.theta = smallestTheta(sketches);
+
+        long[] t = smallest.table;
+        for (int i=0; i<t.length; i++) {
+            if (t[i] != 0 && t[i] < result.theta && containedInAll(t[i], sketches))
+                result.update(t[i]);
+        }
+
+        return result;
+    }
+
+    /**
+     * @param a The sketch to subtract from
+     * @param others The sketches whose elements will be removed from a
+     * @return A sketch estimating the number of distinct elements seen by a but not by any of the others
+     */
+    public static ThetaSketch aNotB(ThetaSketch a, ThetaSketch... others) {
+        ThetaSketch result = new ThetaSketch(a.k, a.hasher);
+        result.theta = Math.min(a.theta, smallestTheta(others));
+
+        long[] t = a.table;
+        for (int i=0; i<t.length; i++) {
+            if (t[i] != 0 && t[i] < result.theta && !containedInAny(t[i], others))
+                result.update(t[i]);
+        }
+
+        return result;
+    }
+
+    /**
+     * @param a The first sketch
+     * @param b The second sketch
+     * @return The estimated Jaccard similarity between the two sets
+     */
+    public static double jaccard(ThetaSketch a, ThetaSketch b) {
+        ThetaSketch u = union(a, b);
+        if (u.count == 0)
+            return 0;
+
+        int n = 0;
+        for (long value : u.table) {
+            if (value != 0 && a.contains(value) && b.contains(value))
+                n++;
+        }
+
+        return n / (double) u.count;
+    }
+
+    /**
+     * @return A copy of the retained hashes in ascending order
+     */
+    protected long[] getSortedEntries() {
+        long[] values = new long[count];
+        int j = 0;
+        for (long value : table) {
+            if (value != 0) values[j++] = value;
+        }
+        Arrays.sort(values);
+        return values;
+    }
+
+    private boolean update(long hash) {
+        if (hash == 0 || hash >= theta)
+            return false;
+
+        int i = (int) hash & mask;
+        while (table[i] != 0) {
+            if (table[i] == hash)
+                return false;
+            i = (i + 1) & mask;
+        }
+
+        table[i] = hash;
+        if (++count > maxCount) {
+            rebuild();
+        }
+
+        return true;
+    }
+
+    private boolean contains(long hash) {
+        int i = (int) hash & mask;
+        while (table[i] != 0) {
+            if (table[i] == hash)
+                return true;
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Lowers theta to the k-th smallest hash and rehashes the k entries below it.
+     */
+    private void rebuild() {
+        long[] values = new long[count];
+        int j = 0;
+        for (long value : table) {
+            if (value != 0) values[j++] = value;
+        }
+
+        theta = ArrayUtils.select(k, count, values);
+        Arrays.fill(table, 0);
+        count = 0;
+
+        for (int i=0; i<k; i++) {
+            int idx = (int) values[i] & mask;
+            while (table[idx] != 0)
+                idx = (idx + 1) & mask;
+            table[idx] = values[i];
+            count++;
+        }
+    }
+
+    private static boolean containedInAll(long hash, ThetaSketch... sketches) {
+        for (ThetaSketch sketch : sketches)
+            if (!sketch.contains(hash))
+                return false;
+        return true;
+    }
+
+    private static boolean containedInAny(long hash, ThetaSketch... sketches) {
+        for (ThetaSketch sketch : sketches)
+            if (sketch.contains(hash))
+                return true;
+        return false;
+    }
+
+    private static int smallestK(ThetaSketch... sketches) {
+        int k = Integer.MAX_VALUE;
+        for (ThetaSketch sketch : sketches)
+            if (sketch.k < k)
+                k = sketch.k;
+        return k;
+    }
+
+    private static long smallestTheta(ThetaSketch... sketches) {
+        long theta = Long.MAX_VALUE;
+        for (ThetaSketch sketch : sketches)
+            if (sketch.theta < theta)
+                theta = sketch.theta;
+        return theta;
+    }
+
+    public static class Builder implements IBuilder<IRichCardinality>, Serializable {
+        private static final long serialVersionUID = 3518529184361204530L;
+
+        private final int k;
+
+        public Builder(int k) {
+            this.k = k;
+        }
+
+        @Override
+        public ThetaSketch build() {
+            return new ThetaSketch(k);
+        }
+
+        @Override
+        public int sizeof() {
+            return 16 + 9 * k;
+        }
+
+        public static ThetaSketch build(byte[] bytes) throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+
+            ThetaSketch sketch = new ThetaSketch(in.readInt());
+            sketch.theta = in.readLong();
+
+            int n = in.readInt();
+            long value = 0;
+            for (int i=0; i<n; i++) {
+                value += Varint.readUnsignedVarLong(in);
+                sketch.update(value);
+            }
+
+            return sketch;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    protected static class ThetaSketchMergeException extends CardinalityMergeException {
+        public ThetaSketchMergeException(String message) {
+            super(message);
+        }
+    }
+}
@@ -55,6 +55,9 @@ import java.io.DataOutput;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.List;
+import com.google.common.hash.Funnel;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
 import org.streaminer.util.hash.Hash;
 
 /**
@@ -67,6 +70,16 @@ import org.streaminer.util.hash.Hash;
  * Typically, a filter will be implemented as a Bloom filter (or a Bloom filter extension).
  * <p>
  * It must be extended in order to define the real behavior.
+ * <p>
+ * Besides {@link Key}, the filters that override {@link #probe(long, long, int)} accept
+ * typed entries: <code>long</code> values, character sequences, ranges of byte arrays and
+ * objects described by a Guava {@link Funnel}. A typed entry is hashed in place with the
+ * 128-bit MurmurHash3, whatever the hash type of the filter, and its positions are
+ * <code>h1 + i * h2</code>. Typed entries thus have positions of their own: a value must be
+ * tested with the same kind of entry it was added with. The kinds of entries agree with
+ * each other as the funnel methods do, e.g. <code>add(long)</code> is the same as a funnel
+ * that calls <code>putLong</code>, and <code>add(CharSequence)</code> the same as
+ * <code>putUnencodedChars</code>.
  * 
  * @see Key The general behavior of a key
  * @see HashFunction A hash function
@@ -85,6 +98,26 @@ public abstract class AbstractFilter implements IFilter<Key> {
   /** Type of hashing function to use. */
   protected int hashType;
 
+  /** Adds a typed entry, see {@link #probe(long, long, int)}. */
+  protected static final int ADD = Murmur3.Probe.ADD;
+
+  /** Tests a typed entry, see {@link #probe(long, long, int)}. */
+  protected static final int TEST = Murmur3.Probe.TEST;
+
+  /** Deletes a typed entry, see {@link #probe(long, long, int)}. */
+  protected static final int DELETE = Murmur3.Probe.DELETE;
+
+  /** Counts a typed entry, see {@link #probe(long, long, int)}. */
+  protected static final int COUNT = Murmur3.Probe.COUNT;
+
+  /** Hands the hash of the typed entries to {@link #probe(long, long, int)}. */
+  private final Murmur3.Probe prober = new Murmur3.Probe() {
+    @Override
+    int probe(long h1, long h2, int op) {
+      return AbstractFilter.this.probe(h1, h2, op);
+    }
+  };
+
   protected AbstractFilter() {}
   
   /** 
@@ -185,6 +218,149 @@ public abstract class AbstractFilter implements IFilter<Key> {
     }
   }//end add()
   
+  /**
+   * Adds a <code>long</code> value to <i>this</i> filter.
+   * @param value The value to add.
+   */
+  public void add(long value) {
+    probeEntry(value, ADD);
+  }
+
+  /**
+   * Determines wether a <code>long</code> value belongs to <i>this</i> filter.
+   * @param value The value to test.
+   * @return boolean True if the value was added with {@link #add(long)}, or a false positive.
+   */
+  public boolean membershipTest(long value) {
+    return probeEntry(value, TEST) != 0;
+  }
+
+  /**
+   * Adds a sequence of characters to <i>this</i> filter, without encoding it into bytes.
+   * @param value The characters to add.
+   */
+  public void add(CharSequence value) {
+    probeEntry(value, ADD);
+  }
+
+  /**
+   * Determines wether a sequence of characters belongs to <i>this</i> filter.
+   * @param value The characters to test.
+   * @return boolean True if the value was added with {@link #add(CharSequence)}, or a false positive.
+   */
+  public boolean membershipTest(CharSequence value) {
+    return probeEntry(value, TEST) != 0;
+  }
+
+  /**
+   * Adds the bytes of a range of an array to <i>this</i> filter, without copying them.
+   * @param bytes The array.
+   * @param offset Position of the first byte of the entry.
+   * @param length Number of bytes of the entry.
+   */
+  public void add(byte[] bytes, int offset, int length) {
+    probeEntry(bytes, offset, length, ADD);
+  }
+
+  /**
+   * Determines wether the bytes of a range of an array belong to <i>this</i> filter.
+   * @param bytes The array.
+   * @param offset Position of the first byte of the entry.
+   * @param length Number of bytes of the entry.
+   * @return boolean True if the bytes were added as a range, or a false positive.
+   */
+  public boolean membershipTest(byte[] bytes, int offset, int length) {
+    return probeEntry(bytes, offset, length, TEST) != 0;
+  }
+
+  /**
+   * Adds an object to <i>this</i> filter, as described by a funnel. Unlike the other
+   * typed entries, the object is hashed by Guava, which allocates on each call.
+   * @param value The object to add.
+   * @param funnel Puts the fields of the object into the hash.
+   */
+  public <T> void add(T value, Funnel<? super T> funnel) {
+    probeEntry(value, funnel, ADD);
+  }
+
+  /**
+   * Determines wether an object belongs to <i>this</i> filter.
+   * @param value The object to test.
+   * @param funnel Puts the fields of the object into the hash.
+   * @return boolean True if the object was added with the same funnel, or a false positive.
+   */
+  public <T> boolean membershipTest(T value, Funnel<? super T> funnel) {
+    return probeEntry(value, funnel, TEST) != 0;
+  }
+
+  /**
+   * Adds, tests, deletes or counts a typed entry, whose positions are
+   * <code>h1 + i * h2</code>, mapped to the vector with {@link Murmur3#position(long, int)}.
+   * <p>
+   * Filters that do not override it don't support typed entries, and filters that
+   * override it may only support some of the operations.
+   * @param h1 The lower half of the 128-bit hash of the entry.
+   * @param h2 The upper half of the 128-bit hash of the entry.
+   * @param op One of {@link #ADD}, {@link #TEST}, {@link #DELETE} or {@link #COUNT}.
+   * @return 1 if a tested entry belongs to <i>this</i> filter and 0 otherwise, or the
+   * count of a counted entry. The value of the other operations is not used.
+   */
+  protected int probe(long h1, long h2, int op) {
+    throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support typed entries");
+  }
+
+  /**
+   * Hashes a <code>long</code> value and hands it to {@link #probe(long, long, int)}.
+   * @param value The value.
+   * @param op The operation.
+   * @return The result of the probe.
+   */
+  protected final int probeEntry(long value, int op) {
+    return Murmur3.hash128(value, prober, op);
+  }
+
+  /**
+   * Hashes a sequence of characters in place and hands it to {@link #probe(long, long, int)}.
+   * @param value The characters.
+   * @param op The operation.
+   * @return The result of the probe.
+   */
+  protected final int probeEntry(CharSequence value, int op) {
+    return Murmur3.hash128(value, prober, op);
+  }
+
+  /**
+   * Hashes a range of an array in place and hands it to {@link #probe(long, long, int)}.
+   * @param bytes The array.
+   * @param offset Position of the first byte of the entry.
+   * @param length Number of bytes of the entry.
+   * @param op The operation.
+   * @return The result of the probe.
+   */
+  protected final int probeEntry(byte[] bytes, int offset, int length, int op) {
+    return Murmur3.hash128(bytes, offset, length, prober, op);
+  }
+
+  /**
+   * Hashes an object with a funnel and hands it to {@link #probe(long, long, int)}.
+   * <p>
+   * Unlike the other typed entries, this goes through Guava's hasher, which allocates
+   * a hasher, a hash code and a copy of its upper half for each call.
+   * @param value The object.
+   * @param funnel Puts the fields of the object into the hash.
+   * @param op The operation.
+   * @return The result of the probe.
+   */
+  protected final <T> int probeEntry(T value, Funnel<? super T> funnel, int op) {
+    HashCode code = Hashing.murmur3_128().hashObject(value, funnel);
+    byte[] bytes = code.asBytes();
+    long h2 = 0;
+    for (int i = 15; i >= 8; i--) {
+      h2 = (h2 << 8) | (bytes[i] & 0xFF);
+    }
+    return probe(code.asLong(), h2, op);
+  }
+
   // Writable interface
   
   public void write(DataOutput out) throws IOException {
@@ -150,6 +150,48 @@ public class BloomFilter extends AbstractFilter {
     return true;
   }
 
+  @Override
+  protected int probe(long h1, long h2, int op) {
+    if(op != ADD && op != TEST) {
+      throw new UnsupportedOperationException(getClass().getSimpleName() + " cannot delete or count entries");
+    }
+    long combined = h1;
+    for(int i = 0; i < nbHash; i++) {
+      int index = Murmur3.position(combined, vectorSize);
+      if(op == ADD) {
+        bits.set(index);
+      } else if(!bits.get(index)) {
+        return 0;
+      }
+      combined += h2;
+    }
+    return 1;
+  }
+
+  /**
+   * Adds a key given by its hash chain, see {@link HashFunction#chain(Key, int)}.
+   * @param chain At least <code>nbHash</code> raw hashed values of the key.
+   */
+  void add(int[] chain) {
+    for(int i = 0; i < nbHash; i++) {
+      bits.set(HashFunction.position(chain[i], vectorSize));
+    }
+  }
+
+  /**
+   * Tests a key given by its hash chain, see {@link HashFunction#chain(Key, int)}.
+   * @param chain At least <code>nbHash</code> raw hashed values of the key.
+   * @return True if the key belongs to <i>this</i> filter.
+   */
+  boolean membershipTest(int[] chain) {
+    for(int i = 0; i < nbHash; i++) {
+      if(!bits.get(HashFunction.position(chain[i], vectorSize))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   @Override
   public void not() {
     bits.flip(0, vectorSize - 1);
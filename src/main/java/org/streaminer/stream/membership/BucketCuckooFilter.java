@@ -0,0 +1,379 @@
+package org.streaminer.stream.membership;
+
+import org.streaminer.util.Preconditions;
+import org.streaminer.util.hash.MurmurHash3;
+
+/**
+ * Cuckoo filter with buckets of four fingerprints packed into <code>long</code> words.
+ * <p>
+ * An item is reduced to a 64-bit hash, whose low bits select its first bucket and whose
+ * high bits give its fingerprint. The second bucket is derived from the first one and
+ * the fingerprint only (partial-key cuckoo hashing), so a fingerprint can be moved to its
+ * alternate bucket without knowing the item. With four slots per bucket the filter
+ * can be filled to about 95% of its capacity before an insertion fails.
+ * <p>
+ * A bucket is compared with a fingerprint in a single step, with the word-parallel
+ * test for a zero slot in the bucket xor-ed with the fingerprint. Fingerprints of 8 bits
+ * pack two buckets per word, with a false positive rate of about 3%, and fingerprints of
+ * 16 bits one bucket per word, with a rate of about 0.012%. No operation allocates.
+ * <p>
+ * Unlike {@link CuckooFilter}, adding an item twice stores two copies of its fingerprint,
+ * which must both be deleted. This keeps deletions exact when two items share a
+ * fingerprint. This class is not thread-safe.
+ *
+ * @see <a href="https://www.cs.cmu.edu/~dga/papers/cuckoo-conext2014.pdf">Cuckoo Filter:
+ *      Practically Better Than Bloom</a>
+ * @author Maycon Viana Bordin <mayconbordin@gmail.com>
+ */
+public class BucketCuckooFilter implements IFilter<byte[]> {
+    private static final int SLOTS = 4;
+    private static final int MAX_KICKS = 500;
+    private static final double MAX_LOAD = 0.95;
+
+    private final int bitsPerTag;
+    private final long tagMask;
+    private final long bucketMask;
+    private final int bucketShift;
+    private final int bucketsPerWordLog;
+
+    /** One bit at the bottom and at the top of each slot of a bucket */
+    private final long lowBits;
+    private final long highBits;
+
+    private final long[] words;
+    private final int numBuckets;
+    private final int indexMask;
+
+    private long size = 0;
+    private long seed = 0x2545F4914F6CDD1DL;
+
+    /** Fingerprint evicted by an insertion that failed, kept so that it is still found */
+    private boolean hasVictim = false;
+    private int victimIndex;
+    private long victimTag;
+
+    /** Hash of the last array of bytes, see {@link #hash(byte[], int, int)} */
+    private long lastHash;
+    private final Murmur3.Probe hasher = new Murmur3.Probe() {
+        @Override
+        int probe(long h1, long h2, int op) {
+            lastHash = h1;
+            return 1;
+        }
+    };
+
+    /**
+     * Creates a filter with 16-bit fingerprints.
+     *
+     * @param maxItems Number of items the filter is expected to hold
+     */
+    public BucketCuckooFilter(int maxItems) {
+        this(maxItems, 16);
+    }
+
+    /**
+     * @param maxItems Number of items the filter is expected to hold
+     * @param bitsPerTag Size of the fingerprints, 8 or 16
+     */
+    public BucketCuckooFilter(int maxItems, int bitsPerTag) {
+        Preconditions.checkArgument(maxItems > 0, "The number of items must be positive");
+        Preconditions.checkArgument(bitsPerTag == 8 || bitsPerTag == 16, "Fingerprints must have 8 or 16 bits");
+
+        long buckets = Long.highestOneBit(Math.max(1, (long) Math.ceil(maxItems / (MAX_LOAD * SLOTS))) * 2 - 1);
+        Preconditions.checkArgument(buckets <= (1 << 30), "The filter would be too large");
+
+        this.bitsPerTag = bitsPerTag;
+        this.tagMask = (1L << bitsPerTag) - 1;
+        this.bucketShift = bitsPerTag * SLOTS;
+        this.bucketMask = (bucketShift == 64) ? -1L : (1L << bucketShift) - 1;
+        this.bucketsPerWordLog = (bucketShift == 64) ? 0 : 1;
+
+        long low = 0;
+        for (int i = 0; i < SLOTS; i++) {
+            low |= 1L << (i * bitsPerTag);
+        }
+        this.lowBits = low;
+        this.highBits = low << (bitsPerTag - 1);
+
+        this.numBuckets = (int) buckets;
+        this.indexMask = numBuckets - 1;
+        this.words = new long[Math.max(1, numBuckets >>> bucketsPerWordLog)];
+    }
+
+    @Override
+    public void add(byte[] item) {
+        addHash(hash(item, 0, item.length));
+    }
+
+    @Override
+    public boolean membershipTest(byte[] item) {
+        return containsHash(hash(item, 0, item.length));
+    }
+
+    /**
+     * @param item
+     * @return True if the fingerprint of the item was found and removed
+     */
+    public boolean delete(byte[] item) {
+        return deleteHash(hash(item, 0, item.length));
+    }
+
+    /**
+     * @param item
+     * @return False if the filter is full and the item was not added
+     */
+    public boolean add(long item) {
+        return addHash(MurmurHash3.fmix(item));
+    }
+
+    public boolean membershipTest(long item) {
+        return containsHash(MurmurHash3.fmix(item));
+    }
+
+    public boolean delete(long item) {
+        return deleteHash(MurmurHash3.fmix(item));
+    }
+
+    /**
+     * Adds many items at once.
+     *
+     * @param items
+     * @return The number of items added, less than their count if the filter got full
+     */
+    public int addAll(long[] items) {
+        return addAll(items, 0, items.length);
+    }
+
+    /**
+     * @param items
+     * @param offset Position of the first item
+     * @param length Number of items
+     * @return The number of items added, less than the length if the filter got full
+     */
+    public int addAll(long[] items, int offset, int length) {
+        int added = 0;
+        for (int i = offset; i < offset + length; i++) {
+            if (!addHash(MurmurHash3.fmix(items[i]))) {
+                break;
+            }
+            added++;
+        }
+        return added;
+    }
+
+    /**
+     * Tests many items at once.
+     *
+     * @param items
+     * @param out Receives the result of each item
+     */
+    public void membershipTest(long[] items, boolean[] out) {
+        Preconditions.checkArgument(out.length >= items.length, "The output is too short");
+        for (int i = 0; i < items.length; i++) {
+            out[i] = containsHash(MurmurHash3.fmix(items[i]));
+        }
+    }
+
+    /**
+     * Adds an item given by its 64-bit hash, which must be well distributed.
+     *
+     * @param hash
+     * @return False if the filter is full and the item was not added
+     */
+    public boolean addHash(long hash) {
+        if (hasVictim) {
+            return false;
+        }
+
+        long tag = tag(hash);
+        int i1 = (int) hash & indexMask;
+        if (insertTag(i1, tag) || insertTag(altIndex(i1, tag), tag)) {
+            size++;
+            return true;
+        }
+
+        // move fingerprints to their alternate buckets until one finds a free slot
+        int index = ((nextRandom() & 1) == 0) ? i1 : altIndex(i1, tag);
+        for (int kick = 0; kick < MAX_KICKS; kick++) {
+            int slot = nextRandom() & (SLOTS - 1);
+            long bucket = bucket(index);
+            int shift = slot * bitsPerTag;
+            long evicted = (bucket >>> shift) & tagMask;
+            setBucket(index, (bucket & ~(tagMask << shift)) | (tag << shift));
+
+            tag = evicted;
+            index = altIndex(index, tag);
+            if (insertTag(index, tag)) {
+                size++;
+                return true;
+            }
+        }
+
+        // the item is in, but a fingerprint was left without a slot
+        hasVictim = true;
+        victimIndex = index;
+        victimTag = tag;
+        size++;
+        return true;
+    }
+
+    /**
+     * @param hash The 64-bit hash of an item
+     * @return True if the item may have been added, false if it was not
+     */
+    public boolean containsHash(long hash) {
+        long tag = tag(hash);
+        int i1 = (int) hash & indexMask;
+        int i2 = altIndex(i1, tag);
+        if (hasTag(bucket(i1), tag) || hasTag(bucket(i2), tag)) {
+            return true;
+        }
+        return hasVictim && victimTag == tag && (victimIndex == i1 || victimIndex == i2);
+    }
+
+    /**
+     * @param hash The 64-bit hash of an item
+     * @return True if a fingerprint of the item was found and removed
+     */
+    public boolean deleteHash(long hash) {
+        long tag = tag(hash);
+        int i1 = (int) hash & indexMask;
+        int i2 = altIndex(i1, tag);
+
+        if (removeTag(i1, tag) || removeTag(i2, tag)) {
+            size--;
+            if (hasVictim) {
+                // there is room again, try to find a slot for the evicted fingerprint
+                hasVictim = false;
+                size--;
+                addEvicted(victimIndex, victimTag);
+            }
+            return true;
+        }
+        if (hasVictim && victimTag == tag && (victimIndex == i1 || victimIndex == i2)) {
+            hasVictim = false;
+            size--;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return The number of items in the filter
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return The number of fingerprints the filter can hold
+     */
+    public long capacity() {
+        return (long) numBuckets * SLOTS;
+    }
+
+    public double loadFactor() {
+        return size / (double) capacity();
+    }
+
+    /**
+     * @return True if an insertion failed, no more items can be added until one is deleted
+     */
+    public boolean isFull() {
+        return hasVictim;
+    }
+
+    /**
+     * @return The size of the table, in bytes
+     */
+    public int sizeof() {
+        return 8 * words.length;
+    }
+
+    private void addEvicted(int index, long tag) {
+        if (insertTag(index, tag) || insertTag(altIndex(index, tag), tag)) {
+            size++;
+            return;
+        }
+        hasVictim = true;
+        victimIndex = index;
+        victimTag = tag;
+        size++;
+    }
+
+    private long hash(byte[] item, int offset, int length) {
+        Murmur3.hash128(item, offset, length, hasher, Murmur3.Probe.TEST);
+        return lastHash;
+    }
+
+    private long tag(long hash) {
+        long tag = (hash >>> (64 - bitsPerTag));
+        return (tag == 0) ? 1 : tag;
+    }
+
+    private int altIndex(int index, long tag) {
+        return (index ^ (int) (tag * 0x5bd1e995L)) & indexMask;
+    }
+
+    private long bucket(int index) {
+        if (bucketsPerWordLog == 0) {
+            return words[index];
+        }
+        return (words[index >>> 1] >>> ((index & 1) * bucketShift)) & bucketMask;
+    }
+
+    private void setBucket(int index, long bucket) {
+        if (bucketsPerWordLog == 0) {
+            words[index] = bucket;
+        } else {
+            int shift = (index & 1) * bucketShift;
+            words[index >>> 1] = (words[index >>> 1] & ~(bucketMask << shift)) | (bucket << shift);
+        }
+    }
+
+    /**
+     * @return True if a slot of the bucket holds the tag, in a single word-parallel test
+     */
+    private boolean hasTag(long bucket, long tag) {
+        return hasZeroSlot(bucket ^ (tag * lowBits));
+    }
+
+    private boolean hasZeroSlot(long bucket) {
+        return ((bucket - lowBits) & ~bucket & highBits) != 0;
+    }
+
+    private boolean insertTag(int index, long tag) {
+        long bucket = bucket(index);
+        if (!hasZeroSlot(bucket)) {
+            return false;
+        }
+        for (int shift = 0; shift < bucketShift; shift += bitsPerTag) {
+            if (((bucket >>> shift) & tagMask) == 0) {
+                setBucket(index, bucket | (tag << shift));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean removeTag(int index, long tag) {
+        long bucket = bucket(index);
+        if (!hasTag(bucket, tag)) {
+            return false;
+        }
+        for (int shift = 0; shift < bucketShift; shift += bitsPerTag) {
+            if (((bucket >>> shift) & tagMask) == tag) {
+                setBucket(index, bucket & ~(tagMask << shift));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int nextRandom() {
+        seed ^= seed << 13;
+        seed ^= seed >>> 7;
+        seed ^= seed << 17;
+        return (int) (seed >>> 32);
+    }
+}
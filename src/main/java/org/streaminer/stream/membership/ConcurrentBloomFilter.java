@@ -0,0 +1,223 @@
+package org.streaminer.stream.membership;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.streaminer.util.Preconditions;
+
+/**
+ * Bloom filter that can be updated and queried from many threads at once without locks.
+ * <p>
+ * The bits live in an {@link AtomicLongArray}. Setting a bit that is already set is a
+ * plain volatile read, otherwise the word is updated with a compare-and-set loop that
+ * only retries when another thread changed the same word in the meantime. Queries are
+ * volatile reads and never block or retry. A key is only guaranteed to be visible to
+ * the queries that start after the call that added it returned.
+ * <p>
+ * The positions of a key are derived from its 128-bit MurmurHash3, as in
+ * {@link LongBloomFilter}. The number of bits set is kept exactly, in counters striped
+ * by thread so that the writers do not contend on a single counter, and it gives an
+ * estimate of the number of distinct keys added.
+ *
+ * @author Maycon Viana Bordin <mayconbordin@gmail.com>
+ */
+public class ConcurrentBloomFilter implements IFilter<byte[]> {
+    private static final int MAX_STRIPES = 64;
+
+    /**
+     * Each counter takes a cache line of its own
+     */
+    private static final int STRIPE_PADDING = 8;
+
+    private final AtomicLongArray words;
+    private final int numBits;
+    private final int numHashes;
+
+    private final AtomicLongArray bitCounts;
+    private final int stripeMask;
+
+    private final Murmur3.Probe prober = new Murmur3.Probe() {
+        @Override
+        int probe(long h1, long h2, int op) {
+            boolean result = (op == ADD) ? setBits(h1, h2) : testBits(h1, h2);
+            return result ? 1 : 0;
+        }
+    };
+
+    /**
+     * @param numBits Number of bits of the filter
+     * @param numHashes Number of positions set for each key
+     */
+    public ConcurrentBloomFilter(int numBits, int numHashes) {
+        Preconditions.checkArgument(numBits > 0, "The number of bits must be positive");
+        Preconditions.checkArgument(numHashes > 0, "The number of hashes must be positive");
+
+        this.numBits = numBits;
+        this.numHashes = numHashes;
+        this.words = new AtomicLongArray((numBits + 63) >>> 6);
+
+        int stripes = Integer.highestOneBit(Math.min(MAX_STRIPES, Runtime.getRuntime().availableProcessors()) * 2 - 1);
+        this.stripeMask = stripes - 1;
+        this.bitCounts = new AtomicLongArray(stripes * STRIPE_PADDING);
+    }
+
+    /**
+     * @param expectedInsertions Number of keys the filter is expected to hold
+     * @param fpp The maximum tolerable false positive probability
+     * @return A filter sized with {@link BloomCalculations}
+     */
+    public static ConcurrentBloomFilter create(int expectedInsertions, double fpp) {
+        Preconditions.checkArgument(expectedInsertions > 0, "The expected insertions must be positive");
+        BloomCalculations.BloomSpecification spec = BloomCalculations.computeBucketsAndK(fpp);
+        long numBits = (long) expectedInsertions * spec.bucketsPerElement;
+        Preconditions.checkArgument(numBits <= Integer.MAX_VALUE, "The filter would be too large");
+        return new ConcurrentBloomFilter((int) numBits, spec.K);
+    }
+
+    @Override
+    public void add(byte[] key) {
+        put(key, 0, key.length);
+    }
+
+    /**
+     * @param key
+     * @return True if a bit of the key was set by this call, i.e. the key was surely
+     *         not in the filter before
+     */
+    public boolean put(byte[] key) {
+        return put(key, 0, key.length);
+    }
+
+    /**
+     * @param bytes The array
+     * @param offset Position of the first byte of the key
+     * @param length Number of bytes of the key
+     * @return True if a bit of the key was set by this call
+     */
+    public boolean put(byte[] bytes, int offset, int length) {
+        return Murmur3.hash128(bytes, offset, length, prober, Murmur3.Probe.ADD) != 0;
+    }
+
+    @Override
+    public boolean membershipTest(byte[] key) {
+        return membershipTest(key, 0, key.length);
+    }
+
+    /**
+     * @param bytes The array
+     * @param offset Position of the first byte of the key
+     * @param length Number of bytes of the key
+     * @return True if the key may have been added, false if it was not
+     */
+    public boolean membershipTest(byte[] bytes, int offset, int length) {
+        return Murmur3.hash128(bytes, offset, length, prober, Murmur3.Probe.TEST) != 0;
+    }
+
+    /**
+     * Adds the keys of another filter with the same parameters to this one. Keys added
+     * to the other filter concurrently may or may not be included.
+     *
+     * @param other
+     */
+    public void merge(ConcurrentBloomFilter other) {
+        Preconditions.checkArgument(other.numBits == numBits && other.numHashes == numHashes,
+                "Cannot merge filters with different parameters");
+
+        long added = 0;
+        for (int i = 0; i < words.length(); i++) {
+            long bits = other.words.get(i);
+            long old;
+            do {
+                old = words.get(i);
+                if ((old | bits) == old) {
+                    break;
+                }
+            } while (!words.compareAndSet(i, old, old | bits));
+            added += Long.bitCount(bits & ~old);
+        }
+        countBits(added);
+    }
+
+    /**
+     * @return The number of bits set
+     */
+    public long bitCount() {
+        long count = 0;
+        for (int i = 0; i < bitCounts.length(); i += STRIPE_PADDING) {
+            count += bitCounts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Estimates the number of distinct keys added from the number of bits set, with
+     * <code>n = -(m / k) ln(1 - X / m)</code>.
+     *
+     * @return The estimated number of distinct keys
+     */
+    public long approximateElementCount() {
+        double fractionSet = bitCount() / (double) numBits;
+        if (fractionSet >= 1) {
+            return Long.MAX_VALUE;
+        }
+        return Math.round(-Math.log1p(-fractionSet) * numBits / numHashes);
+    }
+
+    /**
+     * @return The probability of a false positive given the bits set so far
+     */
+    public double expectedFpp() {
+        return Math.pow(bitCount() / (double) numBits, numHashes);
+    }
+
+    public int getNumBits() {
+        return numBits;
+    }
+
+    public int getNumHashes() {
+        return numHashes;
+    }
+
+    private boolean setBits(long h1, long h2) {
+        long combined = h1;
+        int added = 0;
+        for (int i = 0; i < numHashes; i++) {
+            int index = (int) (((combined >>> 32) * numBits) >>> 32);
+            int word = index >>> 6;
+            long mask = 1L << index;
+
+            long old = words.get(word);
+            while ((old & mask) == 0) {
+                if (words.compareAndSet(word, old, old | mask)) {
+                    added++;
+                    break;
+                }
+                old = words.get(word);
+            }
+            combined += h2;
+        }
+
+        if (added > 0) {
+            countBits(added);
+            return true;
+        }
+        return false;
+    }
+
+    private boolean testBits(long h1, long h2) {
+        long combined = h1;
+        for (int i = 0; i < numHashes; i++) {
+            int index = (int) (((combined >>> 32) * numBits) >>> 32);
+            if ((words.get(index >>> 6) & (1L << index)) == 0) {
+                return false;
+            }
+            combined += h2;
+        }
+        return true;
+    }
+
+    private void countBits(long added) {
+        if (added != 0) {
+            long id = Thread.currentThread().getId();
+            bitCounts.addAndGet(((int) (id ^ (id >>> 32)) & stripeMask) * STRIPE_PADDING, added);
+        }
+    }
+}
@@ -48,6 +48,7 @@
  */
 package org.streaminer.stream.membership;
 
+import com.google.common.hash.Funnel;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
@@ -231,6 +232,122 @@ public final class CountingBloomFilter extends AbstractFilter {
     }
   }
 
+  /**
+   * Removes a <code>long</code> value added with {@link #add(long)}.
+   * @param value The value to remove.
+   * @throws IllegalArgumentException If the value does not belong to <i>this</i> filter.
+   */
+  public void delete(long value) {
+    probeEntry(value, DELETE);
+  }
+
+  /**
+   * Removes a sequence of characters added with {@link #add(CharSequence)}.
+   * @param value The characters to remove.
+   * @throws IllegalArgumentException If the value does not belong to <i>this</i> filter.
+   */
+  public void delete(CharSequence value) {
+    probeEntry(value, DELETE);
+  }
+
+  /**
+   * Removes a range of an array added with {@link #add(byte[], int, int)}.
+   * @param bytes The array.
+   * @param offset Position of the first byte of the entry.
+   * @param length Number of bytes of the entry.
+   * @throws IllegalArgumentException If the bytes do not belong to <i>this</i> filter.
+   */
+  public void delete(byte[] bytes, int offset, int length) {
+    probeEntry(bytes, offset, length, DELETE);
+  }
+
+  /**
+   * Removes an object added with {@link #add(Object, Funnel)} and the same funnel.
+   * @param value The object to remove.
+   * @param funnel Puts the fields of the object into the hash.
+   * @throws IllegalArgumentException If the object does not belong to <i>this</i> filter.
+   */
+  public <T> void delete(T value, Funnel<? super T> funnel) {
+    probeEntry(value, funnel, DELETE);
+  }
+
+  /**
+   * Approximate count of a <code>long</code> value, see {@link #estimateCount(Key)}.
+   * @param value The value to count.
+   * @return The estimated number of times the value was added.
+   */
+  public int estimateCount(long value) {
+    return probeEntry(value, COUNT);
+  }
+
+  /**
+   * Approximate count of a sequence of characters, see {@link #estimateCount(Key)}.
+   * @param value The characters to count.
+   * @return The estimated number of times the value was added.
+   */
+  public int estimateCount(CharSequence value) {
+    return probeEntry(value, COUNT);
+  }
+
+  /**
+   * Approximate count of a range of an array, see {@link #estimateCount(Key)}.
+   * @param bytes The array.
+   * @param offset Position of the first byte of the entry.
+   * @param length Number of bytes of the entry.
+   * @return The estimated number of times the bytes were added.
+   */
+  public int estimateCount(byte[] bytes, int offset, int length) {
+    return probeEntry(bytes, offset, length, COUNT);
+  }
+
+  /**
+   * Approximate count of an object, see {@link #estimateCount(Key)}.
+   * @param value The object to count.
+   * @param funnel Puts the fields of the object into the hash.
+   * @return The estimated number of times the object was added with the same funnel.
+   */
+  public <T> int estimateCount(T value, Funnel<? super T> funnel) {
+    return probeEntry(value, funnel, COUNT);
+  }
+
+  @Override
+  protected int probe(long h1, long h2, int op) {
+    if(op == DELETE && probe(h1, h2, TEST) == 0) {
+      throw new IllegalArgumentException("Key is not a member");
+    }
+
+    long res = BUCKET_MAX_VALUE;
+    long combined = h1;
+    for(int i = 0; i < nbHash; i++) {
+      int index = Murmur3.position(combined, vectorSize);
+      combined += h2;
+
+      // find the bucket
+      int wordNum = index >> 4;          // div 16
+      int bucketShift = (index & 0x0f) << 2;  // (mod 16) * 4
+
+      long bucketMask = 15L << bucketShift;
+      long bucketValue = (buckets[wordNum] & bucketMask) >>> bucketShift;
+
+      if(op == ADD) {
+        // only increment if the count in the bucket is less than BUCKET_MAX_VALUE
+        if(bucketValue < BUCKET_MAX_VALUE) {
+          buckets[wordNum] = (buckets[wordNum] & ~bucketMask) | ((bucketValue + 1) << bucketShift);
+        }
+      } else if(op == DELETE) {
+        // only decrement if the count in the bucket is between 0 and BUCKET_MAX_VALUE
+        if(bucketValue >= 1 && bucketValue < BUCKET_MAX_VALUE) {
+          buckets[wordNum] = (buckets[wordNum] & ~bucketMask) | ((bucketValue - 1) << bucketShift);
+        }
+      } else if(bucketValue == 0) {
+        return 0;
+      } else if(bucketValue < res) {
+        res = bucketValue;
+      }
+    }
+    return (op == TEST) ? 1 : (int)res;
+  }
+
   @Override
   public void not() {
     throw new UnsupportedOperationException("not() is undefined for "
@@ -52,6 +52,9 @@ package org.streaminer.stream.membership;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Implements a <i>dynamic Bloom filter</i>, as defined in the INFOCOM 2006 paper.
@@ -77,6 +80,18 @@ import java.io.IOException;
  * this new Bloom filter is set to one.  A given key is said to belong to the
  * DBF if the <code>k</code> positions are set to one in one of the matrix rows.
  * <p>
+ * A key is hashed once per lookup, and the values of its hash chain are reduced
+ * to the positions of every row. The rows are probed from the newest to the oldest
+ * and, if a {@link ForkJoinPool} is given, filters with many rows are probed in
+ * parallel.
+ * <p>
+ * In the <i>scalable</i> mode each new row records <code>growth</code> times more
+ * keys than the previous one, and uses more hash functions so that its false
+ * positive rate is <code>tighteningRatio</code> times the rate of the previous one.
+ * The number of rows is then logarithmic in the number of keys and the overall false
+ * positive rate converges to <code>p / (1 - tighteningRatio)</code>, where
+ * <code>p</code> is the rate of the first row.
+ * <p>
  * Originally created by
  * <a href="http://www.one-lab.org">European Commission One-Lab Project 034819</a>.
  *
@@ -84,8 +99,19 @@ import java.io.IOException;
  * @see BloomFilter A Bloom filter
  * 
  * @see <a href="http://www.cse.fau.edu/~jie/research/publications/Publication_files/infocom2006.pdf">Theory and Network Applications of Dynamic Bloom Filters</a>
+ * @see <a href="http://gsd.di.uminho.pt/members/cbm/ps/dbloom.pdf">Scalable Bloom Filters</a>
  */
 public class DynamicBloomFilter extends AbstractFilter {
+  /**
+   * Minimum number of rows to probe them in parallel.
+   */
+  static final int PARALLEL_THRESHOLD = 16;
+
+  /**
+   * Number of rows probed sequentially by a parallel task.
+   */
+  private static final int ROWS_PER_TASK = 4;
+
   /** 
    * Threshold for the maximum number of key to record in a dynamic Bloom filter row.
    */
@@ -101,6 +127,21 @@ public class DynamicBloomFilter extends AbstractFilter {
    */
   private BloomFilter[] matrix;
 
+  /**
+   * Growth of the capacity of a row in relation to the previous one, 1 unless scalable.
+   */
+  private int growth = 1;
+
+  /**
+   * Ratio of the false positive rate of a row to the previous one, 1 unless scalable.
+   */
+  private double tighteningRatio = 1;
+
+  /**
+   * The pool that probes the rows in parallel, if any.
+   */
+  private ForkJoinPool pool;
+
   /**
    * Zero-args constructor for the serialization.
    */
@@ -118,48 +159,81 @@ public class DynamicBloomFilter extends AbstractFilter {
    * dynamic Bloom filter row.
    */
   public DynamicBloomFilter(int vectorSize, int nbHash, int hashType, int nr) {
+    this(vectorSize, nbHash, hashType, nr, 1, 1);
+  }
+
+  /**
+   * Constructor.
+   * <p>
+   * Builds an empty scalable Bloom filter.
+   * @param vectorSize The number of bits in the vector of the first row.
+   * @param nbHash The number of hash function to consider in the first row.
+   * @param hashType type of the hashing function (see
+   * {@link org.apache.hadoop.util.hash.Hash}).
+   * @param nr The threshold for the maximum number of keys to record in the
+   * first row.
+   * @param growth How many times the capacity of a row is larger than the
+   * previous one, usually 2 or 4.
+   * @param tighteningRatio How many times the false positive rate of a row is
+   * smaller than the previous one, between 0 and 1, usually 0.5 to 0.9.
+   */
+  public DynamicBloomFilter(int vectorSize, int nbHash, int hashType, int nr, int growth, double tighteningRatio) {
     super(vectorSize, nbHash, hashType);
 
+    if (growth < 1) {
+      throw new IllegalArgumentException("growth must be >= 1");
+    }
+    if (!(tighteningRatio > 0 && tighteningRatio <= 1)) {
+      throw new IllegalArgumentException("tighteningRatio must be in (0, 1]");
+    }
+
     this.nr = nr;
+    this.growth = growth;
+    this.tighteningRatio = tighteningRatio;
     this.currentNbRecord = 0;
 
     matrix = new BloomFilter[1];
     matrix[0] = new BloomFilter(this.vectorSize, this.nbHash, this.hashType);
   }
 
+  /**
+   * Sets the pool that probes the rows in parallel, once there are at least
+   * {@value #PARALLEL_THRESHOLD} rows.
+   * @param pool The pool, or <code>null</code> to probe the rows in the calling thread.
+   */
+  public void setPool(ForkJoinPool pool) {
+    this.pool = pool;
+  }
+
+  /**
+   * @return The number of rows of the matrix.
+   */
+  public int getNbRows() {
+    return matrix.length;
+  }
+
+  /**
+   * @return True if the rows grow and tighten their false positive rate.
+   */
+  public boolean isScalable() {
+    return growth > 1 || tighteningRatio < 1;
+  }
+
   @Override
   public void add(Key key) {
     if (key == null) {
       throw new NullPointerException("Key can not be null");
     }
 
-    BloomFilter bf = getActiveStandardBF();
-
-    if (bf == null) {
-      addRow();
-      bf = matrix[matrix.length - 1];
-      currentNbRecord = 0;
-    }
-
-    bf.add(key);
+    BloomFilter row = getActiveStandardBF();
+    row.add(hash.chain(key, row.nbHash));
 
     currentNbRecord++;
   }
 
   @Override
   public void and(AbstractFilter filter) {
-    if (filter == null
-        || !(filter instanceof DynamicBloomFilter)
-        || filter.vectorSize != this.vectorSize
-        || filter.nbHash != this.nbHash) {
-      throw new IllegalArgumentException("filters cannot be and-ed");
-    }
-
-    DynamicBloomFilter dbf = (DynamicBloomFilter)filter;
-
-    if (dbf.matrix.length != this.matrix.length || dbf.nr != this.nr) {
-      throw new IllegalArgumentException("filters cannot be and-ed");
-    }
+    DynamicBloomFilter dbf = checkCompatible(filter, "and-ed");
 
     for (int i = 0; i < matrix.length; i++) {
       matrix[i].and(dbf.matrix[i]);
@@ -172,13 +246,22 @@ public class DynamicBloomFilter extends AbstractFilter {
       return true;
     }
 
-    for (int i = 0; i < matrix.length; i++) {
-      if (matrix[i].membershipTest(key)) {
-        return true;
-      }
-    }
+    BloomFilter[] rows = matrix;
+    int[] chain = hash.chain(key, rows[rows.length - 1].nbHash);
+    return membershipTest(rows, chain, 0, 0);
+  }
 
-    return false;
+  @Override
+  protected int probe(long h1, long h2, int op) {
+    if (op == ADD) {
+      getActiveStandardBF().probe(h1, h2, ADD);
+
+      currentNbRecord++;
+      return 1;
+    } else if (op == TEST) {
+      return membershipTest(matrix, null, h1, h2) ? 1 : 0;
+    }
+    throw new UnsupportedOperationException("DynamicBloomFilter cannot delete or count entries");
   }
 
   @Override
@@ -190,18 +273,8 @@ public class DynamicBloomFilter extends AbstractFilter {
 
   @Override
   public void or(AbstractFilter filter) {
-    if (filter == null
-        || !(filter instanceof DynamicBloomFilter)
-        || filter.vectorSize != this.vectorSize
-        || filter.nbHash != this.nbHash) {
-      throw new IllegalArgumentException("filters cannot be or-ed");
-    }
-
-    DynamicBloomFilter dbf = (DynamicBloomFilter)filter;
+    DynamicBloomFilter dbf = checkCompatible(filter, "or-ed");
 
-    if (dbf.matrix.length != this.matrix.length || dbf.nr != this.nr) {
-      throw new IllegalArgumentException("filters cannot be or-ed");
-    }
     for (int i = 0; i < matrix.length; i++) {
       matrix[i].or(dbf.matrix[i]);
     }
@@ -209,17 +282,7 @@ public class DynamicBloomFilter extends AbstractFilter {
 
   @Override
   public void xor(AbstractFilter filter) {
-    if (filter == null
-        || !(filter instanceof DynamicBloomFilter)
-        || filter.vectorSize != this.vectorSize
-        || filter.nbHash != this.nbHash) {
-      throw new IllegalArgumentException("filters cannot be xor-ed");
-    }
-    DynamicBloomFilter dbf = (DynamicBloomFilter)filter;
-
-    if (dbf.matrix.length != this.matrix.length || dbf.nr != this.nr) {
-      throw new IllegalArgumentException("filters cannot be xor-ed");
-    }
+    DynamicBloomFilter dbf = checkCompatible(filter, "xor-ed");
 
     for(int i = 0; i<matrix.length; i++) {
         matrix[i].xor(dbf.matrix[i]);
@@ -239,10 +302,20 @@ public class DynamicBloomFilter extends AbstractFilter {
 
   // Writable
 
+  /**
+   * The matrix is written as in the original format, except that a scalable
+   * filter writes <code>-nr</code> followed by its growth and tightening ratio.
+   */
   @Override
   public void write(DataOutput out) throws IOException {
     super.write(out);
-    out.writeInt(nr);
+    if (isScalable()) {
+      out.writeInt(-nr);
+      out.writeInt(growth);
+      out.writeDouble(tighteningRatio);
+    } else {
+      out.writeInt(nr);
+    }
     out.writeInt(currentNbRecord);
     out.writeInt(matrix.length);
     for (int i = 0; i < matrix.length; i++) {
@@ -254,6 +327,14 @@ public class DynamicBloomFilter extends AbstractFilter {
   public void readFields(DataInput in) throws IOException {
     super.readFields(in);
     nr = in.readInt();
+    if (nr < 0) {
+      nr = -nr;
+      growth = in.readInt();
+      tighteningRatio = in.readDouble();
+    } else {
+      growth = 1;
+      tighteningRatio = 1;
+    }
     currentNbRecord = in.readInt();
     int len = in.readInt();
     matrix = new BloomFilter[len];
@@ -263,6 +344,45 @@ public class DynamicBloomFilter extends AbstractFilter {
     }
   }
 
+  private DynamicBloomFilter checkCompatible(AbstractFilter filter, String operation) {
+    if (filter == null
+        || !(filter instanceof DynamicBloomFilter)
+        || filter.vectorSize != this.vectorSize
+        || filter.nbHash != this.nbHash) {
+      throw new IllegalArgumentException("filters cannot be " + operation);
+    }
+
+    DynamicBloomFilter dbf = (DynamicBloomFilter)filter;
+
+    if (dbf.matrix.length != this.matrix.length || dbf.nr != this.nr
+        || dbf.growth != this.growth || dbf.tighteningRatio != this.tighteningRatio) {
+      throw new IllegalArgumentException("filters cannot be " + operation);
+    }
+    return dbf;
+  }
+
+  /**
+   * Tests a key given either by its hash chain or, if the chain is <code>null</code>,
+   * by its 128-bit hash.
+   */
+  private boolean membershipTest(BloomFilter[] rows, int[] chain, long h1, long h2) {
+    if (pool != null && rows.length >= PARALLEL_THRESHOLD) {
+      return pool.invoke(new ProbeTask(rows, chain, h1, h2, 0, rows.length, new AtomicBoolean()));
+    }
+
+    // in the scalable mode most keys are in the newest rows
+    for (int i = rows.length - 1; i >= 0; i--) {
+      if (membershipTest(rows[i], chain, h1, h2)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean membershipTest(BloomFilter row, int[] chain, long h1, long h2) {
+    return (chain != null) ? row.membershipTest(chain) : row.probe(h1, h2, TEST) != 0;
+  }
+
   /**
    * Adds a new row to <i>this</i> dynamic Bloom filter.
    */
@@ -273,21 +393,90 @@ public class DynamicBloomFilter extends AbstractFilter {
       tmp[i] = matrix[i];
     }
 
-    tmp[tmp.length-1] = new BloomFilter(vectorSize, nbHash, hashType);
+    int row = matrix.length;
+    tmp[tmp.length-1] = new BloomFilter(rowSize(row), rowHashes(row), hashType);
 
     matrix = tmp;
   }
 
   /**
-   * Returns the active standard Bloom filter in <i>this</i> dynamic Bloom filter.
+   * Returns the active standard Bloom filter in <i>this</i> dynamic Bloom filter,
+   * adding a new row if the current one is full.
    * @return BloomFilter The active standard Bloom filter.
-   * 			 <code>Null</code> otherwise.
    */
   private BloomFilter getActiveStandardBF() {
-    if (currentNbRecord >= nr) {
-      return null;
+    if (currentNbRecord >= rowCapacity(matrix.length - 1)) {
+      addRow();
+      currentNbRecord = 0;
     }
 
     return matrix[matrix.length - 1];
   }
-}
\ No newline at end of file
+
+  private int rowHashes(int row) {
+    return nbHash + (int)Math.ceil(row * Math.log(1 / tighteningRatio) / Math.log(2));
+  }
+
+  /**
+   * The bits per key grow with the hash functions, so that all rows are equally full.
+   * @return The exact size of a row, before it is capped to what a vector can hold.
+   */
+  private double exactRowSize(int row) {
+    return vectorSize * Math.pow(growth, row) * rowHashes(row) / nbHash;
+  }
+
+  int rowSize(int row) {
+    return (int)Math.min(Integer.MAX_VALUE - 64, Math.ceil(exactRowSize(row)));
+  }
+
+  /**
+   * @return The number of keys of a row. Once the rows reach the largest vector, it is
+   * capped with their size, so that they are not fuller than the first row.
+   */
+  long rowCapacity(int row) {
+    double capacity = nr * Math.pow(growth, row) * Math.min(1, rowSize(row) / exactRowSize(row));
+    return (long)Math.min(Integer.MAX_VALUE, capacity);
+  }
+
+  /**
+   * Probes a range of rows, stopping early once any task finds the key.
+   */
+  private static class ProbeTask extends RecursiveTask<Boolean> {
+    private final BloomFilter[] rows;
+    private final int[] chain;
+    private final long h1;
+    private final long h2;
+    private final int from;
+    private final int to;
+    private final AtomicBoolean found;
+
+    ProbeTask(BloomFilter[] rows, int[] chain, long h1, long h2, int from, int to, AtomicBoolean found) {
+      this.rows = rows;
+      this.chain = chain;
+      this.h1 = h1;
+      this.h2 = h2;
+      this.from = from;
+      this.to = to;
+      this.found = found;
+    }
+
+    @Override
+    protected Boolean compute() {
+      if (to - from <= ROWS_PER_TASK) {
+        for (int i = to - 1; i >= from && !found.get(); i--) {
+          if (membershipTest(rows[i], chain, h1, h2)) {
+            found.set(true);
+            return true;
+          }
+        }
+        return false;
+      }
+
+      int mid = (from + to) >>> 1;
+      ProbeTask older = new ProbeTask(rows, chain, h1, h2, from, mid, found);
+      older.fork();
+      boolean result = new ProbeTask(rows, chain, h1, h2, mid, to, found).compute();
+      return older.join() || result;
+    }
+  }
+}
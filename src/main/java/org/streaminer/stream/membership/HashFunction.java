@@ -106,6 +106,21 @@ public final class HashFunction {
    * @return The array of hashed values.
    */
   public int[] hash(Key k){
+      int[] result = chain(k, nbHash);
+      for (int i = 0; i < nbHash; i++) {
+	  result[i] = position(result[i], maxValue);
+      }
+      return result;
+  }
+
+  /**
+   * Hashes a specified key into the values of the hash chain, before they are reduced
+   * to a vector, so that vectors of different sizes can share them.
+   * @param k The specified key.
+   * @param count The number of values, which may differ from the number of hashed values.
+   * @return The array of raw hashed values.
+   */
+  int[] chain(Key k, int count) {
       byte[] b = k.getBytes();
       if (b == null) {
         throw new NullPointerException("buffer reference is null");
@@ -113,11 +128,21 @@ public final class HashFunction {
       if (b.length == 0) {
         throw new IllegalArgumentException("key length must be > 0");
       }
-      int[] result = new int[nbHash];
-      for (int i = 0, initval = 0; i < nbHash; i++) {
+      int[] result = new int[count];
+      for (int i = 0, initval = 0; i < count; i++) {
 	  initval = hashFunction.hash(b, initval);
-	  result[i] = Math.abs(initval % maxValue);
+	  result[i] = initval;
       }
       return result;
   }
+
+  /**
+   * Reduces a value of the hash chain to a position in a vector.
+   * @param value A value returned by {@link #chain(Key, int)}.
+   * @param vectorSize The size of the vector.
+   * @return The position, the same one returned by {@link #hash(Key)} for that size.
+   */
+  static int position(int value, int vectorSize) {
+      return Math.abs(value % vectorSize);
+  }
 }
\ No newline at end of file
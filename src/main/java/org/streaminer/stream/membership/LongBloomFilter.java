@@ -0,0 +1,205 @@
+package org.streaminer.stream.membership;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import org.streaminer.util.hash.Hash;
+
+/**
+ * Bloom filter over an array of 64-bit words, with the positions of a key derived
+ * from a single 128-bit MurmurHash3.
+ * <p>
+ * Instead of running the hash function once per position, as {@link BloomFilter} does,
+ * the two halves <code>h1</code> and <code>h2</code> of the hash generate the positions
+ * <code>h1 + i * h2</code> (Kirsch and Mitzenmacher), without loss in the false positive
+ * rate. The positions are computed and probed inline, so adding or testing a key does
+ * not allocate, and the position in the vector is taken from the high bits of the
+ * combined hash with a multiplication instead of a division.
+ * <p>
+ * A {@link Key} is hashed as the typed entry of its bytes, so in this filter adding a
+ * key or the range of an array with the same bytes is the same. The positions are not
+ * the same as in {@link BloomFilter}, but the filters are serialized in the same format.
+ * 
+ * @see <a href="http://www.eecs.harvard.edu/~michaelm/postscripts/rsa2008.pdf">Less Hashing,
+ *      Same Performance: Building a Better Bloom Filter</a>
+ * @author Maycon Viana Bordin <mayconbordin@gmail.com>
+ */
+public class LongBloomFilter extends AbstractFilter {
+  /** The bit vector. */
+  long[] words;
+
+  /** Default constructor - use with readFields */
+  public LongBloomFilter() {
+    super();
+  }
+
+  /**
+   * Constructor
+   * @param vectorSize The vector size of <i>this</i> filter.
+   * @param nbHash The number of positions set for each key.
+   */
+  public LongBloomFilter(int vectorSize, int nbHash) {
+    super(vectorSize, nbHash, Hash.MURMUR_HASH);
+
+    words = new long[(vectorSize + 63) >>> 6];
+  }
+
+  @Override
+  public void add(Key key) {
+    if(key == null) {
+      throw new NullPointerException("key cannot be null");
+    }
+    byte[] b = key.getBytes();
+    add(b, 0, b.length);
+  }
+
+  @Override
+  public boolean membershipTest(Key key) {
+    if(key == null) {
+      throw new NullPointerException("key cannot be null");
+    }
+    byte[] b = key.getBytes();
+    return membershipTest(b, 0, b.length);
+  }
+
+  @Override
+  public void and(AbstractFilter filter) {
+    long[] other = checkCompatible(filter, "and-ed");
+    for (int i = 0; i < words.length; i++) {
+      words[i] &= other[i];
+    }
+  }
+
+  @Override
+  public void or(AbstractFilter filter) {
+    long[] other = checkCompatible(filter, "or-ed");
+    for (int i = 0; i < words.length; i++) {
+      words[i] |= other[i];
+    }
+  }
+
+  @Override
+  public void xor(AbstractFilter filter) {
+    long[] other = checkCompatible(filter, "xor-ed");
+    for (int i = 0; i < words.length; i++) {
+      words[i] ^= other[i];
+    }
+  }
+
+  @Override
+  public void not() {
+    for (int i = 0; i < words.length; i++) {
+      words[i] = ~words[i];
+    }
+    clearUnusedBits();
+  }
+
+  /**
+   * @return The number of bits set.
+   */
+  public int cardinality() {
+    int count = 0;
+    for (long word : words) {
+      count += Long.bitCount(word);
+    }
+    return count;
+  }
+
+  public void clear() {
+    Arrays.fill(words, 0L);
+  }
+
+  /**
+   * @return size of the the bloomfilter
+   */
+  public int getVectorSize() {
+    return this.vectorSize;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("{");
+    for (int i = 0; i < vectorSize; i++) {
+      if ((words[i >>> 6] & (1L << i)) != 0) {
+        if (sb.length() > 1) {
+          sb.append(", ");
+        }
+        sb.append(i);
+      }
+    }
+    return sb.append('}').toString();
+  }
+
+  // Writable
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    super.write(out);
+    byte[] bytes = new byte[getNBytes()];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) (words[i >>> 3] >>> ((i & 7) << 3));
+    }
+    out.write(bytes);
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    super.readFields(in);
+    words = new long[(vectorSize + 63) >>> 6];
+    byte[] bytes = new byte[getNBytes()];
+    in.readFully(bytes);
+    for (int i = 0; i < bytes.length; i++) {
+      words[i >>> 3] |= (bytes[i] & 0xFFL) << ((i & 7) << 3);
+    }
+    clearUnusedBits();
+  }
+
+  /**
+   * Sets or tests the positions <code>h1 + i * h2</code> of a key.
+   * @return 1 if all the positions were set before, 0 otherwise.
+   */
+  @Override
+  protected int probe(long h1, long h2, int op) {
+    if (op != ADD && op != TEST) {
+      throw new UnsupportedOperationException("LongBloomFilter cannot delete or count entries");
+    }
+    long combined = h1;
+    int present = 1;
+    for (int i = 0; i < nbHash; i++) {
+      int index = Murmur3.position(combined, vectorSize);
+      long mask = 1L << index;
+      if ((words[index >>> 6] & mask) == 0) {
+        if (op == TEST) {
+          return 0;
+        }
+        present = 0;
+        words[index >>> 6] |= mask;
+      }
+      combined += h2;
+    }
+    return present;
+  }
+
+  private long[] checkCompatible(AbstractFilter filter, String operation) {
+    if(filter == null
+        || !(filter instanceof LongBloomFilter)
+        || filter.vectorSize != this.vectorSize
+        || filter.nbHash != this.nbHash) {
+      throw new IllegalArgumentException("filters cannot be " + operation);
+    }
+    return ((LongBloomFilter) filter).words;
+  }
+
+  private void clearUnusedBits() {
+    int used = vectorSize & 63;
+    if (used != 0) {
+      words[words.length - 1] &= (1L << used) - 1;
+    }
+  }
+
+  /* @return number of bytes needed to hold bit vector */
+  private int getNBytes() {
+    return (vectorSize + 7) / 8;
+  }
+}
@@ -0,0 +1,222 @@
+package org.streaminer.stream.membership;
+
+import org.streaminer.util.hash.MurmurHash3;
+
+/**
+ * The x64 128-bit variant of MurmurHash3, as in Guava's <code>Hashing.murmur3_128()</code>,
+ * for the filters that derive the positions of a key from the two halves of its hash.
+ * <p>
+ * The halves are handed to a {@link Probe} instead of being returned in an array, so
+ * hashing and probing a key does not allocate.
+ *
+ * @author Maycon Viana Bordin <mayconbordin@gmail.com>
+ */
+final class Murmur3 {
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    /**
+     * Receives the 128-bit hash of a key.
+     */
+    abstract static class Probe {
+        /** Sets the positions of the key */
+        static final int ADD = 0;
+        /** Tests whether the positions of the key are set */
+        static final int TEST = 1;
+        /** Removes the key from its positions */
+        static final int DELETE = 2;
+        /** Estimates the number of times the key was added */
+        static final int COUNT = 3;
+
+        /**
+         * @param h1 The lower half of the hash
+         * @param h2 The upper half of the hash
+         * @param op What to do with the positions of the key, one of {@link #ADD},
+         *           {@link #TEST}, {@link #DELETE} or {@link #COUNT}
+         * @return The result of the probe, typically 1 if the key was present and 0
+         *         otherwise, or its count
+         */
+        abstract int probe(long h1, long h2, int op);
+    }
+
+    /**
+     * Keeps the hash of the last key, for the filters that probe their positions in
+     * loops instead of inside a {@link Probe}. An instance is not thread-safe.
+     */
+    static final class Hasher extends Probe {
+        private long h1;
+        private long h2;
+
+        @Override
+        int probe(long h1, long h2, int op) {
+            this.h1 = h1;
+            this.h2 = h2;
+            return 1;
+        }
+
+        /**
+         * Hashes the characters in place, see {@link Murmur3#hash128(CharSequence, Probe, int)}.
+         */
+        Hasher hash(CharSequence chars) {
+            hash128(chars, this, Probe.TEST);
+            return this;
+        }
+
+        /**
+         * @return The i-th position of the last key in a vector of the given size
+         */
+        int position(int i, int size) {
+            return Murmur3.position(h1 + i * h2, size);
+        }
+    }
+
+    private Murmur3() {}
+
+    /**
+     * Hashes a range of an array and passes the hash to a probe.
+     *
+     * @return The result of the probe
+     */
+    static int hash128(byte[] key, int offset, int length, Probe probe, int op) {
+        if (key == null) {
+            throw new NullPointerException("buffer reference is null");
+        }
+
+        long h1 = 0, h2 = 0;
+        int end = offset + (length & ~15);
+
+        for (int i = offset; i < end; i += 16) {
+            long k1 = getLong(key, i);
+            long k2 = getLong(key, i + 8);
+
+            k1 *= C1; k1 = Long.rotateLeft(k1, 31); k1 *= C2; h1 ^= k1;
+            h1 = Long.rotateLeft(h1, 27); h1 += h2; h1 = h1 * 5 + 0x52dce729;
+
+            k2 *= C2; k2 = Long.rotateLeft(k2, 33); k2 *= C1; h2 ^= k2;
+            h2 = Long.rotateLeft(h2, 31); h2 += h1; h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        long k1 = 0, k2 = 0;
+        switch (length & 15) {
+            case 15: k2 ^= (key[end + 14] & 0xFFL) << 48;
+            case 14: k2 ^= (key[end + 13] & 0xFFL) << 40;
+            case 13: k2 ^= (key[end + 12] & 0xFFL) << 32;
+            case 12: k2 ^= (key[end + 11] & 0xFFL) << 24;
+            case 11: k2 ^= (key[end + 10] & 0xFFL) << 16;
+            case 10: k2 ^= (key[end + 9] & 0xFFL) << 8;
+            case 9:  k2 ^= (key[end + 8] & 0xFFL);
+                     k2 *= C2; k2 = Long.rotateLeft(k2, 33); k2 *= C1; h2 ^= k2;
+            case 8:  k1 ^= (key[end + 7] & 0xFFL) << 56;
+            case 7:  k1 ^= (key[end + 6] & 0xFFL) << 48;
+            case 6:  k1 ^= (key[end + 5] & 0xFFL) << 40;
+            case 5:  k1 ^= (key[end + 4] & 0xFFL) << 32;
+            case 4:  k1 ^= (key[end + 3] & 0xFFL) << 24;
+            case 3:  k1 ^= (key[end + 2] & 0xFFL) << 16;
+            case 2:  k1 ^= (key[end + 1] & 0xFFL) << 8;
+            case 1:  k1 ^= (key[end] & 0xFFL);
+                     k1 *= C1; k1 = Long.rotateLeft(k1, 31); k1 *= C2; h1 ^= k1;
+        }
+
+        return finish(h1, h2, length, probe, op);
+    }
+
+    /**
+     * Hashes the 8 little-endian bytes of a value and passes the hash to a probe.
+     *
+     * @return The result of the probe
+     */
+    static int hash128(long value, Probe probe, int op) {
+        long k1 = value;
+        k1 *= C1; k1 = Long.rotateLeft(k1, 31); k1 *= C2;
+        return finish(k1, 0, 8, probe, op);
+    }
+
+    /**
+     * Hashes the UTF-16 code units of a sequence of characters, in little-endian order,
+     * and passes the hash to a probe. The characters are read in place, without being
+     * encoded into an array.
+     *
+     * @return The result of the probe
+     */
+    static int hash128(CharSequence chars, Probe probe, int op) {
+        if (chars == null) {
+            throw new NullPointerException("chars reference is null");
+        }
+
+        long h1 = 0, h2 = 0;
+        int length = chars.length();
+        int end = length & ~7;
+
+        for (int i = 0; i < end; i += 8) {
+            long k1 = getChars(chars, i);
+            long k2 = getChars(chars, i + 4);
+
+            k1 *= C1; k1 = Long.rotateLeft(k1, 31); k1 *= C2; h1 ^= k1;
+            h1 = Long.rotateLeft(h1, 27); h1 += h2; h1 = h1 * 5 + 0x52dce729;
+
+            k2 *= C2; k2 = Long.rotateLeft(k2, 33); k2 *= C1; h2 ^= k2;
+            h2 = Long.rotateLeft(h2, 31); h2 += h1; h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        int remaining = length - end;
+        if (remaining > 4) {
+            long k2 = 0;
+            for (int j = 4; j < remaining; j++) {
+                k2 |= (long) chars.charAt(end + j) << ((j - 4) << 4);
+            }
+            k2 *= C2; k2 = Long.rotateLeft(k2, 33); k2 *= C1; h2 ^= k2;
+        }
+        if (remaining > 0) {
+            long k1 = 0;
+            for (int j = 0; j < remaining && j < 4; j++) {
+                k1 |= (long) chars.charAt(end + j) << (j << 4);
+            }
+            k1 *= C1; k1 = Long.rotateLeft(k1, 31); k1 *= C2; h1 ^= k1;
+        }
+
+        return finish(h1, h2, length << 1, probe, op);
+    }
+
+    /**
+     * Maps the upper 32 bits of a combined hash <code>h1 + i * h2</code> to a position,
+     * with a multiplication instead of a division.
+     *
+     * @param combined The combined hash
+     * @param size Number of positions
+     * @return A position between 0 and size - 1
+     */
+    static int position(long combined, int size) {
+        return (int) (((combined >>> 32) * size) >>> 32);
+    }
+
+    private static int finish(long h1, long h2, int length, Probe probe, int op) {
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = MurmurHash3.fmix(h1);
+        h2 = MurmurHash3.fmix(h2);
+        h1 += h2;
+        h2 += h1;
+
+        return probe.probe(h1, h2, op);
+    }
+
+    private static long getChars(CharSequence chars, int i) {
+        return (long) chars.charAt(i)
+            | (long) chars.charAt(i + 1) << 16
+            | (long) chars.charAt(i + 2) << 32
+            | (long) chars.charAt(i + 3) << 48;
+    }
+
+    private static long getLong(byte[] b, int i) {
+        return (b[i] & 0xFFL)
+            | (b[i + 1] & 0xFFL) << 8
+            | (b[i + 2] & 0xFFL) << 16
+            | (b[i + 3] & 0xFFL) << 24
+            | (b[i + 4] & 0xFFL) << 32
+            | (b[i + 5] & 0xFFL) << 40
+            | (b[i + 6] & 0xFFL) << 48
+            | (b[i + 7] & 0xFFL) << 56;
+    }
+}
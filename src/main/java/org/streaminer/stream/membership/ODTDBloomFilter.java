@@ -1,15 +1,17 @@
 package org.streaminer.stream.membership;
 
-import java.io.UnsupportedEncodingException;
 import java.util.Arrays;
-import org.streaminer.util.hash.MurmurHash;
 
 /**
  * Implementation of the On-demand Time-decaying Bloom Filter. It is similar to a
  * time decaying bloom filter, except for the fact that only the counters that are
  * going to be used are updated, instead of all of them periodically.
- * 
- * TODO: replace the 2d array of buckets and introduce bitwise operations
+ * <p>
+ * The counters are floats in a single array, and each word of bucketsPerWord
+ * counters shares a timer, stored in seconds relative to the first timestamp seen.
+ * When a word is used at a later time all its counters are decayed, so that the
+ * shared timer stays valid for each of them. Strings are hashed in place, without
+ * being encoded into bytes.
  * 
  * Reference:
  *   Dusi, Maurizio, et al. "Blockmon: Flexible and high-performance big data stream 
@@ -18,13 +20,15 @@ import org.streaminer.util.hash.MurmurHash;
  * @author Maycon Viana Bordin <mayconbordin@gmail.com>
  */
 public class ODTDBloomFilter implements IFilter<String> {
-    private static final MurmurHash hasher = new MurmurHash();
+    private final Murmur3.Hasher hasher = new Murmur3.Hasher();
     
     private int bucketsPerWord;
     private int hashCount;
     private int numBuckets;
-    private double[][] buckets;
-    private long[] timers;
+    private float[] buckets;
+    private int[] timers;
+    private long baseTime;
+    private boolean hasBaseTime = false;
     private double beta;
     
     /**
@@ -39,8 +43,8 @@ public class ODTDBloomFilter implements IFilter<String> {
 
     /**
      * Creates a new filter with k hash functions accordingly with {@link BloomCalculations#computeBestK(int)}.
-     * Each bucket will have bucketsPerWord counters, but since this implementation
-     * uses a 2D array there's no limitation in the counter value, unlike {@link CountingBloomFilter}.
+     * Each bucket will have bucketsPerWord counters, which are floats, so there's no
+     * limitation in the counter value, unlike {@link CountingBloomFilter}.
      * 
      * @param numElements Expected number of distinct elements
      * @param bucketsPerElement The number of buckets per element, used to calculate number of hashes (k)
@@ -54,8 +58,8 @@ public class ODTDBloomFilter implements IFilter<String> {
         hashCount = BloomCalculations.computeBestK(bucketsPerElement);
         numBuckets = (numElements * bucketsPerElement + 20) / bucketsPerWord;
         
-        buckets = new double[numBuckets][bucketsPerWord];
-        timers  = new long[numBuckets];
+        buckets = new float[numBuckets * bucketsPerWord];
+        timers  = new int[numBuckets];
     }
 
     /**
@@ -64,8 +68,9 @@ public class ODTDBloomFilter implements IFilter<String> {
      * @return True if the item exists of false otherwise
      */
     public boolean membershipTest(String item) {
-        for (int bucketIndex : getHashBuckets(item)) {
-            if (getBucket(bucketIndex) == 0) {
+        hasher.hash(item);
+        for (int i = 0; i < hashCount; i++) {
+            if (buckets[hasher.position(i, buckets.length)] == 0) {
                 return false;
             }
         }
@@ -92,11 +97,13 @@ public class ODTDBloomFilter implements IFilter<String> {
      */
     public void add(String item, int q, long timestamp) {
         assert item != null;
+        // also hashes the item
         double count = estimateCount(item, timestamp) + ((double)q * Math.log(1/beta));
         
-        for (int bucketIndex : getHashBuckets(item)) {
-            if (getBucket(bucketIndex) < count)
-                setBucket(bucketIndex, count);
+        for (int i = 0; i < hashCount; i++) {
+            int bucketIndex = hasher.position(i, buckets.length);
+            if (buckets[bucketIndex] < count)
+                buckets[bucketIndex] = (float) count;
         }
     }
 
@@ -110,9 +117,10 @@ public class ODTDBloomFilter implements IFilter<String> {
             throw new IllegalArgumentException("key is not present");
         }
 
-        for (int bucketIndex : getHashBuckets(item)) {
-            if (getBucket(bucketIndex) >= q) {
-                addToBucket(bucketIndex, -q);
+        for (int i = 0; i < hashCount; i++) {
+            int bucketIndex = hasher.position(i, buckets.length);
+            if (buckets[bucketIndex] >= q) {
+                buckets[bucketIndex] -= q;
             }
         }
     }
@@ -129,15 +137,15 @@ public class ODTDBloomFilter implements IFilter<String> {
      */
     public double estimateCount(String item, long time) {
         double res = Double.MAX_VALUE;
+        int relativeTime = relativeTime(time);
         
-        for (int bucketIndex : getHashBuckets(item)) {
-            // update the counter with the smoothing coeficient
-            double value = getBucket(bucketIndex) * Math.pow(beta, time - getTimer(bucketIndex));
-            setBucket(bucketIndex, value);
-            
-            // update the bucket timer
-            setTimer(bucketIndex, time);
+        hasher.hash(item);
+        for (int i = 0; i < hashCount; i++) {
+            int bucketIndex = hasher.position(i, buckets.length);
+            // update the counters with the smoothing coeficient
+            decay(bucketIndex / bucketsPerWord, relativeTime);
             
+            double value = buckets[bucketIndex];
             if (value < res)
                 res = value;
         }
@@ -148,45 +156,30 @@ public class ODTDBloomFilter implements IFilter<String> {
      * Resets the data structure
      */
     public void clear() {
-        for (int i=0; i<buckets.length; i++)
-            Arrays.fill(buckets[i], 0d);
-        
-        Arrays.fill(timers, 0L);
+        Arrays.fill(buckets, 0f);
+        Arrays.fill(timers, 0);
+        hasBaseTime = false;
     }
 
     /**
-     * @return Return the total number of counters in the data structure
+     * @return The size of the counters and timers, in bytes
      */
-    private int buckets() {
-        return buckets.length * bucketsPerWord;
+    public int sizeof() {
+        return 4 * buckets.length + 4 * timers.length;
     }
 
     /**
      * Get a list of hashes for an item
      * @param item The item for calculating the hashes
+     * @param hashCount The number of hashes
+     * @param max The number of buckets
      * @return The list of hashes
      */
-    private int[] getHashBuckets(String item) {
-        return getHashBuckets(item, hashCount, buckets());
-    }
-    
-    // murmur is faster than a sha-based approach and provides as-good collision
-    // resistance.  the combinatorial generation approach described in
-    // https://www.eecs.harvard.edu/~michaelm/postscripts/tr-02-05.pdf
-    // does prove to work in actual tests, and is obviously faster
-    // than performing further iterations of murmur.
     public static int[] getHashBuckets(String item, int hashCount, int max) {
-        byte[] b;
-        try {
-            b = item.getBytes("UTF-16");
-        } catch (UnsupportedEncodingException e) {
-            throw new RuntimeException(e);
-        }
+        Murmur3.Hasher hasher = new Murmur3.Hasher().hash(item);
         int[] result = new int[hashCount];
-        int hash1 = hasher.hash(b, b.length, 0);
-        int hash2 = hasher.hash(b, b.length, hash1);
         for (int i = 0; i < hashCount; i++) {
-            result[i] = Math.abs((hash1 + i * hash2) % max);
+            result[i] = hasher.position(i, max);
         }
         return result;
     }
@@ -194,24 +187,31 @@ public class ODTDBloomFilter implements IFilter<String> {
     private static long time() {
         return System.currentTimeMillis()/1000;
     }
-    
-    private double getBucket(int bucketIndex) {
-        return buckets[bucketIndex/bucketsPerWord][bucketIndex%bucketsPerWord];
-    }
-    
-    private void addToBucket(int bucketIndex, double value) {
-        buckets[bucketIndex/bucketsPerWord][bucketIndex%bucketsPerWord] += value;
-    }
-    
-    private void setBucket(int bucketIndex, double value) {
-        buckets[bucketIndex/bucketsPerWord][bucketIndex%bucketsPerWord] = value;
-    }
-    
-    private long getTimer(int bucketIndex) {
-        return timers[bucketIndex/bucketsPerWord];
+
+    /**
+     * @return The time relative to the first timestamp seen, in seconds
+     */
+    private int relativeTime(long time) {
+        if (!hasBaseTime) {
+            baseTime = time;
+            hasBaseTime = true;
+        }
+        return (int) (time - baseTime);
     }
-    
-    private void setTimer(int bucketIndex, long value) {
-        timers[bucketIndex/bucketsPerWord] = value;
+
+    /**
+     * Decays the counters of a word to the given time.
+     */
+    private void decay(int word, int time) {
+        int elapsed = time - timers[word];
+        if (elapsed == 0)
+            return;
+
+        float factor = (float) Math.pow(beta, elapsed);
+        int from = word * bucketsPerWord;
+        for (int i = from; i < from + bucketsPerWord; i++) {
+            buckets[i] *= factor;
+        }
+        timers[word] = time;
     }
-}
\ No newline at end of file
+}
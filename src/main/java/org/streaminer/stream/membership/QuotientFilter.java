@@ -0,0 +1,688 @@
+package org.streaminer.stream.membership;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import org.streaminer.util.Preconditions;
+import org.streaminer.util.hash.MurmurHash3;
+
+/**
+ * Quotient filter: an approximate multiset that supports insertions, deletions and counts,
+ * and that can be resized and merged without the original items.
+ * <p>
+ * An item is reduced to a fingerprint of <code>q + r</code> bits. The upper q bits, the
+ * quotient, give the canonical slot of the item, and the lower r bits, the remainder, are
+ * stored in the table. The remainders of a quotient are kept sorted in a contiguous run
+ * that starts as close as possible to the canonical slot, and three metadata bits per slot
+ * (occupied, continuation and shifted) describe where each run starts. A lookup therefore
+ * scans a few adjacent slots, usually in a single cache line. Duplicates are stored as
+ * repeated remainders, so the count of an item is the number of its copies in the run.
+ * <p>
+ * Since the fingerprints are stored in order, doubling the filter moves one bit from the
+ * remainder to the quotient and rewrites the table in a single sequential pass, at the
+ * cost of doubling the false positive rate; two filters with the same fingerprint size are
+ * merged in linear time the same way. The filter doubles itself when it gets 90% full.
+ * <p>
+ * The table is on the heap, or in a memory-mapped file that can be reopened later. The
+ * file starts with a 32-byte header (magic, version, q, r and the number of items),
+ * followed by the slots; it grows with the filter. This class is not thread-safe.
+ *
+ * @see <a href="https://www.vldb.org/pvldb/vol5/p1627_michaelabender_vldb2012.pdf">Don't Thrash:
+ *      How to Cache Your Hash on Flash</a>
+ * @author Maycon Viana Bordin <mayconbordin@gmail.com>
+ */
+public class QuotientFilter implements IFilter<byte[]>, Closeable {
+    private static final int MAGIC = 0x51554F46;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final double MAX_LOAD = 0.9;
+
+    private static final long OCCUPIED = 1;
+    private static final long CONTINUATION = 2;
+    private static final long SHIFTED = 4;
+    private static final long METADATA = 7;
+
+    private int quotientBits;
+    private int remainderBits;
+    private int slotBits;
+    private long slotMask;
+    private int numQuotients;
+    private int numSlots;
+    private long size = 0;
+
+    private LongBuffer table;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private MappedByteBuffer header;
+    private MappedByteBuffer mapped;
+
+    /** Hash of the last array of bytes, see {@link #hash(byte[])} */
+    private long lastHash;
+    private final Murmur3.Probe hasher = new Murmur3.Probe() {
+        @Override
+        int probe(long h1, long h2, int op) {
+            lastHash = h1;
+            return 1;
+        }
+    };
+
+    /**
+     * Creates a filter on the heap.
+     *
+     * @param quotientBits Log2 of the number of slots, between 1 and 30
+     * @param remainderBits Bits stored per item, between 1 and 61 and at most
+     *                      <code>64 - quotientBits</code>. The false positive rate
+     *                      is about <code>load / 2^remainderBits</code>
+     */
+    public QuotientFilter(int quotientBits, int remainderBits) {
+        checkBits(quotientBits, remainderBits);
+        this.file = null;
+        this.channel = null;
+        setup(quotientBits, remainderBits);
+        this.table = LongBuffer.allocate(numWords());
+    }
+
+    /**
+     * Opens the filter in a memory-mapped file, creating it if it does not exist.
+     *
+     * @param file The file backing the filter
+     * @param quotientBits Log2 of the number of slots of a new filter
+     * @param remainderBits Bits stored per item in a new filter
+     * @throws IOException If the file cannot be mapped or holds another kind of data
+     * @throws IllegalArgumentException If the file holds a filter with another fingerprint size
+     */
+    public QuotientFilter(File file, int quotientBits, int remainderBits) throws IOException {
+        checkBits(quotientBits, remainderBits);
+
+        boolean exists = file.exists() && file.length() >= HEADER_SIZE;
+        this.file = new RandomAccessFile(file, "rw");
+        this.channel = this.file.getChannel();
+
+        try {
+            header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (exists) {
+                if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                    throw new IOException("File is not a quotient filter: " + file);
+                }
+                int storedQ = header.getInt(8);
+                int storedR = header.getInt(12);
+                checkBits(storedQ, storedR);
+                if (storedQ + storedR != quotientBits + remainderBits) {
+                    throw new IllegalArgumentException("Filter has fingerprints of " + (storedQ + storedR)
+                        + " bits, requested " + (quotientBits + remainderBits));
+                }
+                setup(storedQ, storedR);
+                size = header.getLong(16);
+                map(false);
+            } else {
+                header.putInt(0, MAGIC);
+                header.putInt(4, VERSION);
+                setup(quotientBits, remainderBits);
+                map(true);
+            }
+        } catch (IOException e) {
+            this.file.close();
+            throw e;
+        } catch (RuntimeException e) {
+            this.file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens an existing filter.
+     *
+     * @param file The file backing the filter
+     * @return The filter
+     * @throws IOException If the file is not a filter or cannot be mapped
+     */
+    public static QuotientFilter open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            if (raf.length() < HEADER_SIZE || Integer.reverseBytes(raf.readInt()) != MAGIC) {
+                throw new IOException("File is not a quotient filter: " + file);
+            }
+            raf.seek(8);
+            int q = Integer.reverseBytes(raf.readInt());
+            int r = Integer.reverseBytes(raf.readInt());
+            checkBits(q, r);
+            return new QuotientFilter(file, q, r);
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Override
+    public void add(byte[] item) {
+        insertHash(hash(item));
+    }
+
+    @Override
+    public boolean membershipTest(byte[] item) {
+        return countHash(hash(item)) > 0;
+    }
+
+    /**
+     * @param item
+     * @return True if a copy of the item was found and removed
+     */
+    public boolean delete(byte[] item) {
+        return deleteHash(hash(item));
+    }
+
+    /**
+     * @param item
+     * @return The number of times the item was added, or more due to false positives
+     */
+    public int count(byte[] item) {
+        return countHash(hash(item));
+    }
+
+    public void add(long item) {
+        insertHash(MurmurHash3.fmix(item));
+    }
+
+    public boolean membershipTest(long item) {
+        return countHash(MurmurHash3.fmix(item)) > 0;
+    }
+
+    public boolean delete(long item) {
+        return deleteHash(MurmurHash3.fmix(item));
+    }
+
+    public int count(long item) {
+        return countHash(MurmurHash3.fmix(item));
+    }
+
+    /**
+     * Adds an item given by its 64-bit hash, doubling the filter if it is full.
+     *
+     * @param hash A well distributed hash of the item
+     */
+    public void insertHash(long hash) {
+        if (size + 1 > MAX_LOAD * numQuotients) {
+            resize(quotientBits + 1);
+        }
+        while (!insert(quotient(hash), remainder(hash))) {
+            // a cluster reached the end of the table
+            resize(quotientBits + 1);
+        }
+    }
+
+    /**
+     * @param hash The 64-bit hash of an item
+     * @return True if the item may have been added, false if it was not
+     */
+    public boolean containsHash(long hash) {
+        return countHash(hash) > 0;
+    }
+
+    /**
+     * @param hash The 64-bit hash of an item
+     * @return The number of copies of the fingerprint of the item
+     */
+    public int countHash(long hash) {
+        int fq = quotient(hash);
+        long fr = remainder(hash);
+        if ((getSlot(fq) & OCCUPIED) == 0) {
+            return 0;
+        }
+
+        int count = 0;
+        int s = runStart(fq);
+        do {
+            long rem = getSlot(s) >>> 3;
+            if (rem > fr) {
+                break;
+            }
+            if (rem == fr) {
+                count++;
+            }
+            s++;
+        } while (s < numSlots && (getSlot(s) & CONTINUATION) != 0);
+        return count;
+    }
+
+    /**
+     * @param hash The 64-bit hash of an item
+     * @return True if a copy of the fingerprint of the item was found and removed
+     */
+    public boolean deleteHash(long hash) {
+        int fq = quotient(hash);
+        long fr = remainder(hash);
+        if ((getSlot(fq) & OCCUPIED) == 0) {
+            return false;
+        }
+
+        int start = runStart(fq);
+        int s = start;
+        boolean found = false;
+        do {
+            long rem = getSlot(s) >>> 3;
+            if (rem >= fr) {
+                found = (rem == fr);
+                break;
+            }
+            s++;
+        } while (s < numSlots && (getSlot(s) & CONTINUATION) != 0);
+        if (!found) {
+            return false;
+        }
+
+        boolean wasHead = (s == start);
+        boolean runContinues = s + 1 < numSlots && (getSlot(s + 1) & CONTINUATION) != 0;
+        if (wasHead && !runContinues) {
+            setSlot(fq, getSlot(fq) & ~OCCUPIED);
+        }
+
+        // move the following elements of the cluster one slot back
+        int q = fq;
+        int i = s + 1;
+        for (; i < numSlots; i++) {
+            long slot = getSlot(i);
+            if ((slot & (CONTINUATION | SHIFTED)) == 0) {
+                // empty, or at its canonical slot
+                break;
+            }
+
+            long cont = slot & CONTINUATION;
+            if (i == s + 1 && wasHead && cont != 0) {
+                // the next element becomes the head of the run
+                cont = 0;
+            } else if (cont == 0) {
+                q = nextOccupied(q + 1);
+            }
+            long shifted = (i - 1 != q) ? SHIFTED : 0;
+            setSlot(i - 1, (getSlot(i - 1) & OCCUPIED) | (slot & ~METADATA) | cont | shifted);
+        }
+        setSlot(i - 1, getSlot(i - 1) & OCCUPIED);
+
+        setSize(size - 1);
+        return true;
+    }
+
+    /**
+     * Adds the items of another filter to this one, in time linear in the size of both.
+     *
+     * @param other A filter with the same fingerprint size, <code>q + r</code>
+     */
+    public void merge(QuotientFilter other) {
+        Preconditions.checkArgument(other.quotientBits + other.remainderBits == quotientBits + remainderBits,
+                "Cannot merge filters with fingerprints of different sizes");
+
+        long[] a = fingerprints();
+        long[] b = other.fingerprints();
+        long[] merged = new long[a.length + b.length];
+        int i = 0, j = 0, k = 0;
+        while (i < a.length && j < b.length) {
+            merged[k++] = (a[i] <= b[j]) ? a[i++] : b[j++];
+        }
+        while (i < a.length) {
+            merged[k++] = a[i++];
+        }
+        while (j < b.length) {
+            merged[k++] = b[j++];
+        }
+
+        int q = Math.max(quotientBits, other.quotientBits);
+        while (merged.length > MAX_LOAD * (1L << q)) {
+            q++;
+        }
+        rebuild(q, merged);
+    }
+
+    /**
+     * Doubles the number of slots, moving one bit of each remainder to its quotient.
+     */
+    public void grow() {
+        resize(quotientBits + 1);
+    }
+
+    /**
+     * @return The number of items in the filter
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return The number of canonical slots, i.e. the number of quotients
+     */
+    public int capacity() {
+        return numQuotients;
+    }
+
+    public double loadFactor() {
+        return size / (double) numQuotients;
+    }
+
+    /**
+     * @return The probability that an item that was not added is reported as present
+     */
+    public double falsePositiveProbability() {
+        return 1 - Math.exp(-loadFactor() / Math.pow(2, remainderBits));
+    }
+
+    public int getQuotientBits() {
+        return quotientBits;
+    }
+
+    public int getRemainderBits() {
+        return remainderBits;
+    }
+
+    /**
+     * @return The size of the table, in bytes
+     */
+    public long sizeof() {
+        return 8L * numWords();
+    }
+
+    /**
+     * Forces any changes made to a mapped filter to be written to the file.
+     */
+    public void flush() {
+        if (mapped != null) {
+            header.force();
+            mapped.force();
+        }
+    }
+
+    /**
+     * Flushes a mapped filter and closes its file. The mapping is released once it is
+     * garbage collected. Does nothing for a filter on the heap.
+     *
+     * @throws IOException If the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (file != null) {
+            flush();
+            file.close();
+        }
+    }
+
+    /**
+     * @return True if the fingerprint was inserted, false if its cluster reached the end of the table
+     */
+    private boolean insert(int fq, long fr) {
+        long canonical = getSlot(fq);
+        if ((canonical & METADATA) == 0) {
+            setSlot(fq, (fr << 3) | OCCUPIED);
+            setSize(size + 1);
+            return true;
+        }
+
+        int end = fq + 1;
+        while (end < numSlots && (getSlot(end) & METADATA) != 0) {
+            end++;
+        }
+        if (end >= numSlots) {
+            return false;
+        }
+
+        boolean wasOccupied = (canonical & OCCUPIED) != 0;
+        setSlot(fq, canonical | OCCUPIED);
+
+        int start = runStart(fq);
+        int s = start;
+        long cont = 0;
+        if (wasOccupied) {
+            // keep the run sorted, copies go after the existing ones
+            do {
+                if ((getSlot(s) >>> 3) > fr) {
+                    break;
+                }
+                s++;
+            } while (s < numSlots && (getSlot(s) & CONTINUATION) != 0);
+            if (s > start) {
+                cont = CONTINUATION;
+            }
+        }
+        // the old head of the run is displaced by a smaller remainder
+        boolean headDisplaced = wasOccupied && s == start;
+
+        // shift the rest of the cluster one slot forward, up to the empty slot
+        long current = (fr << 3) | cont | ((s != fq) ? SHIFTED : 0);
+        for (int i = s; ; i++) {
+            long slot = getSlot(i);
+            setSlot(i, (slot & OCCUPIED) | current);
+            if (i == end) {
+                break;
+            }
+            current = (slot & ~OCCUPIED) | SHIFTED;
+            if (headDisplaced) {
+                current |= CONTINUATION;
+                headDisplaced = false;
+            }
+        }
+
+        setSize(size + 1);
+        return true;
+    }
+
+    /**
+     * @return The first slot of the run of the quotient, or the slot where it would start
+     */
+    private int runStart(int fq) {
+        int b = fq;
+        while (b > 0 && (getSlot(b) & SHIFTED) != 0) {
+            b--;
+        }
+
+        int s = b;
+        while (b != fq) {
+            do {
+                s++;
+            } while ((getSlot(s) & CONTINUATION) != 0);
+            do {
+                b++;
+            } while ((getSlot(b) & OCCUPIED) == 0);
+        }
+        return s;
+    }
+
+    private int nextOccupied(int from) {
+        int i = from;
+        while ((getSlot(i) & OCCUPIED) == 0) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * @return The fingerprints of the items, in ascending order
+     */
+    private long[] fingerprints() {
+        long[] result = new long[(int) size];
+        int n = 0;
+        int q = -1;
+        for (int i = 0; i < numSlots && n < result.length; i++) {
+            long slot = getSlot(i);
+            if ((slot & METADATA) == 0) {
+                continue;
+            }
+            if ((slot & CONTINUATION) == 0) {
+                q = nextOccupied(q + 1);
+            }
+            result[n++] = ((long) q << remainderBits) | (slot >>> 3);
+        }
+        return result;
+    }
+
+    /**
+     * Rewrites the table with another number of quotient bits, keeping the fingerprints.
+     */
+    private void resize(int newQuotientBits) {
+        Preconditions.checkState(remainderBits > 1, "The filter cannot grow, the remainders have a single bit");
+        rebuild(newQuotientBits, fingerprints());
+    }
+
+    /**
+     * Lays out sorted fingerprints in an empty table, each one in the first free slot
+     * at or after its canonical slot. The table grows beyond the requested size until
+     * the clusters fit, which is checked before the table, or the file, is touched.
+     */
+    private void rebuild(int newQuotientBits, long[] fingerprints) {
+        int fingerprintBits = quotientBits + remainderBits;
+        int q = newQuotientBits;
+        while (true) {
+            Preconditions.checkState(q <= 30 && fingerprintBits - q >= 1, "The filter cannot grow any further");
+            if (lastSlot(fingerprints, fingerprintBits - q) < numSlots(q)) {
+                break;
+            }
+            q++;
+        }
+
+        int oldQuotientBits = quotientBits;
+        int oldRemainderBits = remainderBits;
+        if (mapped != null) {
+            Preconditions.checkState(8L * numWords(numSlots(q), fingerprintBits - q + 3) <= Integer.MAX_VALUE,
+                    "A mapped filter is limited to 2GB");
+        }
+
+        setup(q, fingerprintBits - q);
+        if (mapped != null) {
+            try {
+                map(true);
+            } catch (IOException e) {
+                setup(oldQuotientBits, oldRemainderBits);
+                throw new IllegalStateException("Cannot map the filter", e);
+            }
+        } else {
+            table = LongBuffer.allocate(numWords());
+        }
+
+        long remainderMask = (1L << remainderBits) - 1;
+        int next = 0;
+        int previous = -1;
+        for (long fp : fingerprints) {
+            int fq = (int) (fp >>> remainderBits);
+            int s = Math.max(fq, next);
+
+            setSlot(fq, getSlot(fq) | OCCUPIED);
+            long slot = ((fp & remainderMask) << 3) | ((fq == previous) ? CONTINUATION : 0) | ((s != fq) ? SHIFTED : 0);
+            setSlot(s, (getSlot(s) & OCCUPIED) | slot);
+
+            next = s + 1;
+            previous = fq;
+        }
+        setSize(fingerprints.length);
+    }
+
+    /**
+     * @return The slot of the last of the sorted fingerprints once they are laid out
+     *         with the given number of remainder bits, -1 if there are none
+     */
+    private static int lastSlot(long[] fingerprints, int remainderBits) {
+        int last = -1;
+        for (long fp : fingerprints) {
+            last = Math.max((int) (fp >>> remainderBits), last + 1);
+        }
+        return last;
+    }
+
+    private void setup(int q, int r) {
+        this.quotientBits = q;
+        this.remainderBits = r;
+        this.slotBits = r + 3;
+        this.slotMask = (slotBits == 64) ? -1L : (1L << slotBits) - 1;
+        this.numQuotients = 1 << q;
+        this.numSlots = numSlots(q);
+
+        if (header != null) {
+            header.putInt(8, q);
+            header.putInt(12, r);
+        }
+    }
+
+    /**
+     * @return The number of slots of a table with the given quotient bits, with room
+     *         for the clusters that run past the last canonical slot
+     */
+    private static int numSlots(int q) {
+        return (1 << q) + 64 + (1 << q) / 16;
+    }
+
+    private void setSize(long size) {
+        this.size = size;
+        if (header != null) {
+            header.putLong(16, size);
+        }
+    }
+
+    private int numWords() {
+        return numWords(numSlots, slotBits);
+    }
+
+    private static int numWords(int numSlots, int slotBits) {
+        return (int) (((long) numSlots * slotBits + 63) >>> 6) + 1;
+    }
+
+    /**
+     * Maps the slots after the header, clearing them if requested.
+     */
+    private void map(boolean clear) throws IOException {
+        long bytes = 8L * numWords();
+        Preconditions.checkState(bytes <= Integer.MAX_VALUE, "A mapped filter is limited to 2GB");
+        mapped = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE, bytes);
+        mapped.order(ByteOrder.LITTLE_ENDIAN);
+        table = mapped.asLongBuffer();
+        if (clear) {
+            for (int i = 0; i < table.capacity(); i++) {
+                table.put(i, 0);
+            }
+        }
+    }
+
+    private int quotient(long hash) {
+        return (int) ((hash >>> remainderBits) & (numQuotients - 1));
+    }
+
+    private long remainder(long hash) {
+        return hash & ((1L << remainderBits) - 1);
+    }
+
+    private long hash(byte[] item) {
+        Murmur3.hash128(item, 0, item.length, hasher, Murmur3.Probe.TEST);
+        return lastHash;
+    }
+
+    private long getSlot(int index) {
+        long bit = (long) index * slotBits;
+        int word = (int) (bit >>> 6);
+        int offset = (int) (bit & 63);
+        long value = table.get(word) >>> offset;
+        if (offset + slotBits > 64) {
+            value |= table.get(word + 1) << (64 - offset);
+        }
+        return value & slotMask;
+    }
+
+    private void setSlot(int index, long value) {
+        long bit = (long) index * slotBits;
+        int word = (int) (bit >>> 6);
+        int offset = (int) (bit & 63);
+        table.put(word, (table.get(word) & ~(slotMask << offset)) | (value << offset));
+        if (offset + slotBits > 64) {
+            int written = 64 - offset;
+            long highMask = slotMask >>> written;
+            table.put(word + 1, (table.get(word + 1) & ~highMask) | (value >>> written));
+        }
+    }
+
+    private static void checkBits(int quotientBits, int remainderBits) {
+        Preconditions.checkArgument(quotientBits >= 1 && quotientBits <= 30, "The quotient must have between 1 and 30 bits");
+        Preconditions.checkArgument(remainderBits >= 1 && remainderBits <= 61, "The remainder must have between 1 and 61 bits");
+        Preconditions.checkArgument(quotientBits + remainderBits <= 64,
+                "The quotient and the remainder must fit in the 64 bits of the hash");
+    }
+}
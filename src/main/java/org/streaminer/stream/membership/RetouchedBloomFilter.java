@@ -125,6 +125,15 @@ implements RemoveScheme {
     }
   }
 
+  /**
+   * Typed entries are not supported: the filter records the keys of each position
+   * to clear them selectively, so entries must be added and tested as {@link Key}.
+   */
+  @Override
+  protected int probe(long h1, long h2, int op) {
+    throw new UnsupportedOperationException("keys of a retouched Bloom filter must be Key");
+  }
+
   /**
    * Adds a false positive information to <i>this</i> retouched Bloom filter.
    * <p>
@@ -0,0 +1,238 @@
+package org.streaminer.stream.membership;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import org.streaminer.util.Preconditions;
+import org.streaminer.util.hash.MurmurHash3;
+
+/**
+ * Blocked Bloom filter in which all the bits of a key fall in a single 64-byte block,
+ * i.e. one cache line.
+ * <p>
+ * The upper 32 bits of the 64-bit hash of a key select the block, and the lower 32 bits,
+ * multiplied by a different odd constant for each of the 8 words of the block, select
+ * one bit per word. The 8 masks are independent of each other, so a probe is a single
+ * cache miss followed by 8 word operations, instead of k misses in a filter that is
+ * much larger than the cache. The price is a slightly higher false positive rate for
+ * the same number of bits, which {@link #create(long, double)} accounts for.
+ * <p>
+ * The filter works on 64-bit hashes: {@link #add(byte[])} hashes the key with
+ * {@link MurmurHash3}, while {@link #putHash(long)} and {@link #mightContain(long[], boolean[])}
+ * take hashes computed by the caller, e.g. once for several filters.
+ * 
+ * @see <a href="https://github.com/apache/parquet-format/blob/master/BloomFilter.md">Parquet
+ *      split block Bloom filter</a>
+ * @author Maycon Viana Bordin <mayconbordin@gmail.com>
+ */
+public class SplitBlockBloomFilter implements IFilter<byte[]> {
+    private static final int WORDS_PER_BLOCK = 8;
+    private static final int BYTES_PER_BLOCK = 8 * WORDS_PER_BLOCK;
+
+    private static final int[] SALT = {
+        0x47b6137b, 0x44974d91, 0x8824ad5b, 0xa2b7289d,
+        0x705495c7, 0x2df1424b, 0x9efc4947, 0x5c6bfb31
+    };
+
+    private final long[] words;
+    private final int numBlocks;
+
+    /**
+     * @param numBytes Size of the filter in bytes, rounded up to a multiple of 64
+     */
+    public SplitBlockBloomFilter(int numBytes) {
+        Preconditions.checkArgument(numBytes > 0, "The size of the filter must be positive");
+        this.numBlocks = (numBytes + BYTES_PER_BLOCK - 1) / BYTES_PER_BLOCK;
+        this.words = new long[numBlocks * WORDS_PER_BLOCK];
+    }
+
+    /**
+     * @param expectedInsertions Number of keys the filter is expected to hold
+     * @param fpp Desired false positive probability, between 0 and 1
+     * @return A filter with the smallest number of blocks that achieves the probability
+     */
+    public static SplitBlockBloomFilter create(long expectedInsertions, double fpp) {
+        Preconditions.checkArgument(expectedInsertions > 0, "The expected insertions must be positive");
+        Preconditions.checkArgument(fpp > 0 && fpp < 1, "The false positive probability must be between 0 and 1");
+
+        long lo = 1, hi = 1;
+        while (falsePositiveProbability(expectedInsertions, hi) > fpp) {
+            lo = hi;
+            hi <<= 1;
+            Preconditions.checkArgument(hi <= Integer.MAX_VALUE / BYTES_PER_BLOCK, "The filter would be too large");
+        }
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            if (falsePositiveProbability(expectedInsertions, mid) > fpp) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return new SplitBlockBloomFilter((int) hi * BYTES_PER_BLOCK);
+    }
+
+    /**
+     * The number of keys in a block follows a Poisson distribution, and a key with j
+     * other keys in its block is a false positive if each of its 8 bits was set by one
+     * of those keys.
+     *
+     * @param insertions Number of keys in the filter
+     * @param numBlocks Number of blocks of the filter
+     * @return The expected false positive probability
+     */
+    public static double falsePositiveProbability(long insertions, long numBlocks) {
+        double lambda = insertions / (double) numBlocks;
+        int max = (int) Math.ceil(lambda + 10 * Math.sqrt(lambda) + 20);
+
+        double fpp = 0;
+        double logPoisson = -lambda;
+        for (int j = 0; j <= max; j++) {
+            if (j > 0) {
+                logPoisson += Math.log(lambda / j);
+            }
+            double bitSet = 1 - Math.pow(1 - 1.0 / 64, j);
+            fpp += Math.exp(logPoisson) * Math.pow(bitSet, WORDS_PER_BLOCK);
+        }
+        return Math.min(fpp, 1);
+    }
+
+    @Override
+    public void add(byte[] key) {
+        putHash(MurmurHash3.MurmurHash3_x64_64(key, 0));
+    }
+
+    @Override
+    public boolean membershipTest(byte[] key) {
+        return mightContainHash(MurmurHash3.MurmurHash3_x64_64(key, 0));
+    }
+
+    /**
+     * @param value A key that is already a 64-bit value, it is mixed before being added
+     */
+    public void add(long value) {
+        putHash(MurmurHash3.fmix(value));
+    }
+
+    /**
+     * @param value A key that is already a 64-bit value
+     * @return True if the key may have been added, false if it was not
+     */
+    public boolean membershipTest(long value) {
+        return mightContainHash(MurmurHash3.fmix(value));
+    }
+
+    /**
+     * Adds a key given by its hash, which must be well distributed over the 64 bits.
+     *
+     * @param hash The 64-bit hash of the key
+     */
+    public void putHash(long hash) {
+        int base = block(hash);
+        int h = (int) hash;
+        for (int i = 0; i < WORDS_PER_BLOCK; i++) {
+            words[base + i] |= 1L << ((h * SALT[i]) >>> 26);
+        }
+    }
+
+    /**
+     * @param hash The 64-bit hash of the key
+     * @return True if the key may have been added, false if it was not
+     */
+    public boolean mightContainHash(long hash) {
+        int base = block(hash);
+        int h = (int) hash;
+        // accumulate the missing bits of all the words instead of branching on each one
+        long missing = 0;
+        for (int i = 0; i < WORDS_PER_BLOCK; i++) {
+            missing |= ~words[base + i] & (1L << ((h * SALT[i]) >>> 26));
+        }
+        return missing == 0;
+    }
+
+    /**
+     * Tests many keys at once. The probes have no dependency on each other, so the
+     * processor can overlap their cache misses.
+     *
+     * @param hashes The 64-bit hashes of the keys
+     * @param out Receives the result of each key, must be at least as long as the hashes
+     */
+    public void mightContain(long[] hashes, boolean[] out) {
+        mightContain(hashes, 0, hashes.length, out);
+    }
+
+    /**
+     * @param hashes The 64-bit hashes of the keys
+     * @param offset Position of the first hash, and of its result in the output
+     * @param length Number of hashes
+     * @param out Receives the result of each key
+     */
+    public void mightContain(long[] hashes, int offset, int length, boolean[] out) {
+        Preconditions.checkArgument(out.length >= offset + length, "The output is too short");
+        for (int i = offset; i < offset + length; i++) {
+            out[i] = mightContainHash(hashes[i]);
+        }
+    }
+
+    /**
+     * Adds many keys at once.
+     *
+     * @param hashes The 64-bit hashes of the keys
+     */
+    public void putHashes(long[] hashes) {
+        for (long hash : hashes) {
+            putHash(hash);
+        }
+    }
+
+    /**
+     * Adds the keys of another filter of the same size to this one.
+     *
+     * @param other
+     */
+    public void merge(SplitBlockBloomFilter other) {
+        Preconditions.checkArgument(other.numBlocks == numBlocks, "Cannot merge filters of different sizes");
+        for (int i = 0; i < words.length; i++) {
+            words[i] |= other.words[i];
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(words, 0L);
+    }
+
+    public int getNumBlocks() {
+        return numBlocks;
+    }
+
+    /**
+     * @return The size of the bit vector, in bytes
+     */
+    public int sizeof() {
+        return numBlocks * BYTES_PER_BLOCK;
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(numBlocks);
+        for (long word : words) {
+            out.writeLong(word);
+        }
+    }
+
+    public static SplitBlockBloomFilter read(DataInput in) throws IOException {
+        int numBlocks = in.readInt();
+        if (numBlocks <= 0 || numBlocks > Integer.MAX_VALUE / BYTES_PER_BLOCK) {
+            throw new IOException("Invalid number of blocks: " + numBlocks);
+        }
+        SplitBlockBloomFilter filter = new SplitBlockBloomFilter(numBlocks * BYTES_PER_BLOCK);
+        for (int i = 0; i < filter.words.length; i++) {
+            filter.words[i] = in.readLong();
+        }
+        return filter;
+    }
+
+    private int block(long hash) {
+        return (int) (((hash >>> 32) * numBlocks) >>> 32) * WORDS_PER_BLOCK;
+    }
+}
@@ -8,87 +8,149 @@ import com.google.common.hash.Hashing;
  * Similar interface to Google Guava's {@link com.google.common.hash.BloomFilter}.
  * Based on the document linked below, implementation leverages some of the Guava's code
  * from {@link com.google.common.hash.BloomFilter} and {@link com.google.common.hash.BloomFilterStrategies}.
+ * <p>
+ * Cells have two bits, packed 32 to a word. Each insertion decrements a range of
+ * contiguous cells from a random start, as allowed by the paper, which is done a
+ * word at a time. Use {@link #put(Object)} to detect duplicates, it tests and adds
+ * an item with a single hash.
  *
  * @see <a href="http://www.cs.ualberta.ca/~drafiei/papers/DupDet06Sigmod.pdf">
  *      Approximately Detecting Duplicates for Streaming Data using Stable Bloom Filters, by
  *      Fan Deng and Davood Rafiei, University of Alberta</a>
- * 
+ *
  * <a href="https://github.com/ru2nuts/stable_bloom_filter">Source code</a>
  */
 public class StableBloomFilter<T> implements IFilter<T> {
-    private static final int MAX_VAL = 3;//Integer.MAX_VALUE;
-    private final int[] cells;
+    private static final int MAX_VAL = 3;
+    private static final int CELLS_PER_WORD = 32;
+    private static final long LOW_BITS = 0x5555555555555555L;
+
+    private final long[] cells;
+    private final int numCells;
     private final int numHashFunctions;
     private final Funnel<T> funnel;
-    private final Murmur128_Mitz_32_Strategy strategy;
     private final int numDecrementCells;
+    private long random = System.nanoTime() | 1;
 
     public StableBloomFilter(int numCells, int numHashFunctions, int numDecrementCells, Funnel<T> funnel) {
         this.numDecrementCells = numDecrementCells;
-        this.cells = new int[numCells];
+        this.numCells = numCells;
+        this.cells = new long[(numCells + CELLS_PER_WORD - 1) / CELLS_PER_WORD];
         this.numHashFunctions = numHashFunctions;
         this.funnel = funnel;
-        strategy = new Murmur128_Mitz_32_Strategy();
     }
 
     public boolean membershipTest(T object) {
-        return strategy.mightContain(object, funnel, numHashFunctions, cells);
+        long hash64 = hash(object);
+        int hash1 = (int) hash64;
+        int hash2 = (int) (hash64 >>> 32);
+        for (int i = 1; i <= numHashFunctions; i++) {
+            if (get(position(hash1, hash2, i)) == 0) {
+                return false;
+            }
+        }
+        return true;
     }
 
     public void add(T object) {
+        put(object);
+    }
+
+    /**
+     * Adds an item, hashing it once to test whether it was already present.
+     *
+     * @param object The item
+     * @return True if the item is a duplicate, i.e. all its cells were set before
+     *         the insertion, false otherwise
+     */
+    public boolean put(T object) {
+        long hash64 = hash(object);
+        int hash1 = (int) hash64;
+        int hash2 = (int) (hash64 >>> 32);
+
+        boolean duplicate = true;
+        for (int i = 1; i <= numHashFunctions; i++) {
+            duplicate &= get(position(hash1, hash2, i)) != 0;
+        }
+
         decrementCells();
-        strategy.put(object, funnel, numHashFunctions, cells);
+        for (int i = 1; i <= numHashFunctions; i++) {
+            set(position(hash1, hash2, i));
+        }
+        return duplicate;
+    }
+
+    public int getNumCells() {
+        return numCells;
     }
 
+    /**
+     * @return The size of the cells, in bytes
+     */
+    public int sizeof() {
+        return 8 * cells.length;
+    }
+
+    /**
+     * Decrements <code>numDecrementCells</code> contiguous cells from a random start,
+     * wrapping around at the end.
+     */
     private void decrementCells() {
-        int min = 0;
-        int max = cells.length - 1;
-        int decrementPos = min + (int) (Math.random() * ((max - min) + 1));
-        for (int i = 0; i < numDecrementCells; i++) {
-            if (decrementPos >= cells.length) {
-                decrementPos = 0;
-            }
-            if (cells[decrementPos] > 0) {
-                cells[decrementPos] = cells[decrementPos] - 1;
-            }
-            decrementPos++;
+        random ^= random << 13;
+        random ^= random >>> 7;
+        random ^= random << 17;
+
+        int start = Murmur3.position(random, numCells);
+        int remaining = Math.min(numDecrementCells, numCells);
+        int end = Math.min(numCells, start + remaining);
+        decrementRange(start, end);
+        remaining -= end - start;
+        if (remaining > 0) {
+            decrementRange(0, remaining);
         }
     }
 
-    private static class Murmur128_Mitz_32_Strategy {
-        public <T> boolean put(T object, Funnel<? super T> funnel, int numHashFunctions, int[] cells) {
-            // TODO(user): when the murmur's shortcuts are implemented, update this code
-            long hash64 = Hashing.murmur3_128().newHasher().putObject(object, funnel).hash().asLong();
-            int hash1 = (int) hash64;
-            int hash2 = (int) (hash64 >>> 32);
-            boolean bitsChanged = false;
-            for (int i = 1; i <= numHashFunctions; i++) {
-                int nextHash = hash1 + i * hash2;
-                if (nextHash < 0) {
-                    nextHash = ~nextHash;
-                }
-                int pos = nextHash % cells.length;
-                bitsChanged |= (cells[pos] != MAX_VAL);
-                cells[pos] = MAX_VAL;
-            }
-            return bitsChanged;
+    private void decrementRange(int from, int to) {
+        while (from < to) {
+            int word = from / CELLS_PER_WORD;
+            int first = from % CELLS_PER_WORD;
+            int last = Math.min(CELLS_PER_WORD, first + to - from);
+
+            long mask = (last == CELLS_PER_WORD) ? -1L : (1L << (2 * last)) - 1;
+            mask &= -1L << (2 * first);
+            cells[word] = (cells[word] & ~mask) | (decrement(cells[word]) & mask);
+
+            from += last - first;
         }
+    }
 
-        public <T> boolean mightContain(T object, Funnel<? super T> funnel, int numHashFunctions, int[] cells) {
-            long hash64 = Hashing.murmur3_128().newHasher().putObject(object, funnel).hash().asLong();
-            int hash1 = (int) hash64;
-            int hash2 = (int) (hash64 >>> 32);
-            for (int i = 1; i <= numHashFunctions; i++) {
-                int nextHash = hash1 + i * hash2;
-                if (nextHash < 0) {
-                    nextHash = ~nextHash;
-                }
-                int pos = nextHash % cells.length;
-                if (cells[pos] == 0) {
-                    return false;
-                }
-            }
-            return true;
+    /**
+     * @return The word with every cell decremented, unless already zero
+     */
+    private static long decrement(long word) {
+        long low = word & LOW_BITS;
+        long high = (word >>> 1) & LOW_BITS;
+        // 3 -> 2, 2 -> 1, 1 and 0 -> 0
+        return ((high & low) << 1) | (high & ~low);
+    }
+
+    private int get(int pos) {
+        return (int) (cells[pos / CELLS_PER_WORD] >>> (2 * (pos % CELLS_PER_WORD))) & MAX_VAL;
+    }
+
+    private void set(int pos) {
+        cells[pos / CELLS_PER_WORD] |= (long) MAX_VAL << (2 * (pos % CELLS_PER_WORD));
+    }
+
+    private long hash(T object) {
+        return Hashing.murmur3_128().hashObject(object, funnel).asLong();
+    }
+
+    private int position(int hash1, int hash2, int i) {
+        int nextHash = hash1 + i * hash2;
+        if (nextHash < 0) {
+            nextHash = ~nextHash;
         }
+        return nextHash % numCells;
     }
-}
\ No newline at end of file
+}
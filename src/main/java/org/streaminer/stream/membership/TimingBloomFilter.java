@@ -1,161 +1,286 @@
 package org.streaminer.stream.membership;
 
-import java.util.Timer;
-import java.util.TimerTask;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 import org.streaminer.util.hash.MurmurHash3;
 
 /**
  * Implementation of a Time-Decaying Bloom Filter.
- * 
+ * <p>
+ * Each cell holds the tick of the last item that set it, a byte packed eight to a
+ * word. A cell belongs to an item only while its tick is within the decay window,
+ * which is checked whenever it is probed. The ticks are stored modulo 255, so expired
+ * ticks must be cleared before they wrap around and come back into the window: every
+ * insertion sweeps the next few words of the filter, and a sweep that takes too long
+ * is completed by the first operation that notices it. The window is 64 ticks, which
+ * leaves time for a sweep to finish before the ring wraps around. The filter is
+ * cleared at once when it has not been touched for longer than the window.
+ * <p>
+ * Cells are updated with compare-and-set, so the filter can be shared by concurrent
+ * writers and readers. Ticks up to a second ahead of the clock are not considered
+ * expired, since they may have been set by a thread that read the clock later.
+ *
  * Reference:
  *   Dautrich Jr, Jonathan L., and Chinya V. Ravishankar. "Inferential time-decaying
- *   Bloom filters." Proceedings of the 16th International Conference on Extending 
+ *   Bloom filters." Proceedings of the 16th International Conference on Extending
  *   Database Technology. ACM, 2013.
- * 
+ *
  * Source code: https://github.com/mynameisfiber/fuggetaboutit
- * 
+ *
  * @author Maycon Viana Bordin <mayconbordin@gmail.com>
  */
-public class TimingBloomFilter extends TimerTask {
-    private static final Logger LOG = LoggerFactory.getLogger(TimingBloomFilter.class);
-    private static final int ENTRIES_PER_8BYTE = 1;
-    
+public class TimingBloomFilter {
+    private static final int RING_SIZE = 255;
+    private static final int WINDOW = 64;
+    private static final int MAX_SWEEP_TICKS = WINDOW / 2;
+    private static final int MIN_FUTURE_TICKS = 8;
+
     private int capacity;
     private int numBytes;
     private int numHashes;
     private int decayTime;
-    private int ringSize;
-    private int dN;
-    private int numNonZero;
-    
-    private int[] data;
-    
+    private int sweepWords;
+
+    private AtomicLongArray data;
+
     private double error;
     private double secondsPerTick;
-    
-    private Timer timer;
-    
+    /** Ticks slightly ahead of the clock of a thread were set by another thread */
+    private int futureTicks;
+
     private MurmurHash3 hash;
     private int seed;
 
+    /** Next word to be swept */
+    private final AtomicInteger cursor = new AtomicInteger();
+    /** Tick when the current sweep started */
+    private volatile long sweepStart;
+    /** Tick of the last operation */
+    private volatile long lastTick = Long.MIN_VALUE;
+
     public TimingBloomFilter(int capacity, int decayTime) {
         this(capacity, decayTime, 0.005);
     }
-    
+
     public TimingBloomFilter(int capacity, int decayTime, double error) {
         this.capacity = capacity;
         this.decayTime = decayTime;
         this.error = error;
-        
+
         initialize();
     }
-    
-    
+
+
     private void initialize() {
         hash = new MurmurHash3();
         seed = (int) System.nanoTime();
-        timer = new Timer(this.getClass().getName() + "Timer");
-        
-        numNonZero = 0;
-        
+
         numBytes = (int)(-capacity * Math.log(error) / Math.pow(Math.log(2), 2)) + 1;
         numHashes = (int)(numBytes / capacity * Math.log(2)) + 1;
-                        
-        data = new int[(int)Math.ceil(numBytes / ENTRIES_PER_8BYTE)];
 
-        ringSize = (1 << (8 / ENTRIES_PER_8BYTE)) - 1;
-        dN = ringSize / 2;
-        secondsPerTick = decayTime / (double)dN;
+        data = new AtomicLongArray((numBytes + 7) / 8);
+
+        // about capacity items are added in a window, a sweep should take a fraction of it
+        sweepWords = Math.max(1, (int) Math.ceil(8.0 * data.length() / capacity));
+        secondsPerTick = decayTime / (double)WINDOW;
+        // the clock of another thread may be one second ahead
+        futureTicks = Math.max(MIN_FUTURE_TICKS, (int) Math.ceil(1 / secondsPerTick));
     }
-    
+
+    /**
+     * @deprecated Expired cells are cleared as the filter is used, there is no timer
+     *             to start any more. See {@link #decay()} to clear them at once.
+     */
+    @Deprecated
     public void startDecay() {
-        long timePerDecay = (long) (secondsPerTick * 1000);
-        timer.scheduleAtFixedRate(this, timePerDecay, timePerDecay);
-    }
-    
-    public void decay() {
-        run();
     }
 
-    @Override
+    /**
+     * @deprecated The filter is no longer a {@link java.util.TimerTask}, use {@link #decay()}.
+     */
+    @Deprecated
     public void run() {
-        int[] tick = tickRange();
-        
-        numNonZero = 0;
-        
-        for (int i=0; i<numBytes; i++) {
-            if (data[i] != 0)
-                if (!testInterval(tick, data[i]))
-                    data[i] = 0;
-                else
-                    numNonZero += 1;
-        }
+        decay();
     }
-    
-    private int[] indexes(Object key) {
-        long[] h = hash.hash64(key, seed);
 
-        int[] indexes = new int[numHashes];
-        for (int i = 0; i < numHashes; i++) {
-            indexes[i] = (int) Math.abs((h[0] + i * h[1]) % numBytes);
+    /**
+     * Clears the expired cells of the whole filter.
+     */
+    public void decay() {
+        long now = tick(time());
+        advance(now);
+        synchronized (this) {
+            sweep(0, data.length(), now);
+            sweepStart = now;
+            cursor.set(0);
         }
-        
-        return indexes;
-    }
-    
-    private int tick(long timestamp) {
-        return (int)((timestamp / secondsPerTick) % ringSize) + 1;
-    }
-    
-    private long time() {
-        return System.currentTimeMillis()/1000;
     }
-    
-    private int[] tickRange() {
-        int tickMax = tick(time());
-        int tickMin = (tickMax - dN - 1) % ringSize + 1;
-        return new int[]{tickMin, tickMax};
-    }
-    
+
     public void add(Object key) {
         add(key, time());
     }
-        
+
+    /**
+     * @param key
+     * @param timestamp The time of the item, in seconds. Items older than the decay
+     *                  time are ignored
+     */
     public void add(Object key, long timestamp) {
-        int tick = tick(timestamp);
-        
+        long now = tick(time());
+        advance(now);
+
         if (timestamp < time() - decayTime)
             return;
-        
-        for (int index : indexes(key)) {
-            numNonZero += (data[index] == 0) ? 1 : 0;
-            data[index] = tick;
+
+        long value = ringValue(tick(timestamp));
+        long[] h = hash.hash64(key, seed);
+        for (int i = 0; i < numHashes; i++) {
+            set(index(h, i), value);
         }
+
+        sweepNext(now);
     }
-    
-    private boolean testInterval(int[] ticks, int data) {
-        if (ticks[0] < ticks[1])
-            return (ticks[0] < data && data <= ticks[1]);
-        else
-            return (data != 0 && !(ticks[1] < data && data <= ticks[0]));
-    }
-    
+
     public boolean membershipTest(Object key) {
-        int[] ticks = tickRange();
+        long now = tick(time());
+        advance(now);
+        int current = (int) ringValue(now);
 
-        for (int index : indexes(key)) {
-            if (!testInterval(ticks, data[index]))
+        long[] h = hash.hash64(key, seed);
+        for (int i = 0; i < numHashes; i++) {
+            if (isExpired(get(index(h, i)), current))
                 return false;
         }
-        
+
         return true;
     }
 
     public double getError() {
         return error;
     }
-    
-    
+
+    /**
+     * @return The size of the cells, in bytes
+     */
+    public int sizeof() {
+        return 8 * data.length();
+    }
+
+    /**
+     * @return The current time, in seconds
+     */
+    protected long time() {
+        return System.currentTimeMillis()/1000;
+    }
+
+    private long tick(long timestamp) {
+        return (long) Math.floor(timestamp / secondsPerTick);
+    }
+
+    private static long ringValue(long tick) {
+        return (tick % RING_SIZE + RING_SIZE) % RING_SIZE + 1;
+    }
+
+    /**
+     * @param value The tick of a cell, zero if empty
+     * @param current The current tick, in the ring
+     * @return True if the cell is empty or its tick is out of the window, and not
+     *         up to a second in the future
+     */
+    private boolean isExpired(int value, int current) {
+        if (value == 0)
+            return true;
+        int age = current - value;
+        if (age < 0)
+            age += RING_SIZE;
+        return age > WINDOW && age < RING_SIZE - futureTicks;
+    }
+
+    private int index(long[] h, int i) {
+        return (int) Math.abs((h[0] + i * h[1]) % numBytes);
+    }
+
+    private int get(int index) {
+        return (int) (data.get(index >>> 3) >>> ((index & 7) << 3)) & 0xFF;
+    }
+
+    private void set(int index, long value) {
+        int word = index >>> 3;
+        int shift = (index & 7) << 3;
+        long mask = 0xFFL << shift;
+        long bits = value << shift;
+
+        long old;
+        do {
+            old = data.get(word);
+            if ((old & mask) == bits)
+                return;
+        } while (!data.compareAndSet(word, old, (old & ~mask) | bits));
+    }
+
+    /**
+     * Runs once per tick: starts over after a long pause, or completes a sweep that
+     * is taking too long, so that no expired tick is left when the ring wraps around.
+     */
+    private void advance(long now) {
+        if (now <= lastTick)
+            return;
+
+        synchronized (this) {
+            if (now <= lastTick)
+                return;
+
+            if (lastTick < now - WINDOW) {
+                // every cell has expired
+                for (int i = 0; i < data.length(); i++)
+                    data.set(i, 0);
+                sweepStart = now;
+                cursor.set(0);
+            } else if (now - sweepStart >= MAX_SWEEP_TICKS) {
+                int from = cursor.getAndSet(data.length());
+                if (from < data.length())
+                    sweep(from, data.length(), now);
+                sweepStart = now;
+                cursor.set(0);
+            }
+            lastTick = now;
+        }
+    }
+
+    /**
+     * Sweeps the next words of the filter, starting a new sweep once it reaches the end.
+     */
+    private void sweepNext(long now) {
+        int from = cursor.getAndAdd(sweepWords);
+        if (from < data.length()) {
+            sweep(from, Math.min(data.length(), from + sweepWords), now);
+        } else {
+            synchronized (this) {
+                if (cursor.get() >= data.length()) {
+                    sweepStart = now;
+                    cursor.set(0);
+                }
+            }
+        }
+    }
+
+    private void sweep(int from, int to, long now) {
+        int current = (int) ringValue(now);
+
+        for (int i = from; i < to; i++) {
+            long old, cleared;
+            do {
+                old = data.get(i);
+                if (old == 0)
+                    break;
+
+                cleared = old;
+                for (int shift = 0; shift < 64; shift += 8) {
+                    int value = (int) (old >>> shift) & 0xFF;
+                    if (value != 0 && isExpired(value, current))
+                        cleared &= ~(0xFFL << shift);
+                }
+            } while (cleared != old && !data.compareAndSet(i, old, cleared));
+        }
+    }
 }
@@ -1,12 +1,15 @@
 package org.streaminer.stream.membership;
 
-import java.io.UnsupportedEncodingException;
 import java.util.Arrays;
-import org.streaminer.util.hash.MurmurHash;
 
+/**
+ * Counting Bloom filter with counters of a variable number of bits, packed in longs.
+ * Strings are hashed in place, and the counters are read and written without
+ * allocating any object.
+ */
 public class VarCountingBloomFilter implements IFilter<String> {
-    private static final MurmurHash hasher = new MurmurHash();
-    
+    private final Murmur3.Hasher hasher = new Murmur3.Hasher();
+
     private long maxCount = 15;
     private int bucketsPerWord = 16;
     private int exp;
@@ -19,12 +22,16 @@ public class VarCountingBloomFilter implements IFilter<String> {
      * Creates a new filter with k hash functions accordingly with {@link BloomCalculations#computeBestK(int)}.
      * @param numElements Estimated number of distinct elements
      * @param bucketsPerElement Number of buckets per element
-     * @param exp The 2^exp number of buckets per word, resulting in a counter of at most (2^exp)-1
+     * @param exp The number of bits of a counter, resulting in a counter of at most (2^exp)-1
+     *            and 64/exp counters per word
      */
     public VarCountingBloomFilter(int numElements, int bucketsPerElement, int exp) {
+        if (exp < 1 || exp > 32) {
+            throw new IllegalArgumentException("exp must be between 1 and 32");
+        }
         this.exp = exp;
-        bucketsPerWord = (int) Math.pow(2, exp);
-        maxCount   = bucketsPerWord - 1;
+        bucketsPerWord = 64 / exp;
+        maxCount   = (1L << exp) - 1;
         hashCount  = BloomCalculations.computeBestK(bucketsPerElement);
         numBuckets = (numElements * bucketsPerElement + 20) / bucketsPerWord;
         numNonZero = 0;
@@ -36,7 +43,7 @@ public class VarCountingBloomFilter implements IFilter<String> {
      * Clear the filter
      */
     public void clear() {
-        Arrays.fill(buckets, (byte)0);
+        Arrays.fill(buckets, 0L);
         numNonZero = 0;
     }
 
@@ -51,10 +58,10 @@ public class VarCountingBloomFilter implements IFilter<String> {
         
         for ( int i = 0; i < buckets(); ++i )
         {
-            Bucket b = new Bucket(i);
-            Bucket b2 = cbf.getBucket(i);
-            long merged = b.value + b2.value;
-            b.set(merged > maxCount ? maxCount : merged);
+            long value = getBucket(i);
+            long merged = value + cbf.getBucket(i);
+            if (value == 0 && merged != 0) numNonZero++;
+            setBucket(i, merged > maxCount ? maxCount : merged);
         }
     }
 
@@ -64,9 +71,9 @@ public class VarCountingBloomFilter implements IFilter<String> {
      * @return True if the item exists of false otherwise
      */
     public boolean membershipTest(String item) {
-        for (int bucketIndex : getHashBuckets(item)) {
-            Bucket bucket = new Bucket(bucketIndex);
-            if (bucket.value == 0) {
+        hasher.hash(item);
+        for (int i = 0; i < hashCount; i++) {
+            if (getBucket(hasher.position(i, buckets())) == 0) {
                 return false;
             }
         }
@@ -80,11 +87,13 @@ public class VarCountingBloomFilter implements IFilter<String> {
      */
     public void add(String item) {
         assert item != null;
-        for (int bucketIndex : getHashBuckets(item)) {
-            Bucket bucket = new Bucket(bucketIndex);
-            if(bucket.value < maxCount) {
-                if (bucket.value == 0) numNonZero++;
-                bucket.set(bucket.value + 1);
+        hasher.hash(item);
+        for (int i = 0; i < hashCount; i++) {
+            int bucketIndex = hasher.position(i, buckets());
+            long value = getBucket(bucketIndex);
+            if(value < maxCount) {
+                if (value == 0) numNonZero++;
+                setBucket(bucketIndex, value + 1);
             }
         }
     }
@@ -99,11 +108,13 @@ public class VarCountingBloomFilter implements IFilter<String> {
             throw new IllegalArgumentException("key is not present");
         }
 
-        for (int bucketIndex : getHashBuckets(item)) {
-            Bucket bucket = new Bucket(bucketIndex);
-            if(bucket.value >= 1 && bucket.value < maxCount) {
-                bucket.set(bucket.value - 1);
-                if ((bucket.value - 1) == 0) numNonZero--;
+        // the hash of the item is kept by the membership test
+        for (int i = 0; i < hashCount; i++) {
+            int bucketIndex = hasher.position(i, buckets());
+            long value = getBucket(bucketIndex);
+            if(value >= 1 && value < maxCount) {
+                setBucket(bucketIndex, value - 1);
+                if ((value - 1) == 0) numNonZero--;
             }
         }
     }
@@ -114,11 +125,25 @@ public class VarCountingBloomFilter implements IFilter<String> {
      * @return A value between 0 and 1
      */
     public double getPercentNonZero() {
-        return (double) numNonZero / (double) numBuckets;
+        return (double) numNonZero / (double) buckets();
     }
-    
-    private Bucket getBucket(int i) {
-        return new Bucket(i);
+
+    /**
+     * @return The size of the counters, in bytes
+     */
+    public int sizeof() {
+        return 8 * buckets.length;
+    }
+
+    private long getBucket(int i) {
+        int shift = (i % bucketsPerWord) * exp;
+        return (buckets[i / bucketsPerWord] >>> shift) & maxCount;
+    }
+
+    private void setBucket(int i, long value) {
+        int wordIndex = i / bucketsPerWord;
+        int shift = (i % bucketsPerWord) * exp;
+        buckets[wordIndex] = (buckets[wordIndex] & ~(maxCount << shift)) | (value << shift);
     }
 
     private int buckets() {
@@ -128,7 +153,7 @@ public class VarCountingBloomFilter implements IFilter<String> {
     protected int emptyBuckets() {
         int n = 0;
         for (int i = 0; i < buckets(); i++) {
-            if (new Bucket(i).value == 0) {
+            if (getBucket(i) == 0) {
                 n++;
             }
         }
@@ -138,55 +163,11 @@ public class VarCountingBloomFilter implements IFilter<String> {
     protected int maxBucket() {
         int max = 0;
         for (int i = 0; i < buckets(); i++) {
-            Bucket bucket = new Bucket(i);
-            if (bucket.value > max) {
-                max = (int)bucket.value;
+            long value = getBucket(i);
+            if (value > max) {
+                max = (int)value;
             }
         }
         return max;
     }
-    
-    private int[] getHashBuckets(String key) {
-        return getHashBuckets(key, hashCount, buckets());
-    }
-    
-    // murmur is faster than a sha-based approach and provides as-good collision
-    // resistance.  the combinatorial generation approach described in
-    // https://www.eecs.harvard.edu/~michaelm/postscripts/tr-02-05.pdf
-    // does prove to work in actual tests, and is obviously faster
-    // than performing further iterations of murmur.
-    private static int[] getHashBuckets(String key, int hashCount, int max) {
-        byte[] b;
-        try {
-            b = key.getBytes("UTF-16");
-        } catch (UnsupportedEncodingException e) {
-            throw new RuntimeException(e);
-        }
-        int[] result = new int[hashCount];
-        int hash1 = hasher.hash(b, b.length, 0);
-        int hash2 = hasher.hash(b, b.length, hash1);
-        for (int i = 0; i < hashCount; i++) {
-            result[i] = Math.abs((hash1 + i * hash2) % max);
-        }
-        return result;
-    }
-
-    private class Bucket {
-        public final int wordIndex;
-        public final int shift;
-        public final long mask;
-        public final long value;
-
-        public Bucket(int bucketIndex) {
-            wordIndex = bucketIndex >> exp;
-            shift = (bucketIndex & 0x0f) << 2;
-
-            mask = maxCount << shift;
-            value = ((buckets[wordIndex] & mask) >>> shift);
-        }
-
-        void set(long val) {
-            buckets[wordIndex] = (buckets[wordIndex] & ~mask) | (val << shift);
-        }
-    }
 }
@@ -0,0 +1,267 @@
+package org.streaminer.stream.quantile;
+
+import org.streaminer.stream.quantile.CKMSQuantiles.Quantile;
+
+import java.util.Arrays;
+
+/**
+ * Array-backed implementation of the Cormode, Korn, Muthukrishnan, and Srivastava
+ * algorithm for targeted epsilon-approximate quantiles.
+ * <p/>
+ * It computes the same summary as {@link CKMSQuantiles}, but the sample is kept in
+ * parallel <code>value</code>, <code>g</code> and <code>delta</code> arrays instead
+ * of a linked list of items. A sorted batch is inserted by merging it with the sample
+ * into a second set of arrays, which then become the sample, and compression removes
+ * items in place with a single forward sweep.
+ * <p/>
+ * See: Cormode, Korn, Muthukrishnan, and Srivastava
+ * "Effective Computation of Biased Quantiles over Data Streams" in ICDE 2005
+ *
+ * @author Maycon Viana Bordin <mayconbordin@gmail.com>
+ */
+public class ArrayCKMSQuantiles implements IQuantiles<Long> {
+    private static final int DEFAULT_BUFFER_SIZE = 500;
+
+    /**
+     * Total number of items in the sample, not counting the buffered ones.
+     */
+    private long count = 0;
+
+    // sample, sorted by value
+    private long[] values;
+    private int[] g;
+    private int[] delta;
+    private int size = 0;
+
+    // scratch arrays for the merge, swapped with the sample after each merge
+    private long[] mergeValues;
+    private int[] mergeG;
+    private int[] mergeDelta;
+
+    /**
+     * Buffers incoming items to be inserted in batch.
+     */
+    private final long[] buffer;
+    private int bufferCount = 0;
+
+    /**
+     * Array of Quantiles that we care about, along with desired error.
+     */
+    private final Quantile[] quantiles;
+
+    public ArrayCKMSQuantiles(Quantile[] quantiles) {
+        this(quantiles, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param quantiles  The targeted quantiles, along with desired error
+     * @param bufferSize Number of items buffered before being inserted in batch
+     */
+    public ArrayCKMSQuantiles(Quantile[] quantiles, int bufferSize) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("The buffer size must be positive");
+        }
+        this.quantiles = quantiles;
+        this.buffer = new long[bufferSize];
+
+        int capacity = 2 * bufferSize;
+        values = new long[capacity];
+        g = new int[capacity];
+        delta = new int[capacity];
+        mergeValues = new long[capacity];
+        mergeG = new int[capacity];
+        mergeDelta = new int[capacity];
+    }
+
+    @Override
+    public void offer(Long value) {
+        offer(value.longValue());
+    }
+
+    /**
+     * Add a new value from the stream.
+     *
+     * @param value
+     */
+    public void offer(long value) {
+        buffer[bufferCount++] = value;
+
+        if (bufferCount == buffer.length) {
+            flush();
+        }
+    }
+
+    /**
+     * Get the estimated value at the specified quantile.
+     *
+     * @param q Queried quantile, e.g. 0.50 or 0.99.
+     * @return Estimated value at that quantile.
+     */
+    @Override
+    public Long getQuantile(double q) throws QuantilesException {
+        flush();
+
+        if (size == 0) {
+            throw new QuantilesException("No samples present");
+        }
+
+        long rankMin = 0;
+        int desired = (int) (q * count);
+        double bound = desired + (allowableError(desired, size) / 2);
+
+        for (int i = 1; i < size; i++) {
+            rankMin += g[i - 1];
+
+            if (rankMin + g[i] + delta[i] > bound) {
+                return values[i - 1];
+            }
+        }
+
+        // edge case of wanting max value
+        return values[size - 1];
+    }
+
+    /**
+     * Inserts the buffered items into the sample and compresses it.
+     */
+    public void flush() {
+        if (bufferCount == 0) {
+            return;
+        }
+
+        Arrays.sort(buffer, 0, bufferCount);
+        insertSorted(buffer, bufferCount);
+        bufferCount = 0;
+    }
+
+    /**
+     * @return Number of items seen, including the buffered ones
+     */
+    public long getCount() {
+        return count + bufferCount;
+    }
+
+    /**
+     * @return Number of items in the sample
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Merges a sorted batch into the sample and compresses it.
+     *
+     * @param batch  Items sorted in ascending order
+     * @param length Number of items of the batch to be inserted
+     */
+    void insertSorted(long[] batch, int length) {
+        if (length == 0) {
+            return;
+        }
+
+        int capacity = size + length;
+        if (mergeValues.length < capacity) {
+            capacity = Math.max(capacity, 2 * mergeValues.length);
+            mergeValues = new long[capacity];
+            mergeG = new int[capacity];
+            mergeDelta = new int[capacity];
+        }
+
+        int i = 0, k = 0;
+        for (int j = 0; j < length; j++) {
+            long v = batch[j];
+            while (i < size && values[i] < v) {
+                mergeValues[k] = values[i];
+                mergeG[k] = g[i];
+                mergeDelta[k++] = delta[i++];
+            }
+
+            // the extremes know their exact rank
+            int d;
+            if (k == 0 || i == size) {
+                d = 0;
+            } else {
+                d = ((int) Math.floor(allowableError(k, size + j + 1))) - 1;
+            }
+
+            mergeValues[k] = v;
+            mergeG[k] = 1;
+            mergeDelta[k++] = d;
+            count++;
+        }
+        while (i < size) {
+            mergeValues[k] = values[i];
+            mergeG[k] = g[i];
+            mergeDelta[k++] = delta[i++];
+        }
+
+        long[] tmpValues = values;
+        int[] tmpG = g;
+        int[] tmpDelta = delta;
+        values = mergeValues;
+        g = mergeG;
+        delta = mergeDelta;
+        mergeValues = tmpValues;
+        mergeG = tmpG;
+        mergeDelta = tmpDelta;
+        size = k;
+
+        compress();
+    }
+
+    /**
+     * Try to remove extraneous items from the set of sampled items. This checks
+     * if an item is unnecessary based on the desired error bounds, and merges it
+     * with the adjacent item if it is.
+     */
+    private void compress() {
+        if (size < 2) {
+            return;
+        }
+
+        // items up to prev have been kept, next is the item being checked
+        int prev = 0;
+        for (int next = 1; next < size; next++) {
+            int remaining = prev + 1 + (size - next);
+
+            if (g[prev] + g[next] + delta[next] <= allowableError(prev + 1, remaining)) {
+                // remove prev, its rank is absorbed by next
+                values[prev] = values[next];
+                g[prev] = g[next] + g[prev];
+                delta[prev] = delta[next];
+            } else {
+                prev++;
+                values[prev] = values[next];
+                g[prev] = g[next];
+                delta[prev] = delta[next];
+            }
+        }
+        size = prev + 1;
+    }
+
+    /**
+     * Specifies the allowable error for this rank, depending on which quantiles
+     * are being targeted. As in {@link CKMSQuantiles}, it uses the size of the
+     * sample instead of the number of items seen.
+     *
+     * @param rank the index in the list of samples
+     * @param size the size of the sample
+     */
+    private double allowableError(int rank, int size) {
+        double minError = size + 1;
+
+        for (Quantile q : quantiles) {
+            double error;
+            if (rank <= q.quantile * size) {
+                error = q.u * (size - rank);
+            } else {
+                error = q.v * rank;
+            }
+            if (error < minError) {
+                minError = error;
+            }
+        }
+
+        return minError;
+    }
+}
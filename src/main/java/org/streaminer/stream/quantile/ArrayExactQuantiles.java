@@ -0,0 +1,219 @@
+package org.streaminer.stream.quantile;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Exact quantiles of all the values offered, kept in a growable <code>double</code> array.
+ * <p/>
+ * Offering a value only appends it to the array. The array is sorted lazily, when a
+ * quantile is requested, and the sorted state is reused by the following queries until
+ * new values are offered. When few values arrived since the last sort only those are
+ * sorted and merged with the sorted ones; large arrays are sorted in parallel, with a
+ * merge sort in a {@link ForkJoinPool}.
+ * <p/>
+ * It gives the same answers as {@link ExactQuantiles}, using 8 bytes per value.
+ * This class is not thread-safe.
+ *
+ * @author Maycon Viana Bordin <mayconbordin@gmail.com>
+ */
+public class ArrayExactQuantiles implements IQuantiles<Double> {
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * Arrays at least this long are sorted in parallel
+     */
+    static final int PARALLEL_THRESHOLD = 1 << 17;
+
+    /**
+     * Size of the slices sorted sequentially by the parallel sort
+     */
+    private static final int SORT_THRESHOLD = 1 << 14;
+
+    private final ForkJoinPool pool;
+    private double[] values;
+    private int size = 0;
+
+    /**
+     * Number of values at the start of the array that are sorted
+     */
+    private int sortedSize = 0;
+
+    public ArrayExactQuantiles() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity Number of values expected, the array grows as needed
+     */
+    public ArrayExactQuantiles(int capacity) {
+        this(capacity, null);
+    }
+
+    /**
+     * @param capacity Number of values expected, the array grows as needed
+     * @param pool     The pool of the parallel sorts, or null to use a new pool for
+     *                 each parallel sort
+     */
+    public ArrayExactQuantiles(int capacity, ForkJoinPool pool) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The capacity must be positive");
+        }
+        this.values = new double[capacity];
+        this.pool = pool;
+    }
+
+    @Override
+    public void offer(Double value) {
+        offer(value.doubleValue());
+    }
+
+    /**
+     * @param value
+     */
+    public void offer(double value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, 2 * size);
+        }
+        values[size++] = value;
+    }
+
+    /**
+     * @param values Array with the values to be offered
+     * @param offset Position of the first value
+     * @param length Number of values
+     */
+    public void offer(double[] values, int offset, int length) {
+        if (size + length > this.values.length) {
+            this.values = Arrays.copyOf(this.values, Math.max(size + length, 2 * size));
+        }
+        System.arraycopy(values, offset, this.values, size, length);
+        size += length;
+    }
+
+    /**
+     * @param q The quantile, between 0 and 1
+     * @return The smallest value whose rank is at least <code>floor(q * n)</code>, or
+     *         {@link Double#NaN} if no value was offered
+     * @throws QuantilesException if q isn't between 0 and 1
+     */
+    @Override
+    public Double getQuantile(double q) throws QuantilesException {
+        if (q < 0 || q > 1) {
+            throw new QuantilesException("Quantile must be between 0 and 1");
+        }
+        if (size == 0) {
+            return Double.NaN;
+        }
+
+        sort();
+        long rank = (long) Math.floor(q * size);
+        return values[(int) Math.max(rank - 1, 0)];
+    }
+
+    /**
+     * @param qs The quantiles, between 0 and 1
+     * @return The quantiles, as given by {@link #getQuantile(double)}
+     * @throws QuantilesException if any q isn't between 0 and 1
+     */
+    public double[] getQuantiles(double[] qs) throws QuantilesException {
+        double[] result = new double[qs.length];
+        for (int i = 0; i < qs.length; i++) {
+            result[i] = getQuantile(qs[i]);
+        }
+        return result;
+    }
+
+    /**
+     * @return The number of values offered
+     */
+    public int getCount() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+        sortedSize = 0;
+    }
+
+    /**
+     * Sorts the values that arrived since the last sort and merges them with the ones
+     * already sorted, or sorts the whole array if they are the majority.
+     */
+    private void sort() {
+        if (sortedSize == size) {
+            return;
+        }
+
+        int tail = size - sortedSize;
+        if (tail >= sortedSize) {
+            sort(values, 0, size);
+        } else {
+            sort(values, sortedSize, size);
+            double[] merged = new double[values.length];
+            merge(values, 0, sortedSize, size, merged);
+            values = merged;
+        }
+        sortedSize = size;
+    }
+
+    private void sort(double[] a, int from, int to) {
+        if (to - from < PARALLEL_THRESHOLD) {
+            Arrays.sort(a, from, to);
+        } else if (pool != null) {
+            pool.invoke(new SortTask(a, new double[a.length], from, to));
+        } else {
+            ForkJoinPool tmp = new ForkJoinPool();
+            try {
+                tmp.invoke(new SortTask(a, new double[a.length], from, to));
+            } finally {
+                tmp.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Merges the sorted ranges [from, mid) and [mid, to) of src into the same range of dst.
+     */
+    private static void merge(double[] src, int from, int mid, int to, double[] dst) {
+        int i = from, j = mid, out = from;
+        while (i < mid && j < to) {
+            // same order as Arrays.sort, in which NaN is the largest value
+            dst[out++] = (Double.compare(src[i], src[j]) <= 0) ? src[i++] : src[j++];
+        }
+        System.arraycopy(src, i, dst, out, mid - i);
+        System.arraycopy(src, j, dst, out + mid - i, to - j);
+    }
+
+    /**
+     * Merge sort of a range that sorts its halves in parallel, using a scratch array
+     * of the same length.
+     */
+    private static class SortTask extends RecursiveAction {
+        private final double[] values;
+        private final double[] scratch;
+        private final int from;
+        private final int to;
+
+        SortTask(double[] values, double[] scratch, int from, int to) {
+            this.values = values;
+            this.scratch = scratch;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SORT_THRESHOLD) {
+                Arrays.sort(values, from, to);
+                return;
+            }
+
+            int mid = (from + to) >>> 1;
+            invokeAll(new SortTask(values, scratch, from, mid), new SortTask(values, scratch, mid, to));
+            merge(values, from, mid, to, scratch);
+            System.arraycopy(scratch, from, values, from, to - from);
+        }
+    }
+}
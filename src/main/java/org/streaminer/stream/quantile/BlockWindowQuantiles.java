@@ -0,0 +1,167 @@
+package org.streaminer.stream.quantile;
+
+import org.streaminer.stream.quantile.kll.AbstractKLLSketch;
+import org.streaminer.stream.quantile.kll.KLLSketch;
+import org.streaminer.util.Preconditions;
+
+import java.util.Arrays;
+
+/**
+ * Quantiles over a sliding window, kept as a ring of mergeable {@link KLLSketch} blocks.
+ * <p/>
+ * The window is split into blocks of equal length, each one summarizing the values
+ * whose timestamps fall in its span. A block is never updated as the window slides:
+ * when the stream enters the span of a new block, the slot of the oldest block is
+ * reused, so the expiration costs O(1) per block instead of a pass over the elements.
+ * Slots that were skipped by a gap in the stream are recognized as stale by their
+ * epoch and ignored.
+ * <p/>
+ * A query for a window of any length up to the full window merges only the blocks
+ * that cover it, the newest one being partially filled. The window boundaries are
+ * thus rounded up to the block length, and the rank error is the one of the merged
+ * KLL sketches.
+ * <p/>
+ * The timestamps may be times or positions in the stream. {@link #offer(Double)} uses
+ * the count of values offered, so that the window holds the last values; it must not
+ * be mixed with {@link #offer(double, long)}. This class is not thread-safe.
+ *
+ * @see WindowSketchQuantiles
+ * @author Maycon Viana Bordin <mayconbordin@gmail.com>
+ */
+public class BlockWindowQuantiles implements IQuantiles<Double> {
+    private final long windowLength;
+    private final long blockLength;
+    private final int k;
+    private final long seed;
+
+    private final KLLSketch[] blocks;
+    private final long[] epochs;
+    private long currentEpoch = Long.MIN_VALUE;
+    private long count = 0;
+
+    /**
+     * @param windowLength Length of the window, in the unit of the timestamps
+     * @param numBlocks    Number of blocks the window is split into
+     */
+    public BlockWindowQuantiles(long windowLength, int numBlocks) {
+        this(windowLength, numBlocks, AbstractKLLSketch.DEFAULT_K, System.nanoTime());
+    }
+
+    /**
+     * @param windowLength Length of the window, in the unit of the timestamps
+     * @param numBlocks    Number of blocks the window is split into, more blocks make
+     *                     the boundaries of the window more precise
+     * @param k            Accuracy of the sketch of each block, see {@link KLLSketch}
+     * @param seed         Seed of the sketches, for reproducible results
+     */
+    public BlockWindowQuantiles(long windowLength, int numBlocks, int k, long seed) {
+        Preconditions.checkArgument(numBlocks > 0, "There must be at least one block");
+        Preconditions.checkArgument(windowLength >= numBlocks, "The window must be at least one unit per block");
+
+        this.windowLength = windowLength;
+        this.blockLength = (windowLength + numBlocks - 1) / numBlocks;
+        this.k = k;
+        this.seed = seed;
+        this.blocks = new KLLSketch[numBlocks];
+        this.epochs = new long[numBlocks];
+        Arrays.fill(epochs, Long.MIN_VALUE);
+    }
+
+    /**
+     * Adds a value at the position given by the number of values offered so far.
+     *
+     * @param value
+     */
+    @Override
+    public void offer(Double value) {
+        offer(value.doubleValue(), count++);
+    }
+
+    /**
+     * Adds a value to the block of its timestamp. Values older than the window are
+     * dropped, as well as NaN values.
+     *
+     * @param value
+     * @param timestamp Time or position of the value, not negative
+     */
+    public void offer(double value, long timestamp) {
+        Preconditions.checkArgument(timestamp >= 0, "Timestamp must not be negative");
+
+        long epoch = timestamp / blockLength;
+        if (epoch > currentEpoch) {
+            currentEpoch = epoch;
+        } else if (epoch <= currentEpoch - blocks.length) {
+            return;
+        }
+
+        int slot = (int) (epoch % blocks.length);
+        if (epochs[slot] != epoch) {
+            // the slot holds an expired block, start over
+            blocks[slot] = new KLLSketch(k, seed + epoch);
+            epochs[slot] = epoch;
+        }
+        blocks[slot].update(value);
+    }
+
+    /**
+     * @param q The quantile, between 0 and 1
+     * @return The approximate quantile of the whole window
+     * @throws QuantilesException if the window is empty or q isn't between 0 and 1
+     */
+    @Override
+    public Double getQuantile(double q) throws QuantilesException {
+        return getQuantile(q, windowLength);
+    }
+
+    /**
+     * @param q      The quantile, between 0 and 1
+     * @param length Length of the most recent part of the window to be queried, it is
+     *               rounded up to a whole number of blocks
+     * @return The approximate quantile of the values in the last <code>length</code> units
+     * @throws QuantilesException if the sub-window is empty or q isn't between 0 and 1
+     */
+    public Double getQuantile(double q, long length) throws QuantilesException {
+        return getSketch(length).getQuantile(q);
+    }
+
+    /**
+     * @param length Length of the most recent part of the window, it is rounded up to a
+     *               whole number of blocks
+     * @return A new sketch with the values in the last <code>length</code> units
+     */
+    public KLLSketch getSketch(long length) {
+        Preconditions.checkArgument(length > 0 && length <= windowLength,
+                "The length must be positive and not larger than the window");
+
+        long numBlocks = (length + blockLength - 1) / blockLength;
+        KLLSketch sketch = new KLLSketch(k, seed);
+        for (long epoch = currentEpoch; epoch > currentEpoch - numBlocks && epoch >= 0; epoch--) {
+            int slot = (int) (epoch % blocks.length);
+            if (epochs[slot] == epoch) {
+                sketch.merge(blocks[slot]);
+            }
+        }
+        return sketch;
+    }
+
+    /**
+     * @return The number of values in the blocks of the window
+     */
+    public long getCount() {
+        long total = 0;
+        for (int slot = 0; slot < blocks.length; slot++) {
+            if (epochs[slot] > currentEpoch - blocks.length) {
+                total += blocks[slot].getN();
+            }
+        }
+        return total;
+    }
+
+    public long getWindowLength() {
+        return windowLength;
+    }
+
+    public long getBlockLength() {
+        return blockLength;
+    }
+}
@@ -0,0 +1,259 @@
+package org.streaminer.stream.quantile;
+
+import org.streaminer.util.Preconditions;
+
+import java.util.Arrays;
+
+/**
+ * Greenwald-Khanna epsilon-approximate quantiles with buffered batch inserts.
+ * <p/>
+ * Unlike {@link GKQuantiles}, which scans the summary and inserts into a list for
+ * every element, incoming values are appended to a primitive buffer. When the buffer
+ * is full (or a quantile is requested) it is sorted and merged with the summary in a
+ * single pass, after which the summary is compressed. The summary itself is kept in
+ * flat <code>value</code>, <code>g</code> and <code>delta</code> arrays, so inserts
+ * cost O(log n) amortized and no object is allocated per element.
+ * <p/>
+ * Reference:
+ *   Greenwald, Michael, and Sanjeev Khanna. "Space-efficient online computation of
+ *   quantile summaries." ACM SIGMOD Record. Vol. 30. No. 2. ACM, 2001.
+ *
+ * @author Maycon Viana Bordin <mayconbordin@gmail.com>
+ */
+public class BufferedGKQuantiles implements IQuantiles<Double> {
+    private static final int DEFAULT_BUFFER_SIZE = 1000;
+
+    /**
+     * This value specifies the error bound.
+     */
+    protected final double epsilon;
+
+    // summary: for each tuple, g is the difference between its minimum rank and the
+    // minimum rank of its predecessor and delta is the span between its minimum and
+    // maximum rank
+    private double[] values;
+    private long[] g;
+    private long[] delta;
+    private int tuples = 0;
+
+    private final double[] buffer;
+    private int buffered = 0;
+
+    private long count = 0;
+
+    public BufferedGKQuantiles() {
+        this(0.05);
+    }
+
+    /**
+     * @param epsilon The maximum error bound for quantile estimation.
+     */
+    public BufferedGKQuantiles(double epsilon) {
+        this(epsilon, Math.max(DEFAULT_BUFFER_SIZE, (int) Math.ceil(1.0 / (2.0 * epsilon))));
+    }
+
+    /**
+     * @param epsilon    The maximum error bound for quantile estimation.
+     * @param bufferSize Number of values buffered before being merged into the summary
+     */
+    public BufferedGKQuantiles(double epsilon, int bufferSize) {
+        Preconditions.checkArgument(epsilon > 0 && epsilon < 1, "An appropriate epsilon value must lay between 0 and 1.");
+        Preconditions.checkArgument(bufferSize > 0, "The buffer size must be positive.");
+
+        this.epsilon = epsilon;
+        this.buffer = new double[bufferSize];
+
+        int capacity = 16;
+        values = new double[capacity];
+        g = new long[capacity];
+        delta = new long[capacity];
+    }
+
+    @Override
+    public void offer(Double value) {
+        offer(value.doubleValue());
+    }
+
+    public void offer(double value) {
+        buffer[buffered++] = value;
+        if (buffered == buffer.length) {
+            flush();
+        }
+    }
+
+    /**
+     * Adds a batch of values, they are merged into the summary a buffer at a time.
+     *
+     * @param values The values to be added
+     */
+    public void offer(double[] values) {
+        int offset = 0;
+        while (offset < values.length) {
+            int n = Math.min(values.length - offset, buffer.length - buffered);
+            System.arraycopy(values, offset, buffer, buffered, n);
+            buffered += n;
+            offset += n;
+
+            if (buffered == buffer.length) {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Estimates appropriate quantiles (i.e. values that holds epsilon accuracy). Any
+     * buffered value is merged into the summary first.
+     *
+     * @param q The quantile, between 0 and 1
+     * @return The estimated quantile, or {@link Double#NaN} if this instance is empty
+     * @throws QuantilesException if <code>q</code> isn't between 0 and 1
+     */
+    @Override
+    public Double getQuantile(double q) throws QuantilesException {
+        if (q < 0 || q > 1) {
+            throw new QuantilesException("Quantile must be between 0 and 1");
+        }
+
+        flush();
+        if (tuples == 0) {
+            return Double.NaN;
+        }
+
+        // the extremes are kept exactly
+        if (q <= epsilon) {
+            return values[0];
+        }
+        if (q >= 1 - epsilon) {
+            return values[tuples - 1];
+        }
+
+        long rank = (long) Math.ceil(q * count);
+        long tolerance = 0;
+        for (int i = 0; i < tuples; i++) {
+            tolerance = Math.max(tolerance, g[i] + delta[i]);
+        }
+        tolerance /= 2;
+
+        long minRank = 0;
+        for (int i = 0; i < tuples - 1; i++) {
+            minRank += g[i];
+            long maxRank = minRank + delta[i];
+            if (maxRank - tolerance <= rank && rank <= minRank + tolerance) {
+                return values[i];
+            }
+        }
+        return values[tuples - 1];
+    }
+
+    /**
+     * Merges the buffered values into the summary and compresses it.
+     */
+    public void flush() {
+        if (buffered == 0) {
+            return;
+        }
+
+        Arrays.sort(buffer, 0, buffered);
+
+        int size = tuples + buffered;
+        double[] newValues = new double[Math.max(size, values.length)];
+        long[] newG = new long[newValues.length];
+        long[] newDelta = new long[newValues.length];
+
+        int i = 0, j = 0, k = 0;
+        while (j < buffered) {
+            double v = buffer[j];
+            while (i < tuples && values[i] <= v) {
+                newValues[k] = values[i];
+                newG[k] = g[i];
+                newDelta[k++] = delta[i++];
+            }
+
+            count++;
+            newValues[k] = v;
+            newG[k] = 1;
+            // a new minimum or maximum knows its exact rank
+            if (k == 0 || (i == tuples && j == buffered - 1)) {
+                newDelta[k++] = 0;
+            } else {
+                newDelta[k++] = Math.max(0, (long) Math.floor(2 * epsilon * count) - 1);
+            }
+            j++;
+        }
+        while (i < tuples) {
+            newValues[k] = values[i];
+            newG[k] = g[i];
+            newDelta[k++] = delta[i++];
+        }
+
+        values = newValues;
+        g = newG;
+        delta = newDelta;
+        tuples = k;
+        buffered = 0;
+
+        compress();
+    }
+
+    /**
+     * Merges every tuple into its right neighbour while the error bound allows it,
+     * sweeping the summary once from right to left. The minimum is never merged.
+     */
+    private void compress() {
+        if (tuples < 3) {
+            return;
+        }
+
+        long threshold = (long) Math.floor(2 * epsilon * count);
+
+        // the compressed summary is written backwards from the end of the arrays
+        int head = tuples - 1;
+        int out = tuples - 1;
+        for (int i = tuples - 2; i >= 1; i--) {
+            if (g[i] + g[head] + delta[head] < threshold) {
+                g[head] += g[i];
+            } else {
+                values[out] = values[head];
+                g[out] = g[head];
+                delta[out] = delta[head];
+                out--;
+                head = i;
+            }
+        }
+        values[out] = values[head];
+        g[out] = g[head];
+        delta[out] = delta[head];
+
+        // keep the minimum and shift the rest to the front
+        int length = tuples - out;
+        System.arraycopy(values, out, values, 1, length);
+        System.arraycopy(g, out, g, 1, length);
+        System.arraycopy(delta, out, delta, 1, length);
+        tuples = length + 1;
+    }
+
+    /**
+     * @return The number of values seen, including the buffered ones
+     */
+    public long getCount() {
+        return count + buffered;
+    }
+
+    /**
+     * @return The number of tuples in the summary, not counting the buffered values
+     */
+    public int size() {
+        return tuples;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        s.append(getClass().getCanonicalName());
+        s.append(" {");
+        s.append(" epsilon=");
+        s.append(epsilon);
+        s.append(" }");
+        return s.toString();
+    }
+}
@@ -0,0 +1,166 @@
+package org.streaminer.stream.quantile;
+
+import org.streaminer.stream.quantile.CKMSQuantiles.Quantile;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Thread-safe recorder of targeted quantiles.
+ * <p/>
+ * Each thread offers values to a buffer of its own, so recording threads do not
+ * contend with each other. When a buffer is full, its owner sorts it and drains it
+ * into a shared {@link ArrayCKMSQuantiles} summary, which is the only step that takes
+ * a global lock. Queries drain every buffer before estimating the quantile, including
+ * a full batch whose owner is still waiting for the summary, so they see all values
+ * offered before the call.
+ * <p/>
+ * Buffers of threads that have died are dropped once they have been drained.
+ *
+ * @author Maycon Viana Bordin <mayconbordin@gmail.com>
+ */
+public class ConcurrentCKMSQuantiles implements IQuantiles<Long> {
+    private static final int DEFAULT_BUFFER_SIZE = 500;
+
+    private final ArrayCKMSQuantiles summary;
+    private final int bufferSize;
+
+    private final CopyOnWriteArrayList<Buffer> buffers = new CopyOnWriteArrayList<Buffer>();
+    private final ThreadLocal<Buffer> localBuffer = new ThreadLocal<Buffer>() {
+        @Override
+        protected Buffer initialValue() {
+            Buffer buffer = new Buffer(bufferSize);
+            buffers.add(buffer);
+            return buffer;
+        }
+    };
+
+    public ConcurrentCKMSQuantiles(Quantile[] quantiles) {
+        this(quantiles, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param quantiles  The targeted quantiles, along with desired error
+     * @param bufferSize Number of values buffered by each thread before being
+     *                   drained into the summary
+     */
+    public ConcurrentCKMSQuantiles(Quantile[] quantiles, int bufferSize) {
+        this.summary = new ArrayCKMSQuantiles(quantiles, bufferSize);
+        this.bufferSize = bufferSize;
+    }
+
+    @Override
+    public void offer(Long value) {
+        offer(value.longValue());
+    }
+
+    /**
+     * Add a new value from the stream. Safe to be called from any thread.
+     *
+     * @param value
+     */
+    public void offer(long value) {
+        Buffer buffer = localBuffer.get();
+        long[] full = null;
+
+        // only contended while a query is draining this buffer
+        synchronized (buffer) {
+            buffer.values[buffer.count++] = value;
+            if (buffer.count == buffer.values.length) {
+                full = buffer.swap();
+                Arrays.sort(full);
+                // reachable by queries until it is in the summary
+                buffer.pending = full;
+            }
+        }
+
+        // the buffer lock is released while waiting for the summary lock, which is
+        // taken first, as queries take them in that order
+        if (full != null) {
+            synchronized (summary) {
+                synchronized (buffer) {
+                    if (buffer.pending == full) {
+                        summary.insertSorted(full, full.length);
+                        buffer.pending = null;
+                    }
+                    buffer.spare = full;
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the estimated value at the specified quantile, after draining the
+     * buffers of all threads.
+     *
+     * @param q Queried quantile, e.g. 0.50 or 0.99.
+     * @return Estimated value at that quantile.
+     */
+    @Override
+    public Long getQuantile(double q) throws QuantilesException {
+        synchronized (summary) {
+            drainAll();
+            return summary.getQuantile(q);
+        }
+    }
+
+    /**
+     * @return Number of values seen by the summary, after draining the buffers of all threads
+     */
+    public long getCount() {
+        synchronized (summary) {
+            drainAll();
+            return summary.getCount();
+        }
+    }
+
+    /**
+     * Must be called with the lock of the summary held.
+     */
+    private void drainAll() {
+        Iterator<Buffer> it = buffers.iterator();
+        while (it.hasNext()) {
+            Buffer buffer = it.next();
+            synchronized (buffer) {
+                if (buffer.pending != null) {
+                    summary.insertSorted(buffer.pending, buffer.pending.length);
+                    buffer.pending = null;
+                }
+                Arrays.sort(buffer.values, 0, buffer.count);
+                summary.insertSorted(buffer.values, buffer.count);
+                buffer.count = 0;
+            }
+            Thread owner = buffer.owner.get();
+            if (owner == null || !owner.isAlive()) {
+                buffers.remove(buffer);
+            }
+        }
+    }
+
+    private static class Buffer {
+        final WeakReference<Thread> owner = new WeakReference<Thread>(Thread.currentThread());
+        long[] values;
+        long[] spare;
+        /** A full, sorted batch that is not in the summary yet */
+        long[] pending;
+        int count = 0;
+
+        Buffer(int size) {
+            values = new long[size];
+        }
+
+        /**
+         * Replaces the full array by the spare one, or a new one if the spare is
+         * still being drained.
+         */
+        long[] swap() {
+            long[] full = values;
+            values = (spare != null) ? spare : new long[full.length];
+            spare = null;
+            count = 0;
+            return full;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package org.streaminer.stream.quantile;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free recorder for {@link LogHistogram}.
+ * <p/>
+ * The counters are striped: each stripe is a full set of buckets in a single
+ * {@link AtomicLongArray}, and a thread always increments the stripe selected by its
+ * id, so threads recording the same value rarely hit the same counter. Recording is
+ * a single atomic increment, and a snapshot sums the stripes into a plain
+ * {@link LogHistogram}, which answers the quantile queries.
+ * <p/>
+ * The footprint is <code>8 * stripes * buckets</code> bytes, fixed at construction.
+ *
+ * @author Maycon Viana Bordin <mayconbordin@gmail.com>
+ */
+public class ConcurrentLogHistogram {
+    private static final int MAX_DEFAULT_STRIPES = 16;
+
+    private final LogLinearMapping mapping;
+    private final AtomicLongArray counts;
+    private final int numBuckets;
+    private final int stripeMask;
+
+    /**
+     * Creates a histogram with one stripe per processor, up to 16 stripes.
+     *
+     * @param relativeAccuracy Maximum relative error of the quantiles, e.g. 0.01
+     * @param minValue         Smallest value that is tracked, must be positive
+     * @param maxValue         Largest value that is tracked
+     */
+    public ConcurrentLogHistogram(double relativeAccuracy, double minValue, double maxValue) {
+        this(relativeAccuracy, minValue, maxValue,
+                Math.min(MAX_DEFAULT_STRIPES, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * @param relativeAccuracy Maximum relative error of the quantiles, e.g. 0.01
+     * @param minValue         Smallest value that is tracked, must be positive
+     * @param maxValue         Largest value that is tracked
+     * @param stripes          Number of sets of counters, rounded up to a power of two
+     */
+    public ConcurrentLogHistogram(double relativeAccuracy, double minValue, double maxValue, int stripes) {
+        if (stripes < 1) {
+            throw new IllegalArgumentException("There must be at least one stripe");
+        }
+        int size = Integer.highestOneBit(stripes);
+        if (size < stripes) {
+            size <<= 1;
+        }
+
+        this.mapping = new LogLinearMapping(relativeAccuracy, minValue, maxValue);
+        this.numBuckets = mapping.numBuckets;
+        this.stripeMask = size - 1;
+        this.counts = new AtomicLongArray(size * numBuckets);
+    }
+
+    /**
+     * Records a value. Safe to be called from any thread.
+     *
+     * @param value A value that is not negative
+     */
+    public void record(double value) {
+        counts.incrementAndGet(stripe() + mapping.index(value));
+    }
+
+    /**
+     * @param value       A value that is not negative
+     * @param occurrences Number of times the value was seen
+     */
+    public void record(double value, long occurrences) {
+        counts.addAndGet(stripe() + mapping.index(value), occurrences);
+    }
+
+    /**
+     * Adds the counts of a histogram to this one.
+     *
+     * @param other A histogram with the same relative accuracy and range
+     */
+    public void merge(LogHistogram other) {
+        if (!mapping.isCompatible(other.getMapping())) {
+            throw new IllegalArgumentException("Cannot merge histograms with different parameters");
+        }
+        long[] otherCounts = other.getCounts();
+        int stripe = stripe();
+        for (int i = 0; i < numBuckets; i++) {
+            if (otherCounts[i] != 0) {
+                counts.addAndGet(stripe + i, otherCounts[i]);
+            }
+        }
+    }
+
+    /**
+     * Sums the stripes into a new histogram. Values recorded concurrently with the
+     * snapshot may or may not be included.
+     *
+     * @return A copy of the current counts
+     */
+    public LogHistogram snapshot() {
+        return snapshot(false);
+    }
+
+    /**
+     * Sums the stripes into a new histogram and resets them, so that each value is
+     * included in exactly one of the successive snapshots.
+     *
+     * @return The counts recorded since the last reset
+     */
+    public LogHistogram snapshotAndReset() {
+        return snapshot(true);
+    }
+
+    /**
+     * @return The size of the counters, in bytes
+     */
+    public int sizeof() {
+        return 8 * counts.length();
+    }
+
+    public int getNumBuckets() {
+        return numBuckets;
+    }
+
+    public int getNumStripes() {
+        return stripeMask + 1;
+    }
+
+    private LogHistogram snapshot(boolean reset) {
+        long[] sum = new long[numBuckets];
+        long total = 0;
+
+        for (int stripe = 0; stripe <= stripeMask; stripe++) {
+            int base = stripe * numBuckets;
+            for (int i = 0; i < numBuckets; i++) {
+                long c = counts.get(base + i);
+                if (reset && c != 0) {
+                    c = counts.getAndSet(base + i, 0);
+                }
+                sum[i] += c;
+                total += c;
+            }
+        }
+        return new LogHistogram(mapping, sum, total);
+    }
+
+    private int stripe() {
+        long id = Thread.currentThread().getId();
+        return ((int) (id ^ (id >>> 32)) & stripeMask) * numBuckets;
+    }
+}
@@ -0,0 +1,586 @@
+package org.streaminer.stream.quantile;
+
+import it.unimi.dsi.fastutil.longs.LongArrays;
+import org.streaminer.util.Preconditions;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Q-Digest laid out as one sorted array of nodes per level of the tree.
+ * <p/>
+ * Answers the same queries as {@link QDigest}, with the same accuracy: the actual
+ * rank of the result of query(q) is in q-eps .. q+eps, where eps = log(sigma)/compressionFactor.
+ * <p/>
+ * Each level keeps the offsets of its nodes (the node id minus the id of the first
+ * node of the level) in ascending order, along with their counts. Incoming values are
+ * buffered, and at each flush the buffer is sorted and merged into the leaf level, and
+ * the tree is compressed bottom-up as in the paper: a level is walked once, pairs of
+ * siblings are combined with their parent, which is found by walking the level above
+ * in the same order, so there is no hashing and no lookup of single nodes.
+ * Growing the tree for larger values keeps the offsets of the nodes and just moves
+ * the levels down.
+ * <p/>
+ * The serialized form is the same as the one of {@link QDigest#serialize(QDigest)}.
+ * <p/>
+ * Source:
+ * N.Shrivastava, C.Buragohain, D.Agrawal
+ * Medians and Beyond: New Aggregation Techniques for Sensor Networks
+ * http://www.cs.virginia.edu/~son/cs851/papers/ucsb.sensys04.pdf
+ *
+ * @author Maycon Viana Bordin <mayconbordin@gmail.com>
+ */
+public class LevelQDigest implements IQuantiles<Long> {
+    private static final int MIN_BUFFER_SIZE = 64;
+    private static final int MAX_BUFFER_SIZE = 1 << 16;
+    private static final int MERGE_THRESHOLD = 8;
+
+    private final double compressionFactor;
+    private long size = 0;
+
+    /**
+     * The tree holds values in 0 .. 2^height - 1, leaves are at level height
+     */
+    private int height = 0;
+
+    private long[][] offsets;
+    private long[][] counts;
+    private int[] sizes;
+
+    // swapped with the arrays of a level when it is rewritten
+    private long[] scratchOffsets = new long[16];
+    private long[] scratchCounts = new long[16];
+
+    private final long[] buffer;
+    private int buffered = 0;
+    private long bufferedMax = 0;
+
+    // nodes sorted by right end of their ranges, built on demand
+    private long[] ascLefts;
+    private long[] ascRights;
+    private long[] ascCounts;
+
+    public LevelQDigest(double compressionFactor) {
+        this(compressionFactor, (int) Math.min(MAX_BUFFER_SIZE, Math.max(MIN_BUFFER_SIZE, compressionFactor)));
+    }
+
+    /**
+     * @param compressionFactor Number of nodes kept is at most 3 times this factor
+     * @param bufferSize        Number of values buffered before being inserted in the tree
+     */
+    public LevelQDigest(double compressionFactor, int bufferSize) {
+        Preconditions.checkArgument(compressionFactor > 0, "Compression factor must be positive");
+        Preconditions.checkArgument(bufferSize > 0, "Buffer size must be positive");
+
+        this.compressionFactor = compressionFactor;
+        this.buffer = new long[bufferSize];
+        this.offsets = new long[][] {new long[1]};
+        this.counts = new long[][] {new long[1]};
+        this.sizes = new int[1];
+    }
+
+    @Override
+    public void offer(Long value) {
+        offer(value.longValue());
+    }
+
+    public void offer(long value) {
+        if (value < 0 || value > Long.MAX_VALUE/2) {
+            throw new IllegalArgumentException("Can only accept values in the range 0.." + Long.MAX_VALUE/2 + ", got " + value);
+        }
+
+        buffer[buffered++] = value;
+        bufferedMax = Math.max(bufferedMax, value);
+        if (buffered == buffer.length) {
+            flush();
+        }
+    }
+
+    /**
+     * Inserts the buffered values in the tree and compresses it.
+     */
+    public void flush() {
+        if (buffered == 0) {
+            return;
+        }
+
+        if (bufferedMax >= (1L << height)) {
+            grow(64 - Long.numberOfLeadingZeros(bufferedMax));
+        }
+
+        // runs of equal values become a single leaf
+        LongArrays.radixSort(buffer, 0, buffered);
+        long[] leafOffsets = new long[buffered];
+        long[] leafCounts = new long[buffered];
+        int leaves = 0;
+        for (int i = 0; i < buffered; i++) {
+            if (leaves > 0 && leafOffsets[leaves - 1] == buffer[i]) {
+                leafCounts[leaves - 1]++;
+            } else {
+                leafOffsets[leaves] = buffer[i];
+                leafCounts[leaves++] = 1;
+            }
+        }
+
+        addToLevel(height, leafOffsets, leafCounts, leaves);
+        size += buffered;
+        buffered = 0;
+        bufferedMax = 0;
+
+        compress();
+    }
+
+    /**
+     * @param q The quantile, between 0 and 1
+     * @return The right end of the range of the node at the given quantile
+     * @throws IllegalStateException if the digest is empty
+     */
+    @Override
+    public Long getQuantile(double q) {
+        flush();
+        Preconditions.checkState(size > 0, "No samples present");
+        buildAscRanges();
+
+        long s = 0;
+        for (int i = 0; i < ascRights.length; i++) {
+            s += ascCounts[i];
+            if (s > q * size) {
+                return ascRights[i];
+            }
+        }
+        return ascRights[ascRights.length - 1];
+    }
+
+    /**
+     * @return The ranges of the nodes, as {left, right, count}, sorted as in {@link QDigest#toAscRanges()}
+     */
+    public List<long[]> toAscRanges() {
+        flush();
+        buildAscRanges();
+
+        List<long[]> ranges = new ArrayList<long[]>(ascRights.length);
+        for (int i = 0; i < ascRights.length; i++) {
+            ranges.add(new long[] {ascLefts[i], ascRights[i], ascCounts[i]});
+        }
+        return ranges;
+    }
+
+    public static LevelQDigest unionOf(LevelQDigest a, LevelQDigest b) {
+        checkCompatible(a, b);
+
+        LevelQDigest res = new LevelQDigest(a.compressionFactor, a.buffer.length);
+        res.addAll(a);
+        res.addAll(b);
+        return res;
+    }
+
+    /**
+     * Merges many digests in a tree, merging disjoint groups of digests in parallel.
+     *
+     * @param digests Digests with the same compression factor
+     * @param pool    The pool in which the merges run
+     * @return A new digest of the union of the streams
+     */
+    public static LevelQDigest merge(List<LevelQDigest> digests, ForkJoinPool pool) {
+        Preconditions.checkArgument(!digests.isEmpty(), "There must be at least one digest to merge");
+        for (LevelQDigest digest : digests) {
+            checkCompatible(digests.get(0), digest);
+            digest.flush();
+        }
+        return pool.invoke(new MergeTask(digests, 0, digests.size()));
+    }
+
+    /**
+     * Merges many digests in parallel, using a pool with one thread per processor.
+     *
+     * @see #merge(List, ForkJoinPool)
+     */
+    public static LevelQDigest merge(List<LevelQDigest> digests) {
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            return merge(digests, pool);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * @return The number of nodes in the tree, not counting the buffered values
+     */
+    public int getNumNodes() {
+        int nodes = 0;
+        for (int level = 0; level <= height; level++) {
+            nodes += sizes[level];
+        }
+        return nodes;
+    }
+
+    public long getSize() {
+        return size + buffered;
+    }
+
+    // For debugging purposes.
+    public long computeActualSize() {
+        flush();
+        long res = 0;
+        for (int level = 0; level <= height; level++) {
+            for (int i = 0; i < sizes[level]; i++) {
+                res += counts[level][i];
+            }
+        }
+        return res;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder res = new StringBuilder();
+        for (long[] range : toAscRanges()) {
+            if (res.length() > 0)
+                res.append(", ");
+            res.append(range[0]).append(" .. ").append(range[1]).append(": ").append(range[2]);
+        }
+        return res.toString();
+    }
+
+    public static byte[] serialize(LevelQDigest d) {
+        d.flush();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream s = new DataOutputStream(bos);
+
+        try {
+            s.writeLong(d.size);
+            s.writeDouble(d.compressionFactor);
+            s.writeLong(1L << d.height);
+            s.writeInt(d.getNumNodes());
+            for (int level = 0; level <= d.height; level++) {
+                for (int i = 0; i < d.sizes[level]; i++) {
+                    s.writeLong((1L << level) + d.offsets[level][i]);
+                    s.writeLong(d.counts[level][i]);
+                }
+            }
+            return bos.toByteArray();
+        } catch (IOException e) {
+            // Should never happen
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Reads a digest serialized by {@link #serialize(LevelQDigest)} or {@link QDigest#serialize(QDigest)}.
+     */
+    public static LevelQDigest deserialize(byte[] b) {
+        DataInputStream s = new DataInputStream(new ByteArrayInputStream(b));
+        try {
+            long size = s.readLong();
+            double compressionFactor = s.readDouble();
+            long capacity = s.readLong();
+            int count = s.readInt();
+
+            LevelQDigest d = new LevelQDigest(compressionFactor);
+            d.grow(63 - Long.numberOfLeadingZeros(capacity));
+            d.size = size;
+
+            long[] ids = new long[count];
+            long[] nodeCounts = new long[count];
+            for (int i = 0; i < count; ++i) {
+                ids[i] = s.readLong();
+                nodeCounts[i] = s.readLong();
+            }
+
+            // sorting by id groups the nodes by level, in ascending order of offset
+            LongArrays.radixSort(ids, nodeCounts);
+            int from = 0;
+            while (from < count) {
+                int level = 63 - Long.numberOfLeadingZeros(ids[from]);
+                int to = from;
+                while (to < count && ids[to] < (2L << level)) {
+                    ids[to] -= 1L << level;
+                    to++;
+                }
+                d.offsets[level] = Arrays.copyOfRange(ids, from, to);
+                d.counts[level] = Arrays.copyOfRange(nodeCounts, from, to);
+                d.sizes[level] = to - from;
+                from = to;
+            }
+            return d;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void checkCompatible(LevelQDigest a, LevelQDigest b) {
+        if (a.compressionFactor != b.compressionFactor) {
+            throw new IllegalArgumentException("Compression factors must be the same: "
+                    + "left is " + a.compressionFactor + ", " + "right is "
+                    + b.compressionFactor);
+        }
+    }
+
+    /**
+     * Adds the nodes of another digest to this one and compresses the result.
+     */
+    private void addAll(LevelQDigest other) {
+        flush();
+        other.flush();
+        if (other.height > height) {
+            grow(other.height);
+        }
+
+        // the levels of the smaller tree are the bottom levels of the larger one
+        int shift = height - other.height;
+        for (int level = 0; level <= other.height; level++) {
+            addToLevel(level + shift, other.offsets[level], other.counts[level], other.sizes[level]);
+        }
+        size += other.size;
+        compress();
+    }
+
+    /**
+     * Grows the tree to the given height. The offset of a node within its level
+     * does not change, the levels just move down.
+     */
+    private void grow(int newHeight) {
+        int shift = newHeight - height;
+        if (shift <= 0) {
+            return;
+        }
+
+        long[][] newOffsets = new long[newHeight + 1][];
+        long[][] newCounts = new long[newHeight + 1][];
+        int[] newSizes = new int[newHeight + 1];
+        for (int level = 0; level < shift; level++) {
+            newOffsets[level] = new long[1];
+            newCounts[level] = new long[1];
+        }
+        System.arraycopy(offsets, 0, newOffsets, shift, height + 1);
+        System.arraycopy(counts, 0, newCounts, shift, height + 1);
+        System.arraycopy(sizes, 0, newSizes, shift, height + 1);
+
+        offsets = newOffsets;
+        counts = newCounts;
+        sizes = newSizes;
+        height = newHeight;
+        ascRights = null;
+    }
+
+    /**
+     * Merges sorted nodes into a level, adding the counts of equal offsets.
+     */
+    private void addToLevel(int level, long[] addOffsets, long[] addCounts, int length) {
+        if (length == 0) {
+            return;
+        }
+
+        int n = sizes[level];
+        ensureScratch(n + length);
+        long[] levelOffsets = offsets[level];
+        long[] levelCounts = counts[level];
+
+        int i = 0, j = 0, k = 0;
+        while (i < n || j < length) {
+            if (j == length || (i < n && levelOffsets[i] < addOffsets[j])) {
+                scratchOffsets[k] = levelOffsets[i];
+                scratchCounts[k++] = levelCounts[i++];
+            } else if (i == n || addOffsets[j] < levelOffsets[i]) {
+                scratchOffsets[k] = addOffsets[j];
+                scratchCounts[k++] = addCounts[j++];
+            } else {
+                scratchOffsets[k] = levelOffsets[i];
+                scratchCounts[k++] = levelCounts[i++] + addCounts[j++];
+            }
+        }
+
+        swapScratch(level, k);
+    }
+
+    /**
+     * Compresses the tree bottom-up, one level at a time. A node and its sibling
+     * are moved into their parent when the three of them count at most size/k.
+     */
+    private void compress() {
+        long threshold = (long) Math.floor(size / compressionFactor);
+
+        for (int level = height; level > 0; level--) {
+            long[] childOffsets = offsets[level];
+            long[] childCounts = counts[level];
+            int children = sizes[level];
+            if (children == 0) {
+                continue;
+            }
+
+            long[] parentOffsets = offsets[level - 1];
+            long[] parentCounts = counts[level - 1];
+            int parents = sizes[level - 1];
+            ensureScratch(parents + children);
+
+            int kept = 0, p = 0, out = 0;
+            int i = 0;
+            while (i < children) {
+                long parent = childOffsets[i] >>> 1;
+                long atNode = childCounts[i];
+                long atSibling = 0;
+                boolean pair = i + 1 < children && (childOffsets[i + 1] >>> 1) == parent;
+                if (pair) {
+                    atSibling = childCounts[i + 1];
+                }
+
+                while (p < parents && parentOffsets[p] < parent) {
+                    scratchOffsets[out] = parentOffsets[p];
+                    scratchCounts[out++] = parentCounts[p++];
+                }
+                long atParent = 0;
+                boolean hasParent = p < parents && parentOffsets[p] == parent;
+                if (hasParent) {
+                    atParent = parentCounts[p++];
+                }
+
+                if (atNode + atSibling + atParent <= threshold) {
+                    scratchOffsets[out] = parent;
+                    scratchCounts[out++] = atParent + atNode + atSibling;
+                } else {
+                    if (hasParent) {
+                        scratchOffsets[out] = parent;
+                        scratchCounts[out++] = atParent;
+                    }
+                    // the kept children are compacted in place
+                    childOffsets[kept] = childOffsets[i];
+                    childCounts[kept++] = atNode;
+                    if (pair) {
+                        childOffsets[kept] = childOffsets[i + 1];
+                        childCounts[kept++] = atSibling;
+                    }
+                }
+                i += pair ? 2 : 1;
+            }
+            while (p < parents) {
+                scratchOffsets[out] = parentOffsets[p];
+                scratchCounts[out++] = parentCounts[p++];
+            }
+
+            sizes[level] = kept;
+            swapScratch(level - 1, out);
+        }
+        ascRights = null;
+    }
+
+    private void ensureScratch(int capacity) {
+        if (scratchOffsets.length < capacity) {
+            capacity = Math.max(capacity, 2 * scratchOffsets.length);
+            scratchOffsets = new long[capacity];
+            scratchCounts = new long[capacity];
+        }
+    }
+
+    /**
+     * Makes the scratch arrays the arrays of the level, and the previous arrays
+     * of the level the scratch ones.
+     */
+    private void swapScratch(int level, int length) {
+        long[] tmpOffsets = offsets[level];
+        long[] tmpCounts = counts[level];
+        offsets[level] = scratchOffsets;
+        counts[level] = scratchCounts;
+        sizes[level] = length;
+        scratchOffsets = tmpOffsets;
+        scratchCounts = tmpCounts;
+        ascRights = null;
+    }
+
+    /**
+     * Merges the levels, from the leaves up, by the right end of the range of the
+     * nodes. On equal right ends, the deeper (narrower) node comes first.
+     */
+    private void buildAscRanges() {
+        if (ascRights != null) {
+            return;
+        }
+
+        int total = getNumNodes();
+        long[] lefts = new long[total];
+        long[] rights = new long[total];
+        long[] nodeCounts = new long[total];
+        long[] mergedLefts = new long[total];
+        long[] mergedRights = new long[total];
+        long[] mergedCounts = new long[total];
+        int length = 0;
+
+        for (int level = height; level >= 0; level--) {
+            int n = sizes[level];
+            if (n == 0) {
+                continue;
+            }
+
+            int shift = height - level;
+            long[] levelOffsets = offsets[level];
+            int i = 0, j = 0, k = 0;
+            while (i < length || j < n) {
+                long right = (j < n) ? ((levelOffsets[j] + 1) << shift) - 1 : 0;
+                if (j == n || (i < length && rights[i] <= right)) {
+                    mergedLefts[k] = lefts[i];
+                    mergedRights[k] = rights[i];
+                    mergedCounts[k++] = nodeCounts[i++];
+                } else {
+                    mergedLefts[k] = levelOffsets[j] << shift;
+                    mergedRights[k] = right;
+                    mergedCounts[k++] = counts[level][j++];
+                }
+            }
+
+            long[] tmp = lefts;
+            lefts = mergedLefts;
+            mergedLefts = tmp;
+            tmp = rights;
+            rights = mergedRights;
+            mergedRights = tmp;
+            tmp = nodeCounts;
+            nodeCounts = mergedCounts;
+            mergedCounts = tmp;
+            length = k;
+        }
+
+        ascLefts = lefts;
+        ascRights = rights;
+        ascCounts = nodeCounts;
+    }
+
+    @SuppressWarnings("serial")
+    private static class MergeTask extends RecursiveTask<LevelQDigest> {
+        private final List<LevelQDigest> digests;
+        private final int from;
+        private final int to;
+
+        MergeTask(List<LevelQDigest> digests, int from, int to) {
+            this.digests = digests;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected LevelQDigest compute() {
+            if (to - from <= MERGE_THRESHOLD) {
+                LevelQDigest first = digests.get(from);
+                LevelQDigest merged = new LevelQDigest(first.compressionFactor, first.buffer.length);
+                for (int i = from; i < to; i++) {
+                    merged.addAll(digests.get(i));
+                }
+                return merged;
+            }
+
+            int middle = (from + to) >>> 1;
+            MergeTask left = new MergeTask(digests, from, middle);
+            left.fork();
+            LevelQDigest right = new MergeTask(digests, middle, to).compute();
+            LevelQDigest merged = left.join();
+            merged.addAll(right);
+            return merged;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package org.streaminer.stream.quantile;
+
+import java.util.Arrays;
+
+/**
+ * Histogram with log-linear buckets that estimates quantiles within a fixed relative
+ * error, in the style of HdrHistogram and DDSketch.
+ * <p/>
+ * The buckets cover a fixed range of values, so the footprint is known upfront and
+ * recording a value is a constant-time increment of a counter. Values smaller than
+ * the minimum are reported as zero, and values larger than the maximum are counted in
+ * the last bucket. Histograms with the same parameters can be merged without any
+ * loss of accuracy.
+ * <p/>
+ * This class is not thread-safe, see {@link ConcurrentLogHistogram} for concurrent
+ * recording.
+ * <p/>
+ * Reference:
+ *   Masson, Charles, Jee E. Rim, and Homin K. Lee. "DDSketch: A fast and fully-mergeable
+ *   quantile sketch with relative-error guarantees." Proceedings of the VLDB Endowment
+ *   12.12 (2019): 2195-2205.
+ *
+ * @author Maycon Viana Bordin <mayconbordin@gmail.com>
+ */
+public class LogHistogram implements IQuantiles<Double> {
+    private final LogLinearMapping mapping;
+    private final long[] counts;
+    private long count = 0;
+
+    /**
+     * @param relativeAccuracy Maximum relative error of the quantiles, e.g. 0.01
+     * @param minValue         Smallest value that is tracked, must be positive
+     * @param maxValue         Largest value that is tracked
+     */
+    public LogHistogram(double relativeAccuracy, double minValue, double maxValue) {
+        this(new LogLinearMapping(relativeAccuracy, minValue, maxValue));
+    }
+
+    LogHistogram(LogLinearMapping mapping) {
+        this(mapping, new long[mapping.numBuckets], 0);
+    }
+
+    LogHistogram(LogLinearMapping mapping, long[] counts, long count) {
+        this.mapping = mapping;
+        this.counts = counts;
+        this.count = count;
+    }
+
+    @Override
+    public void offer(Double value) {
+        record(value);
+    }
+
+    /**
+     * @param value A value that is not negative
+     */
+    public void record(double value) {
+        counts[mapping.index(value)]++;
+        count++;
+    }
+
+    /**
+     * @param value       A value that is not negative
+     * @param occurrences Number of times the value was seen
+     */
+    public void record(double value, long occurrences) {
+        counts[mapping.index(value)] += occurrences;
+        count += occurrences;
+    }
+
+    /**
+     * @param q The quantile, between 0 and 1
+     * @return A value within the relative accuracy of the quantile
+     * @throws QuantilesException if the histogram is empty or q isn't between 0 and 1
+     */
+    @Override
+    public Double getQuantile(double q) throws QuantilesException {
+        if (q < 0 || q > 1) {
+            throw new QuantilesException("Quantile must be between 0 and 1");
+        }
+        if (count == 0) {
+            throw new QuantilesException("No samples present");
+        }
+
+        long rank = (long) (q * (count - 1));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen > rank) {
+                return mapping.value(i);
+            }
+        }
+        return mapping.value(counts.length - 1);
+    }
+
+    /**
+     * @param value
+     * @return The fraction of the values that fall in buckets up to the one of the given value
+     */
+    public double getRank(double value) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+
+        int index = mapping.index(value);
+        long seen = 0;
+        for (int i = 0; i <= index; i++) {
+            seen += counts[i];
+        }
+        return seen / (double) count;
+    }
+
+    /**
+     * Adds the counts of another histogram to this one.
+     *
+     * @param other A histogram with the same relative accuracy and range
+     */
+    public void merge(LogHistogram other) {
+        if (!mapping.isCompatible(other.mapping)) {
+            throw new IllegalArgumentException("Cannot merge histograms with different parameters");
+        }
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+    }
+
+    public void clear() {
+        Arrays.fill(counts, 0);
+        count = 0;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public int getNumBuckets() {
+        return counts.length;
+    }
+
+    public double getRelativeAccuracy() {
+        return mapping.relativeAccuracy;
+    }
+
+    /**
+     * @return The size of the counters, in bytes
+     */
+    public int sizeof() {
+        return 8 * counts.length;
+    }
+
+    LogLinearMapping getMapping() {
+        return mapping;
+    }
+
+    long[] getCounts() {
+        return counts;
+    }
+}
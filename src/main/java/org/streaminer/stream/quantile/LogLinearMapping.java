@@ -0,0 +1,106 @@
+package org.streaminer.stream.quantile;
+
+import org.streaminer.util.Preconditions;
+
+/**
+ * Maps positive values to buckets whose upper and lower bounds are within a fixed
+ * ratio, so that any value of a bucket is within the relative accuracy of the value
+ * that represents it.
+ * <p/>
+ * Instead of computing a logarithm, the index is derived from the exponent and the
+ * mantissa of the value, i.e. from a piecewise-linear approximation of log2. That is
+ * a couple of bit operations, at the cost of about 44% more buckets than an exact
+ * logarithmic mapping.
+ * <p/>
+ * Bucket 0 counts the values smaller than the minimum value, and the last bucket also
+ * counts the values larger than the maximum value.
+ *
+ * @author Maycon Viana Bordin <mayconbordin@gmail.com>
+ */
+final class LogLinearMapping {
+    private static final long EXPONENT_MASK = 0x7FF0000000000000L;
+    private static final long MANTISSA_MASK = 0x000FFFFFFFFFFFFFL;
+    private static final long ONE_BITS = Double.doubleToRawLongBits(1.0);
+
+    final double relativeAccuracy;
+    final double minValue;
+    final double maxValue;
+    final int numBuckets;
+
+    private final double multiplier;
+    private final int offset;
+
+    /**
+     * @param relativeAccuracy Maximum relative error of the values, between 0 and 1
+     * @param minValue         Smallest value that is tracked, must be positive
+     * @param maxValue         Largest value that is tracked
+     */
+    LogLinearMapping(double relativeAccuracy, double minValue, double maxValue) {
+        Preconditions.checkArgument(relativeAccuracy > 0 && relativeAccuracy < 1,
+                "The relative accuracy must be between 0 and 1");
+        Preconditions.checkArgument(minValue >= Double.MIN_NORMAL && maxValue > minValue
+                && maxValue < Double.MAX_VALUE, "The range of values must be positive and not empty");
+
+        this.relativeAccuracy = relativeAccuracy;
+        this.minValue = minValue;
+        this.maxValue = maxValue;
+
+        // a bucket spans 1/multiplier in the approximate log2, whose slope is at least
+        // 1/v, so the ratio of its bounds is at most 1 + 1/multiplier = gamma
+        double gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+        this.multiplier = 1 / (gamma - 1);
+        this.offset = rawIndex(minValue) - 1;
+        this.numBuckets = rawIndex(maxValue) - offset + 1;
+    }
+
+    /**
+     * @param value A value that is not negative
+     * @return The bucket of the value
+     */
+    int index(double value) {
+        if (value < minValue) {
+            if (value >= 0) {
+                return 0;
+            }
+            throw new IllegalArgumentException("Value must not be negative: " + value);
+        }
+        if (value >= maxValue) {
+            return numBuckets - 1;
+        }
+        return rawIndex(value) - offset;
+    }
+
+    /**
+     * @param index A bucket
+     * @return The value that represents the bucket, zero for the bucket of small values
+     */
+    double value(int index) {
+        if (index == 0) {
+            return 0;
+        }
+        double lower = approximatePow2((index + offset) / multiplier);
+        double upper = approximatePow2((index + offset + 1) / multiplier);
+        return 2 * lower * upper / (lower + upper);
+    }
+
+    boolean isCompatible(LogLinearMapping other) {
+        return relativeAccuracy == other.relativeAccuracy && minValue == other.minValue
+                && maxValue == other.maxValue;
+    }
+
+    private int rawIndex(double value) {
+        return (int) Math.floor(approximateLog2(value) * multiplier);
+    }
+
+    private static double approximateLog2(double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        int exponent = (int) ((bits & EXPONENT_MASK) >>> 52) - 1023;
+        double mantissa = Double.longBitsToDouble((bits & MANTISSA_MASK) | ONE_BITS);
+        return exponent + mantissa - 1;
+    }
+
+    private static double approximatePow2(double value) {
+        double exponent = Math.floor(value);
+        return Math.scalb(1 + value - exponent, (int) exponent);
+    }
+}
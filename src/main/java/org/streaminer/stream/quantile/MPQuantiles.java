@@ -16,7 +16,7 @@
 package org.streaminer.stream.quantile;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -29,14 +29,20 @@ import java.util.Map;
  * <p>This implementation follows the implementation in the szl compiler:
  * http://code.google.com/p/szl/source/browse/trunk/src/emitters/szlquantile.cc
  * 
+ * <p>The buffers are primitive arrays of a fixed size, one per level, which are
+ * allocated once and reused. Levels 0 and 1 receive the input, and a level above
+ * them holds either no element or a full buffer whose elements weigh 2^(level-1).
+ * 
  */
 public class MPQuantiles implements IQuantiles<Double> {
      private static final long MAX_TOT_ELEMS = 1024L * 1024L * 1024L * 1024L;
 
-    private final List<List<Double>> buffer = new ArrayList<List<Double>>();
+    private double[][] buffer = new double[2][];
+    private int[] bufferSize = new int[2];
+    private final double[][] scratch = new double[2][];
     private final int maxElementsPerBuffer;
     private final int numQuantiles;
-    private int totalElements;
+    private long totalElements;
     private double min;
     private double max;
     
@@ -47,6 +53,10 @@ public class MPQuantiles implements IQuantiles<Double> {
     
     @Override
     public void offer(Double value) {
+        offer(value.doubleValue());
+    }
+
+    public void offer(double value) {
         if (totalElements == 0 || value < min) {
             min = value;
         }
@@ -55,18 +65,57 @@ public class MPQuantiles implements IQuantiles<Double> {
         }
 
         if (totalElements > 0 && totalElements % (2 * maxElementsPerBuffer) == 0) {
-            Collections.sort(buffer.get(0));
-            Collections.sort(buffer.get(1));
-            recursiveCollapse(buffer.get(0), 1);
+            collapseInput();
         }
 
-        ensureBuffer(0);
-        ensureBuffer(1);
-        int index = buffer.get(0).size() < maxElementsPerBuffer ? 0 : 1;
-        buffer.get(index).add(value);
+        int index = bufferSize[0] < maxElementsPerBuffer ? 0 : 1;
+        ensureBuffer(index)[bufferSize[index]++] = value;
         totalElements++;
     }
 
+    /**
+     * Offers all the values of the array, same as offering them one at a time.
+     *
+     * @param values
+     */
+    public void offer(double[] values) {
+        offer(values, 0, values.length);
+    }
+
+    /**
+     * Offers the values in the given range of the array, same as offering them one
+     * at a time.
+     *
+     * @param values
+     * @param offset Index of the first value
+     * @param length Number of values
+     */
+    public void offer(double[] values, int offset, int length) {
+        int end = offset + length;
+        while (offset < end) {
+            if (totalElements > 0 && totalElements % (2 * maxElementsPerBuffer) == 0) {
+                collapseInput();
+            }
+
+            int index = bufferSize[0] < maxElementsPerBuffer ? 0 : 1;
+            int n = Math.min(end - offset, maxElementsPerBuffer - bufferSize[index]);
+            double[] dest = ensureBuffer(index);
+
+            for (int i = offset; i < offset + n; i++) {
+                double value = values[i];
+                if (totalElements == 0 || value < min) {
+                    min = value;
+                }
+                if (totalElements == 0 || max < value) {
+                    max = value;
+                }
+                dest[bufferSize[index]++] = value;
+                totalElements++;
+            }
+            offset += n;
+        }
+    }
+
     @Override
     public Double getQuantile(double q) throws QuantilesException {
         double quantileKey = 0.0;
@@ -80,7 +129,7 @@ public class MPQuantiles implements IQuantiles<Double> {
     }
     
     public void clear() {
-        buffer.clear();
+        Arrays.fill(bufferSize, 0);
         totalElements = 0;
     }
     
@@ -97,16 +146,18 @@ public class MPQuantiles implements IQuantiles<Double> {
     
     public List<Double> getQuantiles() {
         List<Double> quantiles = new ArrayList<Double>();
+        if (totalElements == 0) {
+            return quantiles;
+        }
         quantiles.add(min);
 
-        if (buffer.get(0) != null) {
-            Collections.sort(buffer.get(0));
-        }
-        if (buffer.get(1) != null) {
-            Collections.sort(buffer.get(1));
+        for (int level = 0; level < 2; level++) {
+            if (buffer[level] != null) {
+                Arrays.sort(buffer[level], 0, bufferSize[level]);
+            }
         }
 
-        int[] index = new int[buffer.size()];
+        int[] index = new int[buffer.length];
         long S = 0;
         for (int i = 1; i <= numQuantiles - 2; i++) {
             long targetS = (long) Math.ceil(i * (totalElements / (numQuantiles - 1.0)));
@@ -114,10 +165,10 @@ public class MPQuantiles implements IQuantiles<Double> {
             while (true) {
                 double smallest = max;
                 int minBufferId = -1;
-                for (int j = 0; j < buffer.size(); j++) {
-                    if (buffer.get(j) != null && index[j] < buffer.get(j).size()) {
-                        if (!(smallest < buffer.get(j).get(index[j]))) {
-                            smallest = buffer.get(j).get(index[j]);
+                for (int j = 0; j < buffer.length; j++) {
+                    if (index[j] < bufferSize[j]) {
+                        if (!(smallest < buffer[j][index[j]])) {
+                            smallest = buffer[j][index[j]];
                             minBufferId = j;
                         }
                     }
@@ -147,48 +198,73 @@ public class MPQuantiles implements IQuantiles<Double> {
         return (int) (MAX_TOT_ELEMS / (0x1L << (b - 1)));
     }
   
-    private void ensureBuffer(int level) {
-        while (buffer.size() < level + 1) {
-            buffer.add(null);
+    private double[] ensureBuffer(int level) {
+        if (buffer.length < level + 1) {
+            buffer = Arrays.copyOf(buffer, level + 1);
+            bufferSize = Arrays.copyOf(bufferSize, level + 1);
         }
-        if (buffer.get(level) == null) {
-            buffer.set(level, new ArrayList<Double>());
+        if (buffer[level] == null) {
+            buffer[level] = new double[maxElementsPerBuffer];
         }
+        return buffer[level];
     }
-  
-    private void collapse(List<Double> a, List<Double> b, List<Double> out) {
-        int indexA = 0, indexB = 0, count = 0;
-        Double smaller = null;
+
+    /**
+     * Merges two sorted full buffers and keeps every other element of the result.
+     */
+    private void collapse(double[] a, double[] b, double[] out) {
+        int indexA = 0, indexB = 0, count = 0, indexOut = 0;
+        double smaller;
         while (indexA < maxElementsPerBuffer || indexB < maxElementsPerBuffer) {
             if (indexA >= maxElementsPerBuffer || 
-                    (indexB < maxElementsPerBuffer && a.get(indexA) >= b.get(indexB))) {
-                smaller = b.get(indexB++);
+                    (indexB < maxElementsPerBuffer && a[indexA] >= b[indexB])) {
+                smaller = b[indexB++];
             } else {
-                smaller = a.get(indexA++);
+                smaller = a[indexA++];
             }
 
             if (count++ % 2 == 0) {
-                out.add(smaller);
+                out[indexOut++] = smaller;
             }
         }
-        a.clear();
-        b.clear();
     }
-  
-    private void recursiveCollapse(List<Double> buf, int level) {
-        ensureBuffer(level + 1);
-
-        List<Double> merged;
-        if (buffer.get(level + 1).isEmpty()) {
-            merged = buffer.get(level + 1);
-        } else {
-            merged = new ArrayList<Double>(maxElementsPerBuffer);
-        }
 
-        collapse(buffer.get(level), buf, merged);
-        if (buffer.get(level + 1) != merged) {
-            recursiveCollapse(merged, level + 1);
+    /**
+     * Collapses the two full input buffers, carrying the result up through the
+     * full levels until an empty level is found. The carried buffer alternates
+     * between two scratch arrays, so nothing is allocated after the first time a
+     * level is reached.
+     */
+    private void collapseInput() {
+        Arrays.sort(buffer[0], 0, maxElementsPerBuffer);
+        Arrays.sort(buffer[1], 0, maxElementsPerBuffer);
+
+        double[] carry = buffer[0];
+        int level = 1;
+        int turn = 0;
+        while (true) {
+            double[] out;
+            boolean empty = level + 1 >= bufferSize.length || bufferSize[level + 1] == 0;
+            if (empty) {
+                out = ensureBuffer(level + 1);
+            } else {
+                if (scratch[turn] == null) {
+                    scratch[turn] = new double[maxElementsPerBuffer];
+                }
+                out = scratch[turn];
+                turn ^= 1;
+            }
+
+            collapse(buffer[level], carry, out);
+            bufferSize[level] = 0;
+            if (empty) {
+                bufferSize[level + 1] = maxElementsPerBuffer;
+                break;
+            }
+            carry = out;
+            level++;
         }
+        bufferSize[0] = 0;
     }
     
     private static double round(double d) {
@@ -0,0 +1,530 @@
+package org.streaminer.stream.quantile;
+
+import org.streaminer.util.Preconditions;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Merging variant of the t-digest.
+ * <p/>
+ * Incoming points are appended to a primitive buffer. When the buffer is full, or a
+ * query is made, the buffer is sorted and merged in a single pass with the current
+ * centroids, which are kept sorted in flat <code>mean</code> and <code>weight</code>
+ * arrays. A centroid absorbs its right neighbour while the result stays within the
+ * size allowed by the arcsine scale function, so the number of centroids is bounded
+ * by about 2 * compression and no objects are allocated after construction.
+ * <p/>
+ * The compact encoding is the same as {@link TDigest#asSmallBytes(ByteBuffer)}, so
+ * both classes can read each other's serialized digests.
+ * <p/>
+ * Reference:
+ *   Dunning, Ted, and Otmar Ertl. "Computing extremely accurate quantiles using
+ *   t-digests." arXiv preprint arXiv:1902.04023 (2019).
+ *
+ * @author Maycon Viana Bordin <mayconbordin@gmail.com>
+ */
+public class MergingTDigest implements IQuantiles<Double> {
+    private final double compression;
+
+    // sorted centroids
+    private double[] mean;
+    private double[] weight;
+    private int centroids = 0;
+    private double totalWeight = 0;
+
+    // scratch arrays for the merge, swapped with the centroids after each merge
+    private double[] mergeMean;
+    private double[] mergeWeight;
+
+    // unsorted incoming points
+    private final double[] bufferMean;
+    private final double[] bufferWeight;
+    private int buffered = 0;
+    private double bufferedWeight = 0;
+    private boolean unitWeights = true;
+
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    /**
+     * @param compression How should accuracy be traded for size? The number of centroids
+     *                    is at most about 2 * compression.
+     */
+    public MergingTDigest(double compression) {
+        this(compression, -1);
+    }
+
+    /**
+     * @param compression How should accuracy be traded for size?
+     * @param bufferSize  Number of points buffered before being merged, a negative value
+     *                    selects a default of five times the number of centroids
+     */
+    public MergingTDigest(double compression, int bufferSize) {
+        Preconditions.checkArgument(compression >= 1, "Compression must be at least 1");
+
+        this.compression = compression;
+
+        int capacity = 2 * (int) Math.ceil(compression) + 10;
+        if (bufferSize < 0) {
+            bufferSize = 5 * capacity;
+        }
+
+        mean = new double[capacity];
+        weight = new double[capacity];
+        mergeMean = new double[capacity];
+        mergeWeight = new double[capacity];
+        bufferMean = new double[Math.max(bufferSize, 1)];
+        bufferWeight = new double[Math.max(bufferSize, 1)];
+    }
+
+    /**
+     * Adds a sample to a histogram.
+     *
+     * @param x The value to add.
+     */
+    public void add(double x) {
+        Preconditions.checkArgument(!Double.isNaN(x), "Cannot add NaN");
+        if (buffered == bufferMean.length) {
+            mergeBuffer();
+        }
+
+        bufferMean[buffered] = x;
+        bufferWeight[buffered] = 1;
+        buffered++;
+        bufferedWeight++;
+        updateMinMax(x);
+    }
+
+    /**
+     * Adds a sample to a histogram.
+     *
+     * @param x The value to add.
+     * @param w The weight of this point.
+     */
+    public void add(double x, int w) {
+        Preconditions.checkArgument(!Double.isNaN(x), "Cannot add NaN");
+        Preconditions.checkArgument(w > 0, "Weight must be positive");
+        if (buffered == bufferMean.length) {
+            mergeBuffer();
+        }
+
+        bufferMean[buffered] = x;
+        bufferWeight[buffered] = w;
+        buffered++;
+        bufferedWeight += w;
+        unitWeights &= (w == 1);
+        updateMinMax(x);
+    }
+
+    /**
+     * Adds all samples of an array.
+     *
+     * @param xs The values to add.
+     */
+    public void add(double[] xs) {
+        add(xs, 0, xs.length);
+    }
+
+    /**
+     * Adds a range of samples of an array.
+     *
+     * @param xs     The values to add.
+     * @param offset Index of the first value
+     * @param length Number of values
+     */
+    public void add(double[] xs, int offset, int length) {
+        int end = offset + length;
+        while (offset < end) {
+            if (buffered == bufferMean.length) {
+                mergeBuffer();
+            }
+
+            int n = Math.min(end - offset, bufferMean.length - buffered);
+            for (int i = 0; i < n; i++) {
+                double x = xs[offset + i];
+                Preconditions.checkArgument(!Double.isNaN(x), "Cannot add NaN");
+                bufferMean[buffered + i] = x;
+                bufferWeight[buffered + i] = 1;
+                updateMinMax(x);
+            }
+
+            buffered += n;
+            bufferedWeight += n;
+            offset += n;
+        }
+    }
+
+    /**
+     * Adds all the centroids of another digest to this one.
+     *
+     * @param other The digest to be merged, left unchanged
+     */
+    public void add(MergingTDigest other) {
+        other.mergeBuffer();
+        for (int i = 0; i < other.centroids; i++) {
+            if (buffered == bufferMean.length) {
+                mergeBuffer();
+            }
+            bufferMean[buffered] = other.mean[i];
+            bufferWeight[buffered] = other.weight[i];
+            buffered++;
+            bufferedWeight += other.weight[i];
+            unitWeights &= (other.weight[i] == 1);
+        }
+
+        if (other.totalWeight > 0) {
+            updateMinMax(other.min);
+            updateMinMax(other.max);
+        }
+    }
+
+    /**
+     * Merges several digests into a new one.
+     *
+     * @param compression The compression of the resulting digest
+     * @param subData     The digests to be merged
+     * @return The merged digest
+     */
+    public static MergingTDigest merge(double compression, Iterable<MergingTDigest> subData) {
+        Iterator<MergingTDigest> it = subData.iterator();
+        Preconditions.checkArgument(it.hasNext(), "Can't merge 0 digests");
+
+        MergingTDigest r = new MergingTDigest(compression);
+        while (it.hasNext()) {
+            r.add(it.next());
+        }
+        r.compress();
+        return r;
+    }
+
+    /**
+     * Merges the buffered points into the centroids.
+     */
+    public void compress() {
+        mergeBuffer();
+    }
+
+    /**
+     * Returns the number of samples represented in this histogram.
+     *
+     * @return the number of samples that have been added.
+     */
+    public long size() {
+        return (long) (totalWeight + bufferedWeight);
+    }
+
+    /**
+     * @return the number of centroids, after merging the buffered points
+     */
+    public int centroidCount() {
+        mergeBuffer();
+        return centroids;
+    }
+
+    public double compression() {
+        return compression;
+    }
+
+    /**
+     * @param x the value at which the CDF should be evaluated
+     * @return the approximate fraction of all samples that were less than or equal to x.
+     */
+    public double cdf(double x) {
+        mergeBuffer();
+
+        if (centroids == 0) {
+            return Double.NaN;
+        } else if (x < min) {
+            return 0;
+        } else if (x >= max) {
+            return 1;
+        }
+
+        // left tail, between the minimum and the center of the first centroid
+        if (x < mean[0]) {
+            return weight[0] / 2 * (x - min) / (mean[0] - min) / totalWeight;
+        }
+
+        double weightSoFar = weight[0] / 2;
+        for (int i = 0; i < centroids - 1; i++) {
+            double dw = (weight[i] + weight[i + 1]) / 2;
+            if (x < mean[i + 1]) {
+                return (weightSoFar + dw * (x - mean[i]) / (mean[i + 1] - mean[i])) / totalWeight;
+            }
+            weightSoFar += dw;
+        }
+
+        // right tail, between the center of the last centroid and the maximum
+        int last = centroids - 1;
+        return (weightSoFar + weight[last] / 2 * (x - mean[last]) / (max - mean[last])) / totalWeight;
+    }
+
+    /**
+     * @param q The quantile desired.  Can be in the range [0,1].
+     * @return The minimum value x such that we think that the proportion of samples is <= x is q.
+     */
+    public double quantile(double q) {
+        Preconditions.checkArgument(q >= 0 && q <= 1, "q should be in [0,1], got %s", q);
+        mergeBuffer();
+
+        if (centroids == 0) {
+            return Double.NaN;
+        } else if (centroids == 1) {
+            return mean[0];
+        }
+
+        double index = q * totalWeight;
+
+        // left tail, between the minimum and the center of the first centroid
+        if (index < weight[0] / 2) {
+            return min + (mean[0] - min) * index / (weight[0] / 2);
+        }
+
+        double weightSoFar = weight[0] / 2;
+        for (int i = 0; i < centroids - 1; i++) {
+            double dw = (weight[i] + weight[i + 1]) / 2;
+            if (weightSoFar + dw > index) {
+                double z = (index - weightSoFar) / dw;
+                return mean[i] + z * (mean[i + 1] - mean[i]);
+            }
+            weightSoFar += dw;
+        }
+
+        // right tail, between the center of the last centroid and the maximum
+        int last = centroids - 1;
+        double z = Math.min(1, (index - weightSoFar) / (weight[last] / 2));
+        return mean[last] + z * (max - mean[last]);
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    @Override
+    public void offer(Double value) {
+        add(value);
+    }
+
+    @Override
+    public Double getQuantile(double q) throws QuantilesException {
+        return quantile(q);
+    }
+
+    /**
+     * Returns an upper bound on the number bytes that will be required to represent this histogram.
+     */
+    public int byteSize() {
+        mergeBuffer();
+        return 4 + 8 + 4 + centroids * 12;
+    }
+
+    /**
+     * Returns an upper bound on the number of bytes that will be required to represent this histogram in
+     * the tighter representation.
+     */
+    public int smallByteSize() {
+        mergeBuffer();
+        return 4 + 8 + 4 + centroids * 9;
+    }
+
+    /**
+     * Outputs a histogram with the verbose encoding of {@link TDigest#asBytes(ByteBuffer)}.
+     */
+    public void asBytes(ByteBuffer buf) {
+        mergeBuffer();
+        buf.putInt(TDigest.VERBOSE_ENCODING);
+        buf.putDouble(compression);
+        buf.putInt(centroids);
+        for (int i = 0; i < centroids; i++) {
+            buf.putDouble(mean[i]);
+        }
+        for (int i = 0; i < centroids; i++) {
+            buf.putInt((int) weight[i]);
+        }
+    }
+
+    /**
+     * Outputs a histogram with the compact encoding of {@link TDigest#asSmallBytes(ByteBuffer)}.
+     */
+    public void asSmallBytes(ByteBuffer buf) {
+        mergeBuffer();
+        buf.putInt(TDigest.SMALL_ENCODING);
+        buf.putDouble(compression);
+        buf.putInt(centroids);
+
+        double x = 0;
+        for (int i = 0; i < centroids; i++) {
+            buf.putFloat((float) (mean[i] - x));
+            x = mean[i];
+        }
+        for (int i = 0; i < centroids; i++) {
+            TDigest.encode(buf, (int) weight[i]);
+        }
+    }
+
+    /**
+     * Reads a histogram written by this class or by {@link TDigest}.
+     *
+     * @return The new histogram structure
+     */
+    public static MergingTDigest fromBytes(ByteBuffer buf) {
+        int encoding = buf.getInt();
+        if (encoding != TDigest.VERBOSE_ENCODING && encoding != TDigest.SMALL_ENCODING) {
+            throw new IllegalStateException("Invalid format for serialized histogram");
+        }
+
+        MergingTDigest r = new MergingTDigest(buf.getDouble());
+        int n = buf.getInt();
+        double[] means = new double[n];
+
+        if (encoding == TDigest.VERBOSE_ENCODING) {
+            for (int i = 0; i < n; i++) {
+                means[i] = buf.getDouble();
+            }
+            for (int i = 0; i < n; i++) {
+                r.add(means[i], buf.getInt());
+            }
+        } else {
+            double x = 0;
+            for (int i = 0; i < n; i++) {
+                x += buf.getFloat();
+                means[i] = x;
+            }
+            for (int i = 0; i < n; i++) {
+                r.add(means[i], TDigest.decode(buf));
+            }
+        }
+
+        r.compress();
+        return r;
+    }
+
+    private void updateMinMax(double x) {
+        if (x < min) min = x;
+        if (x > max) max = x;
+    }
+
+    /**
+     * Sorts the buffer and merges it with the centroids in a single pass.
+     */
+    private void mergeBuffer() {
+        if (buffered == 0) {
+            return;
+        }
+
+        if (unitWeights) {
+            Arrays.sort(bufferMean, 0, buffered);
+        } else {
+            sort(bufferMean, bufferWeight, 0, buffered - 1);
+        }
+
+        double total = totalWeight + bufferedWeight;
+        double[] outMean = mergeMean;
+        double[] outWeight = mergeWeight;
+
+        int i = 0, j = 0, last = -1;
+        double weightSoFar = 0;
+        double weightLimit = 0;
+
+        while (i < centroids || j < buffered) {
+            double m, w;
+            if (j >= buffered || (i < centroids && mean[i] <= bufferMean[j])) {
+                m = mean[i];
+                w = weight[i];
+                i++;
+            } else {
+                m = bufferMean[j];
+                w = unitWeights ? 1 : bufferWeight[j];
+                j++;
+            }
+
+            // the last condition is only a guard, the scale function keeps the
+            // number of centroids below the capacity
+            if (last >= 0 && (weightSoFar + outWeight[last] + w <= weightLimit || last == outMean.length - 1)) {
+                outWeight[last] += w;
+                outMean[last] += w * (m - outMean[last]) / outWeight[last];
+            } else {
+                if (last >= 0) {
+                    weightSoFar += outWeight[last];
+                }
+                weightLimit = total * integratedQ(integratedLocation(weightSoFar / total) + 1);
+                last++;
+                outMean[last] = m;
+                outWeight[last] = w;
+            }
+        }
+
+        mergeMean = mean;
+        mergeWeight = weight;
+        mean = outMean;
+        weight = outWeight;
+
+        centroids = last + 1;
+        totalWeight = total;
+        buffered = 0;
+        bufferedWeight = 0;
+        unitWeights = true;
+    }
+
+    /**
+     * Scale function k1: maps a quantile to the index of the centroid that covers it.
+     */
+    private double integratedLocation(double q) {
+        return compression * (Math.asin(2 * q - 1) + Math.PI / 2) / Math.PI;
+    }
+
+    /**
+     * Inverse of {@link #integratedLocation(double)}.
+     */
+    private double integratedQ(double k) {
+        return (Math.sin(Math.min(k, compression) * Math.PI / compression - Math.PI / 2) + 1) / 2;
+    }
+
+    /**
+     * Sorts the keys and applies the same permutation to the values.
+     */
+    private static void sort(double[] keys, double[] values, int left, int right) {
+        while (right - left > 16) {
+            double pivot = keys[(left + right) >>> 1];
+            int i = left, j = right;
+            while (i <= j) {
+                while (keys[i] < pivot) i++;
+                while (keys[j] > pivot) j--;
+                if (i <= j) {
+                    swap(keys, values, i++, j--);
+                }
+            }
+
+            // recurse on the smaller side to bound the stack depth
+            if (j - left < right - i) {
+                sort(keys, values, left, j);
+                left = i;
+            } else {
+                sort(keys, values, i, right);
+                right = j;
+            }
+        }
+
+        for (int i = left + 1; i <= right; i++) {
+            for (int j = i; j > left && keys[j - 1] > keys[j]; j--) {
+                swap(keys, values, j, j - 1);
+            }
+        }
+    }
+
+    private static void swap(double[] keys, double[] values, int a, int b) {
+        double k = keys[a];
+        keys[a] = keys[b];
+        keys[b] = k;
+
+        double v = values[a];
+        values[a] = values[b];
+        values[b] = v;
+    }
+}
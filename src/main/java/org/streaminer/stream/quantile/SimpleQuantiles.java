@@ -1,9 +1,6 @@
 package org.streaminer.stream.quantile;
 
-import java.util.Collections;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.concurrent.CopyOnWriteArrayList;
+import org.streaminer.util.ArrayUtils;
 
 /**
  * 
@@ -18,14 +15,21 @@ import java.util.concurrent.CopyOnWriteArrayList;
  * </ul>
  * <b>You can use this class to estimate quantiles, as long as the distribution of observations doesn't have a 
  * heavy tail.</b>
+ * <p/>
+ * The observations are kept in a bounded reservoir of <code>double</code> rings that hold the most recent
+ * values. Offers may come from any thread: each thread writes to the ring selected by its id, so threads
+ * rarely share a lock, and a query gathers the rings and selects the rank of the quantile instead of sorting
+ * the whole sample.
  * 
  * @author Markus Kokott
  *
  */
 public class SimpleQuantiles implements IQuantiles<Double> {
-    private boolean initialPhase;
-    private Integer bufferSize;
-    private CopyOnWriteArrayList<Double> buffer;
+    private static final int MAX_DEFAULT_STRIPES = 16;
+
+    private final int bufferSize;
+    private final Ring[] rings;
+    private final int stripeMask;
     
     /**
      * This value specifies the error bound.
@@ -33,63 +37,104 @@ public class SimpleQuantiles implements IQuantiles<Double> {
     private double epsilon;
     
     /**
-     * Standard constructor...
+     * Standard constructor, with one ring per processor, up to 16 rings.
      * 
      * @param epsilon This quantile estimator determines a phi-quantile that differs at most epsilon*N positions
      * from the real quantile 
      */
     public SimpleQuantiles (double epsilon) {
+        this(epsilon, Math.min(MAX_DEFAULT_STRIPES, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * @param epsilon This quantile estimator determines a phi-quantile that differs at most epsilon*N positions
+     * from the real quantile
+     * @param stripes Number of rings of the reservoir, rounded up to a power of two. Each ring holds the most
+     * recent values of the threads that write to it.
+     */
+    public SimpleQuantiles (double epsilon, int stripes) {
         if (epsilon <= 0 || epsilon >= 1) {
             throw new RuntimeException("An appropriate epsilon value must lay between 0 and 1.");
         }
+        if (stripes < 1) {
+            throw new IllegalArgumentException("There must be at least one stripe");
+        }
+        int size = Integer.highestOneBit(stripes);
+        if (size < stripes) {
+            size <<= 1;
+        }
 
         this.epsilon = epsilon;
         this.bufferSize = this.computeBufferSize();
-        this.initialPhase = true;
-        this.buffer = new CopyOnWriteArrayList<Double>();
+        this.stripeMask = size - 1;
+        this.rings = new Ring[size];
+        for (int i = 0; i < size; i++) {
+            this.rings[i] = new Ring(bufferSize);
+        }
     }
         
     @Override
     public void offer(Double value) {
-        this.buffer.add(value);
-		
-        if (this.buffer.size() >= this.bufferSize) {
-            this.initialPhase = false;
-            this.buffer.remove(0);
-        }
+        offer(value.doubleValue());
+    }
+
+    /**
+     * Adds a value to the reservoir, replacing the oldest value of the ring once it is full. 
+     * Safe to be called from any thread.
+     * 
+     * @param value
+     */
+    public void offer(double value) {
+        long id = Thread.currentThread().getId();
+        rings[(int) (id ^ (id >>> 32)) & stripeMask].add(value);
     }
 
+    /**
+     * @param q The quantile, between 0 and 1
+     * @return The estimated quantile, or {@link Double#NaN} if no value was offered
+     * @throws QuantilesException if q isn't between 0 and 1
+     */
     @Override
     public Double getQuantile(double q) throws QuantilesException {
-        if (this.buffer.size() != this.bufferSize) {
-            if (this.bufferSize == 0) {
-                    return Double.NaN;
-            }
-            return this.buffer.get((int) Math.floor(q*this.buffer.size()));
+        if (q < 0 || q > 1) {
+            throw new QuantilesException("Quantile must be between 0 and 1");
         }
-        Integer lowerBound = this.computeLowerBound(q);
-        Integer upperBound = this.computeUpperBound(q);
-
-        LinkedList<Double> copyOfBuffer = new LinkedList<Double>();
-        Iterator<Double> tempBuffer = this.buffer.iterator();
 
-        while (tempBuffer.hasNext()) {
-            copyOfBuffer.add(tempBuffer.next());
+        double[] sample = new double[rings.length * bufferSize];
+        int n = 0;
+        for (Ring ring : rings) {
+            n += ring.copyTo(sample, n);
+        }
+        if (n == 0) {
+            return Double.NaN;
         }
 
-        Collections.sort(copyOfBuffer);
-        return copyOfBuffer.get((int) Math.floor(lowerBound + upperBound) / 2);
+        int rank = (this.computeLowerBound(q, n) + this.computeUpperBound(q, n)) / 2;
+        rank = Math.min(Math.max(rank, 1), n);
+        return ArrayUtils.select(rank - 1, n, sample);
     }
     
     /**
      * Before a quantile can be computed, the first buffer has to be filled. During that initial phase
-     * every call of {@link #getQuantile(double)} will return {@link Double#NaN}. You can call this method 
-     * to check whether the initial phase has ended or not.
+     * every call of {@link #getQuantile(double)} is only an estimate over the few values seen so far.
+     * You can call this method to check whether the initial phase has ended or not.
      * 
-     * @return <code>true</code> if no quantiles can be computed at the moment.
+     * @return <code>true</code> if no ring of the reservoir is full yet
      */
     public boolean isInInitialPhase(){
-        return this.initialPhase;
+        for (Ring ring : rings) {
+            if (ring.full) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The number of values a ring of the reservoir can hold
+     */
+    public int getBufferSize() {
+        return bufferSize;
     }
 
     /**
@@ -104,45 +149,65 @@ public class SimpleQuantiles implements IQuantiles<Double> {
     }
 
     /**
-     * Because the quantile lays in an interval there have to be bounds on the ranks. This method computes the lower one.
-     * 
-     * @param phi The specific quantile.
-     * @return A lower bound for the rank of the wanted quantile.
+     * @return The quantile of the standard normal distribution that bounds the error of the rank
      */
-    private Integer computeLowerBound(double phi){
+    private double gaussianPQuantile() {
         double p = 1 - (1-this.epsilon) / 2;
         if (epsilon < 0.5){
             p = 1 - this.epsilon / 2;
         }
         double t = Math.sqrt(-2*Math.log(1-p));
-        double gaussianPQuantile = t - (2.515517 + 0.802853*t + 0.010328*Math.pow(t, 2)) / (1 + 1.432788*t + 0.189269*Math.pow(t, 2) + 0.001308*Math.pow(t, 3));
-        Double bound = 1d;
-        bound = Math.ceil(this.bufferSize * phi - gaussianPQuantile * Math.sqrt(this.bufferSize * phi * (1-phi)));
-        if (bound <= 0) {
-            bound = 1d;
-        }
-        return bound.intValue();
+        return t - (2.515517 + 0.802853*t + 0.010328*Math.pow(t, 2)) / (1 + 1.432788*t + 0.189269*Math.pow(t, 2) + 0.001308*Math.pow(t, 3));
+    }
+
+    /**
+     * Because the quantile lays in an interval there have to be bounds on the ranks. This method computes the lower one.
+     * 
+     * @param phi The specific quantile.
+     * @param n The size of the sample
+     * @return A lower bound for the rank of the wanted quantile.
+     */
+    private int computeLowerBound(double phi, int n){
+        double bound = Math.ceil(n * phi - gaussianPQuantile() * Math.sqrt(n * phi * (1-phi)));
+        return (bound <= 0) ? 1 : (int) bound;
     }
 
     /**
      * Because the quantile lays in an interval there have to be bounds on the rank. This method computes the upper one.
      * 
      * @param phi The specific quantile.
+     * @param n The size of the sample
      * @return An upper bound for the rank of the wanted quantile.
      */
-    private Integer computeUpperBound(double phi){
-        double p = 1 - (1-this.epsilon) / 2;
-        if (epsilon < 0.5) {
-            p = 1 - this.epsilon / 2;
+    private int computeUpperBound(double phi, int n){
+        double bound = Math.ceil(n * phi + gaussianPQuantile() * Math.sqrt(n * phi * (1-phi)));
+        return (bound >= n) ? n : (int) bound;
+    }
+
+    /**
+     * Fixed-size ring of the most recent values offered by the threads of a stripe.
+     */
+    private static final class Ring {
+        private final double[] values;
+        private int position = 0;
+        private volatile boolean full = false;
+
+        Ring(int capacity) {
+            values = new double[capacity];
         }
-        double t = Math.sqrt(-2*Math.log(1-p));
-        double gaussianPQuantile = t - (2.515517 + 0.802853*t + 0.010328*Math.pow(t, 2)) / (1 + 1.432788*t + 0.189269*Math.pow(t, 2) + 0.001308*Math.pow(t, 3));
-        Double bound = 1d;
-        bound = Math.ceil(this.bufferSize * phi + gaussianPQuantile * Math.sqrt(this.bufferSize * phi * (1-phi)));
-        if (bound >= this.bufferSize) {
-            bound = 1d;
+
+        synchronized void add(double value) {
+            values[position++] = value;
+            if (position == values.length) {
+                position = 0;
+                full = true;
+            }
+        }
+
+        synchronized int copyTo(double[] dest, int offset) {
+            int size = full ? values.length : position;
+            System.arraycopy(values, 0, dest, offset, size);
+            return size;
         }
-        return bound.intValue();
     }
-    
 }
@@ -0,0 +1,351 @@
+package org.streaminer.stream.quantile.kll;
+
+import org.streaminer.util.Preconditions;
+import org.streaminer.util.Varint;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Structure shared by the KLL sketches of each item type.
+ * <p/>
+ * The sketch is a stack of compactors, one per level, each one holding items of
+ * weight 2^level in a primitive array. Level 0 receives the stream; when the sketch
+ * is full, the lowest level at its capacity is sorted and every other item of it,
+ * starting at a random offset, is promoted to the next level. Capacities decrease
+ * geometrically from the top level down, so the sketch retains about 3k items and
+ * the rank error is O(1/k) with high probability, whatever the order of merges.
+ * <p/>
+ * The subclasses keep the items and implement the compaction for their type, this
+ * class keeps the level sizes, the random bits and the merge logic.
+ * <p/>
+ * Reference:
+ *   Karnin, Zohar, Kevin Lang, and Edo Liberty. "Optimal quantile approximation in
+ *   streams." 57th Annual Symposium on Foundations of Computer Science (FOCS 2016).
+ *
+ * @param <S> The concrete sketch type
+ * @author Maycon Viana Bordin <mayconbordin@gmail.com>
+ */
+public abstract class AbstractKLLSketch<S extends AbstractKLLSketch<S>> {
+    public static final int DEFAULT_K = 200;
+    public static final int DEFAULT_M = 8;
+
+    private static final byte VERSION = 1;
+    private static final double CAPACITY_RATIO = 2.0 / 3.0;
+    private static final int MERGE_THRESHOLD = 8;
+
+    protected final int k;
+    protected final int m;
+
+    /**
+     * Number of items offered to the sketch
+     */
+    protected long n = 0;
+
+    /**
+     * Number of items held by each level
+     */
+    protected int[] sizes;
+    protected int numLevels;
+    protected int retained = 0;
+    private int maxRetained;
+
+    /**
+     * State of the xorshift generator used to pick the compaction offsets
+     */
+    private long seed;
+
+    /**
+     * @param k    Controls the accuracy, the rank error is about 1.65 / k
+     * @param m    Minimum capacity of a level
+     * @param seed Seed of the random offsets, sketches built with the same seed over
+     *             the same stream are identical
+     */
+    protected AbstractKLLSketch(int k, int m, long seed) {
+        Preconditions.checkArgument(k >= m && k < 65536, "k must be between m and 65535");
+        Preconditions.checkArgument(m >= 2 && m < 256, "m must be between 2 and 255");
+
+        this.k = k;
+        this.m = m;
+        this.seed = (seed == 0) ? 0x9E3779B97F4A7C15L : seed;
+        this.numLevels = 1;
+        this.sizes = new int[1];
+        this.maxRetained = computeMaxRetained();
+    }
+
+    /**
+     * Sorts a level and promotes every other item, from the given offset, to the
+     * level above. With an odd number of items the smallest one is kept in the level.
+     * Must update the sizes of both levels.
+     *
+     * @param level  The level to be compacted
+     * @param offset Zero or one
+     */
+    protected abstract void compact(int level, int offset);
+
+    /**
+     * Grows the arrays of items so that they hold <code>numLevels</code> levels.
+     */
+    protected abstract void growLevels(int numLevels);
+
+    /**
+     * Appends the items of a level of another sketch, of the same type, to the same
+     * level of this sketch, and updates the minimum and maximum.
+     */
+    protected abstract void appendLevel(S other, int level);
+
+    /**
+     * @return A new empty sketch with the same parameters
+     */
+    protected abstract S newInstance(long seed);
+
+    /**
+     * Writes the minimum, maximum and retained items of the sketch.
+     */
+    protected abstract void writeItems(DataOutput out) throws IOException;
+
+    /**
+     * Reads what was written by {@link #writeItems(DataOutput)}, the sizes of the
+     * levels have already been read.
+     */
+    protected abstract void readItems(DataInput in) throws IOException;
+
+    /**
+     * Must be called after an item is added to level 0.
+     */
+    protected final void inserted() {
+        n++;
+        retained++;
+        if (retained >= maxRetained) {
+            compress();
+        }
+    }
+
+    /**
+     * Compacts the lowest full levels until the sketch fits its capacity again.
+     */
+    protected final void compress() {
+        while (retained >= maxRetained) {
+            int level = 0;
+            while (sizes[level] < capacity(level)) {
+                level++;
+            }
+
+            if (level == numLevels - 1) {
+                addLevel();
+            }
+
+            int before = sizes[level] + sizes[level + 1];
+            compact(level, nextBit());
+            retained -= before - sizes[level] - sizes[level + 1];
+        }
+    }
+
+    /**
+     * Merges another sketch into this one, the other sketch is left unchanged.
+     *
+     * @param other A sketch with the same k and m
+     */
+    public void merge(S other) {
+        Preconditions.checkArgument(other.k == k && other.m == m, "Cannot merge sketches with different parameters");
+
+        if (other.n == 0) {
+            return;
+        }
+        while (numLevels < other.numLevels) {
+            addLevel();
+        }
+        for (int level = 0; level < other.numLevels; level++) {
+            if (other.sizes[level] > 0) {
+                appendLevel(other, level);
+                retained += other.sizes[level];
+            }
+        }
+        n += other.n;
+        compress();
+    }
+
+    /**
+     * Merges many sketches in a tree, merging disjoint groups of sketches in parallel.
+     * The sketches are left unchanged.
+     *
+     * @param sketches The sketches to be merged, they must have the same k and m
+     * @param pool     The pool in which the merges run
+     * @return A new sketch that summarizes the streams of all sketches
+     */
+    public static <S extends AbstractKLLSketch<S>> S merge(List<S> sketches, ForkJoinPool pool) {
+        Preconditions.checkArgument(!sketches.isEmpty(), "There must be at least one sketch to merge");
+        return pool.invoke(new MergeTask<S>(sketches, 0, sketches.size()));
+    }
+
+    /**
+     * Merges many sketches in parallel, using a pool with one thread per processor.
+     *
+     * @see #merge(List, ForkJoinPool)
+     */
+    public static <S extends AbstractKLLSketch<S>> S merge(List<S> sketches) {
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            return merge(sketches, pool);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * @return The number of items offered to the sketch
+     */
+    public long getN() {
+        return n;
+    }
+
+    public boolean isEmpty() {
+        return n == 0;
+    }
+
+    /**
+     * @return The number of items retained by the sketch
+     */
+    public int getNumRetained() {
+        return retained;
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    /**
+     * Serializes the sketch. The retained items of each level are sorted first,
+     * which does not change the sketch.
+     *
+     * @return The serialized sketch
+     * @throws IOException
+     */
+    public byte[] getBytes() throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(baos);
+
+        out.writeByte(VERSION);
+        out.writeShort(k);
+        out.writeByte(m);
+        out.writeLong(seed);
+        Varint.writeUnsignedVarLong(n, out);
+        out.writeByte(numLevels);
+        for (int level = 0; level < numLevels; level++) {
+            Varint.writeUnsignedVarInt(sizes[level], out);
+        }
+        if (n > 0) {
+            writeItems(out);
+        }
+
+        out.flush();
+        return baos.toByteArray();
+    }
+
+    /**
+     * Reads the header written by {@link #getBytes()} and creates the sketch
+     * through the given factory.
+     */
+    protected static <S extends AbstractKLLSketch<S>> S readSketch(DataInput in, Factory<S> factory) throws IOException {
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported KLL sketch version: " + version);
+        }
+
+        int k = in.readUnsignedShort();
+        int m = in.readUnsignedByte();
+        S sketch = factory.create(k, m, in.readLong());
+        AbstractKLLSketch<S> base = sketch;
+
+        base.n = Varint.readUnsignedVarLong(in);
+        base.numLevels = in.readUnsignedByte();
+        base.sizes = new int[base.numLevels];
+        base.retained = 0;
+        for (int level = 0; level < base.numLevels; level++) {
+            base.sizes[level] = Varint.readUnsignedVarInt(in);
+            base.retained += base.sizes[level];
+        }
+        base.maxRetained = base.computeMaxRetained();
+        base.growLevels(base.numLevels);
+
+        if (base.n > 0) {
+            base.readItems(in);
+        }
+        return sketch;
+    }
+
+    protected interface Factory<S> {
+        S create(int k, int m, long seed);
+    }
+
+    /**
+     * @return The number of items that a level can hold before being compacted
+     */
+    protected final int capacity(int level) {
+        int depth = numLevels - level - 1;
+        return Math.max(m, (int) Math.ceil(k * Math.pow(CAPACITY_RATIO, depth)));
+    }
+
+    private int computeMaxRetained() {
+        int total = 0;
+        for (int level = 0; level < numLevels; level++) {
+            total += capacity(level);
+        }
+        return total;
+    }
+
+    private void addLevel() {
+        numLevels++;
+        int[] newSizes = new int[numLevels];
+        System.arraycopy(sizes, 0, newSizes, 0, sizes.length);
+        sizes = newSizes;
+        growLevels(numLevels);
+        maxRetained = computeMaxRetained();
+    }
+
+    private int nextBit() {
+        seed ^= seed << 13;
+        seed ^= seed >>> 7;
+        seed ^= seed << 17;
+        return (int) (seed >>> 63);
+    }
+
+    @SuppressWarnings("serial")
+    private static class MergeTask<S extends AbstractKLLSketch<S>> extends RecursiveTask<S> {
+        private final List<S> sketches;
+        private final int from;
+        private final int to;
+
+        MergeTask(List<S> sketches, int from, int to) {
+            this.sketches = sketches;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected S compute() {
+            if (to - from <= MERGE_THRESHOLD) {
+                S first = sketches.get(from);
+                S merged = first.newInstance(((AbstractKLLSketch<S>) first).seed ^ (from + 1));
+                for (int i = from; i < to; i++) {
+                    merged.merge(sketches.get(i));
+                }
+                return merged;
+            }
+
+            int middle = (from + to) >>> 1;
+            MergeTask<S> left = new MergeTask<S>(sketches, from, middle);
+            left.fork();
+            S right = new MergeTask<S>(sketches, middle, to).compute();
+            S merged = left.join();
+            merged.merge(right);
+            return merged;
+        }
+    }
+}
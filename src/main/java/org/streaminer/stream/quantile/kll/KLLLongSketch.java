@@ -0,0 +1,310 @@
+package org.streaminer.stream.quantile.kll;
+
+import org.streaminer.stream.quantile.IQuantiles;
+import org.streaminer.stream.quantile.QuantilesException;
+import org.streaminer.util.Varint;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * KLL quantile sketch of <code>long</code> values, such as latencies or timestamps,
+ * which keeps their full precision. Each level is serialized sorted and delta-encoded
+ * with variable-length integers.
+ * <p/>
+ * The sketch is fully mergeable: sketches built over different shards and merged in
+ * any order give the same guarantees as a single sketch built over the whole stream.
+ *
+ * @see AbstractKLLSketch
+ * @author Maycon Viana Bordin <mayconbordin@gmail.com>
+ */
+public class KLLLongSketch extends AbstractKLLSketch<KLLLongSketch> implements IQuantiles<Long> {
+    private long[][] items;
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+
+    // sorted view of the retained items, built on demand
+    private long[] sortedItems;
+    private long[] cumulativeWeights;
+
+    public KLLLongSketch() {
+        this(DEFAULT_K);
+    }
+
+    public KLLLongSketch(int k) {
+        this(k, System.nanoTime());
+    }
+
+    /**
+     * @param k    Controls the accuracy, the rank error is about 1.65 / k
+     * @param seed Seed of the random compactions, for reproducible sketches
+     */
+    public KLLLongSketch(int k, long seed) {
+        this(k, DEFAULT_M, seed);
+    }
+
+    /**
+     * @param k    Controls the accuracy, the rank error is about 1.65 / k
+     * @param m    Minimum capacity of a level
+     * @param seed Seed of the random compactions, for reproducible sketches
+     */
+    public KLLLongSketch(int k, int m, long seed) {
+        super(k, m, seed);
+        items = new long[][] {new long[k]};
+    }
+
+    @Override
+    public void offer(Long value) {
+        update(value.longValue());
+    }
+
+    /**
+     * Adds a value to the sketch.
+     *
+     * @param value
+     */
+    public void update(long value) {
+        if (n == 0) {
+            min = max = value;
+        } else if (value < min) {
+            min = value;
+        } else if (value > max) {
+            max = value;
+        }
+
+        if (sizes[0] == items[0].length) {
+            items[0] = Arrays.copyOf(items[0], 2 * items[0].length);
+        }
+        items[0][sizes[0]++] = value;
+        sortedItems = null;
+        inserted();
+    }
+
+    /**
+     * @param q The normalized rank, between 0 and 1
+     * @return The approximate value of the given rank
+     * @throws QuantilesException if the sketch is empty or q isn't between 0 and 1
+     */
+    @Override
+    public Long getQuantile(double q) throws QuantilesException {
+        if (q < 0 || q > 1) {
+            throw new QuantilesException("Quantile must be between 0 and 1");
+        }
+        if (n == 0) {
+            throw new QuantilesException("No samples present");
+        }
+
+        if (q == 0) {
+            return min;
+        }
+        if (q == 1) {
+            return max;
+        }
+
+        buildSortedView();
+        long rank = (long) Math.ceil(q * n);
+        int i = Arrays.binarySearch(cumulativeWeights, rank);
+        return sortedItems[i < 0 ? -i - 1 : i];
+    }
+
+    /**
+     * @param value
+     * @return The approximate fraction of the items that are smaller or equal to the value
+     */
+    public double getRank(long value) {
+        if (n == 0) {
+            return Double.NaN;
+        }
+
+        buildSortedView();
+        int i = upperBound(sortedItems, value);
+        return (i == 0) ? 0 : cumulativeWeights[i - 1] / (double) n;
+    }
+
+    /**
+     * @param splitPoints Values in ascending order
+     * @return The approximate fraction of the items smaller or equal to each split point,
+     *         followed by 1
+     */
+    public double[] getCDF(long[] splitPoints) {
+        double[] cdf = new double[splitPoints.length + 1];
+        for (int i = 0; i < splitPoints.length; i++) {
+            cdf[i] = getRank(splitPoints[i]);
+        }
+        cdf[splitPoints.length] = 1;
+        return cdf;
+    }
+
+    public long getMin() {
+        return min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    @Override
+    protected void compact(int level, int offset) {
+        long[] src = items[level];
+        int size = sizes[level];
+        Arrays.sort(src, 0, size);
+
+        int odd = size & 1;
+        int half = size >>> 1;
+        int target = sizes[level + 1];
+        if (target + half > items[level + 1].length) {
+            items[level + 1] = Arrays.copyOf(items[level + 1], Math.max(target + half, 2 * items[level + 1].length));
+        }
+
+        long[] dst = items[level + 1];
+        for (int i = odd + offset, j = target; j < target + half; i += 2, j++) {
+            dst[j] = src[i];
+        }
+
+        sizes[level + 1] = target + half;
+        sizes[level] = odd;
+    }
+
+    @Override
+    protected void growLevels(int numLevels) {
+        int old = items.length;
+        items = Arrays.copyOf(items, numLevels);
+        for (int level = old; level < numLevels; level++) {
+            items[level] = new long[Math.max(m, sizes[level])];
+        }
+    }
+
+    @Override
+    protected void appendLevel(KLLLongSketch other, int level) {
+        int size = sizes[level];
+        int length = other.sizes[level];
+        if (size + length > items[level].length) {
+            items[level] = Arrays.copyOf(items[level], Math.max(size + length, 2 * items[level].length));
+        }
+        System.arraycopy(other.items[level], 0, items[level], size, length);
+        sizes[level] = size + length;
+
+        min = (n == 0 || other.min < min) ? other.min : min;
+        max = (n == 0 || other.max > max) ? other.max : max;
+        sortedItems = null;
+    }
+
+    @Override
+    protected KLLLongSketch newInstance(long seed) {
+        return new KLLLongSketch(k, m, seed);
+    }
+
+    @Override
+    protected void writeItems(DataOutput out) throws IOException {
+        Varint.writeSignedVarLong(min, out);
+        Varint.writeSignedVarLong(max, out);
+        for (int level = 0; level < numLevels; level++) {
+            Arrays.sort(items[level], 0, sizes[level]);
+            long previous = min;
+            for (int i = 0; i < sizes[level]; i++) {
+                Varint.writeUnsignedVarLong(items[level][i] - previous, out);
+                previous = items[level][i];
+            }
+        }
+    }
+
+    @Override
+    protected void readItems(DataInput in) throws IOException {
+        min = Varint.readSignedVarLong(in);
+        max = Varint.readSignedVarLong(in);
+        for (int level = 0; level < numLevels; level++) {
+            if (items[level].length < sizes[level]) {
+                items[level] = new long[sizes[level]];
+            }
+            long previous = min;
+            for (int i = 0; i < sizes[level]; i++) {
+                previous += Varint.readUnsignedVarLong(in);
+                items[level][i] = previous;
+            }
+        }
+    }
+
+    /**
+     * @param bytes A sketch serialized with {@link #getBytes()}
+     * @return The deserialized sketch
+     * @throws IOException
+     */
+    public static KLLLongSketch fromBytes(byte[] bytes) throws IOException {
+        return readSketch(new DataInputStream(new ByteArrayInputStream(bytes)), new Factory<KLLLongSketch>() {
+            @Override
+            public KLLLongSketch create(int k, int m, long seed) {
+                return new KLLLongSketch(k, m, seed);
+            }
+        });
+    }
+
+    /**
+     * Merges the sorted levels into a single sorted array of items, along with the
+     * cumulative weight of each item.
+     */
+    private void buildSortedView() {
+        if (sortedItems != null) {
+            return;
+        }
+
+        long[] values = new long[retained];
+        long[] weights = new long[retained];
+        long[] mergedValues = new long[retained];
+        long[] mergedWeights = new long[retained];
+        int length = 0;
+
+        for (int level = 0; level < numLevels; level++) {
+            int size = sizes[level];
+            if (size == 0) {
+                continue;
+            }
+
+            long[] src = items[level];
+            Arrays.sort(src, 0, size);
+            long weight = 1L << level;
+
+            int i = 0, j = 0, out = 0;
+            while (i < length || j < size) {
+                if (j == size || (i < length && values[i] <= src[j])) {
+                    mergedValues[out] = values[i];
+                    mergedWeights[out++] = weights[i++];
+                } else {
+                    mergedValues[out] = src[j++];
+                    mergedWeights[out++] = weight;
+                }
+            }
+
+            long[] tmpValues = values;
+            long[] tmpWeights = weights;
+            values = mergedValues;
+            weights = mergedWeights;
+            mergedValues = tmpValues;
+            mergedWeights = tmpWeights;
+            length = out;
+        }
+
+        for (int i = 1; i < length; i++) {
+            weights[i] += weights[i - 1];
+        }
+
+        sortedItems = values;
+        cumulativeWeights = weights;
+    }
+
+    private static int upperBound(long[] values, long value) {
+        int lo = 0, hi = values.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (values[mid] <= value) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
@@ -138,4 +138,62 @@ public class ArrayUtils {
             }
         }
     }
+    
+    /**
+     * Partially reorders the first n elements of the array so that the element
+     * at index k (zero-based) is the one that would be there if the range were
+     * sorted, with smaller elements before it and larger ones after it.
+     * @param k The zero-based rank of the element to select
+     * @param n The number of elements of the array to consider
+     * @param arr The array, modified in place
+     * @return The k-th smallest element
+     */
+    public static long select(int k, int n, long[] arr) {
+        int l = 0, r = n - 1;
+        
+        while (r > l) {
+            long pivot = arr[(l + r) >>> 1];
+            int i = l, j = r;
+            
+            while (i <= j) {
+                while (arr[i] < pivot) i++;
+                while (arr[j] > pivot) j--;
+                if (i <= j) {
+                    swap(arr, i++, j--);
+                }
+            }
+            
+            if (k <= j) r = j;
+            else if (k >= i) l = i;
+            else break;
+        }
+        
+        return arr[k];
+    }
+    
+    /**
+     * @see #select(int, int, long[]) 
+     */
+    public static double select(int k, int n, double[] arr) {
+        int l = 0, r = n - 1;
+        
+        while (r > l) {
+            double pivot = arr[(l + r) >>> 1];
+            int i = l, j = r;
+            
+            while (i <= j) {
+                while (arr[i] < pivot) i++;
+                while (arr[j] > pivot) j--;
+                if (i <= j) {
+                    swap(arr, i++, j--);
+                }
+            }
+            
+            if (k <= j) r = j;
+            else if (k >= i) l = i;
+            else break;
+        }
+        
+        return arr[k];
+    }
 }
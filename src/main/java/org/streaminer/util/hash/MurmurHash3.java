@@ -96,7 +96,13 @@ public class MurmurHash3 extends Hash {
       state.c2 = state.c2 * 5 + 0x6bce6396;
    }
 
-   static long fmix(long k) {
+   /**
+    * Finalization mix of MurmurHash3, also usable to spread or re-seed a 64-bit hash.
+    * 
+    * @param k value to mix
+    * @return mixed value
+    */
+   public static long fmix(long k) {
       k ^= k >>> 33;
       k *= 0xff51afd7ed558ccdL;
       k ^= k >>> 33;
@@ -47,4 +47,22 @@ public class BJKSTTest {
         assertEquals(cardinality, instance.cardinality(), 100);
     }
     
+    /**
+     * Test of offer method with more elements than the buffers can hold.
+     */
+    @Test
+    public void testOfferLargeCardinality() {
+        System.out.println("offer large cardinality");
+        BJKST instance = new BJKST(25, 16, 0.1);
+        
+        long cardinality = 200000L;
+        for (long i = 0; i < cardinality; i++) {
+            instance.offer(Long.valueOf(i));
+        }
+        
+        long estimate = instance.cardinality();
+        System.out.println("actual: " + cardinality + ", estimated: " + estimate);
+        
+        assertEquals(cardinality, estimate, cardinality * 0.1);
+    }
 }
@@ -0,0 +1,115 @@
+package org.streaminer.stream.cardinality;
+
+import java.io.File;
+import java.io.IOException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Maycon Viana Bordin <mayconbordin@gmail.com>
+ */
+public class MappedHyperLogLogStoreTest {
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("hll-store", ".bin");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testOfferMatchesHeapSketch() throws IOException {
+        MappedHyperLogLogStore store = new MappedHyperLogLogStore(file, 10, 100);
+        HyperLogLog expected = new HyperLogLog(10);
+
+        for (int i = 0; i < 10000; i++) {
+            store.offer(42, i);
+            expected.offer(i);
+        }
+
+        assertEquals(expected.cardinality(), store.cardinality(42));
+        assertArrayEquals(expected.getBytes(), store.get(42).getBytes());
+        assertEquals(0, store.cardinality(41));
+        assertEquals(0, store.cardinality(43));
+
+        store.close();
+    }
+
+    @Test
+    public void testReopen() throws IOException {
+        MappedHyperLogLogStore store = new MappedHyperLogLogStore(file, 8, 10);
+        HyperLogLog view = store.get(3);
+        for (int i = 0; i < 1000; i++) {
+            view.offer("item" + i);
+        }
+        long cardinality = store.cardinality(3);
+        assertTrue(cardinality > 0);
+        store.close();
+
+        MappedHyperLogLogStore reopened = MappedHyperLogLogStore.open(file);
+        assertEquals(8, reopened.getLog2m());
+        assertEquals(10, reopened.capacity());
+        assertEquals(cardinality, reopened.cardinality(3));
+
+        reopened.ensureCapacity(20);
+        reopened.offer(19, "x");
+        assertEquals(1, reopened.cardinality(19));
+        assertEquals(cardinality, reopened.cardinality(3));
+        reopened.close();
+    }
+
+    @Test
+    public void testMerge() throws IOException, CardinalityMergeException {
+        MappedHyperLogLogStore store = new MappedHyperLogLogStore(file, 12, 3);
+        HyperLogLog expected = new HyperLogLog(12);
+        HyperLogLog other = new HyperLogLog(12);
+
+        for (int i = 0; i < 5000; i++) {
+            store.offer(0, i);
+            expected.offer(i);
+        }
+        for (int i = 2500; i < 7500; i++) {
+            store.offer(1, i);
+            expected.offer(i);
+        }
+        for (int i = 7500; i < 9000; i++) {
+            other.offer(i);
+            expected.offer(i);
+        }
+
+        store.merge(0, 1);
+        store.merge(0, other);
+        assertEquals(expected.cardinality(), store.cardinality(0));
+
+        store.put(2, expected);
+        assertArrayEquals(expected.getBytes(), store.get(2).getBytes());
+        store.clear(2);
+        assertEquals(0, store.cardinality(2));
+
+        store.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDifferentLog2m() throws IOException {
+        new MappedHyperLogLogStore(file, 8, 1).close();
+        new MappedHyperLogLogStore(file, 10, 1);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testOutOfBounds() throws IOException {
+        MappedHyperLogLogStore store = new MappedHyperLogLogStore(file, 8, 1);
+        try {
+            store.offer(1, "x");
+        } finally {
+            store.close();
+        }
+    }
+}
@@ -162,4 +162,37 @@ public class TestAdaptiveCounting
         assertEquals(expected.sizeof(), actual.sizeof());
         assertEquals(expected.cardinality(), actual.cardinality());
     }
+
+    @Test
+    public void testWordOperations()
+    {
+        assertEquals(8, AdaptiveCounting.zeroBytes(0L));
+        assertEquals(0, AdaptiveCounting.zeroBytes(0x0101010101010101L));
+        assertEquals(4, AdaptiveCounting.zeroBytes(0x7F00010000400200L));
+
+        assertEquals(0x0705030400000A7FL, AdaptiveCounting.maxBytes(0x0701030400000A00L, 0x0005020100000A7FL));
+    }
+
+    @Test
+    public void testOfferHashedBatch()
+    {
+        long[] hashes = new long[10000];
+        java.util.Random random = new java.util.Random(42);
+        for (int i = 0; i < hashes.length; i++)
+        {
+            hashes[i] = random.nextLong();
+        }
+
+        AdaptiveCounting batch = new AdaptiveCounting(16);
+        AdaptiveCounting single = new AdaptiveCounting(16);
+
+        assertTrue(batch.offerHashed(hashes));
+        for (long hash : hashes)
+        {
+            single.offerHashed(hash);
+        }
+
+        assertAdaptiveCountingEquals(single, batch);
+        assertAdaptiveCountingEquals(batch, new AdaptiveCounting(batch.getBytes()));
+    }
 }
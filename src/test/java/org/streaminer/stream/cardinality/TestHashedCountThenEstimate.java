@@ -0,0 +1,121 @@
+package org.streaminer.stream.cardinality;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class TestHashedCountThenEstimate
+{
+    @Test
+    public void testExactPhase()
+    {
+        HashedCountThenEstimate cte = new HashedCountThenEstimate(1 << 20, new HyperLogLog.Builder(0.01));
+        for (int i = 0; i < 1000; i++)
+        {
+            assertTrue(cte.offer(i));
+            assertFalse(cte.offer(i));
+        }
+        assertTrue(cte.offerHashed(0L));
+        assertFalse(cte.offerHashed(0L));
+
+        assertFalse(cte.tipped());
+        assertEquals(1001, cte.cardinality());
+        assertTrue(cte.sizeof() <= 1 << 20);
+    }
+
+    @Test
+    public void testTippingByBytes()
+    {
+        int tippingBytes = 1024;
+        HashedCountThenEstimate cte = new HashedCountThenEstimate(tippingBytes, new LinearCounting.Builder(4096));
+
+        int i = 0;
+        while (!cte.tipped())
+        {
+            assertTrue(cte.sizeof() <= tippingBytes);
+            cte.offer(i++);
+        }
+
+        // a 1KB table holds up to 96 hashes, so the 97th tips it
+        assertEquals(97, i);
+        assertEquals(4096, cte.sizeof());
+
+        for (; i < 5000; i++)
+        {
+            cte.offer(i);
+        }
+        double error = Math.abs(cte.cardinality() - 5000) / 5000.0;
+        assertEquals(0.01, error, 0.01);
+    }
+
+    @Test
+    public void testDefaultTippingPoint()
+    {
+        HashedCountThenEstimate cte = new HashedCountThenEstimate(new AdaptiveCounting.Builder(10));
+        for (int i = 0; i < 10000; i++)
+        {
+            cte.offer(i);
+            assertTrue(cte.sizeof() <= 1024);
+        }
+        assertTrue(cte.tipped());
+    }
+
+    @Test
+    public void testSerialization() throws IOException, ClassNotFoundException
+    {
+        HashedCountThenEstimate cte = new HashedCountThenEstimate(1024, new LinearCounting.Builder(4096));
+        for (int i = 0; i < 50; i++)
+        {
+            cte.offer(i);
+        }
+        cte.offerHashed(0L);
+
+        HashedCountThenEstimate clone = new HashedCountThenEstimate(cte.getBytes());
+        assertFalse(clone.tipped());
+        assertEquals(cte.cardinality(), clone.cardinality());
+        for (int i = 0; i < 50; i++)
+        {
+            assertFalse(clone.offer(i));
+        }
+
+        for (int i = 50; i < 1000; i++)
+        {
+            cte.offer(i);
+        }
+        clone = new HashedCountThenEstimate(cte.getBytes());
+        assertTrue(clone.tipped());
+        assertEquals(cte.cardinality(), clone.cardinality());
+    }
+
+    @Test
+    public void testMerge() throws CardinalityMergeException
+    {
+        int numToMerge = 10;
+        HashedCountThenEstimate[] ctes = new HashedCountThenEstimate[numToMerge];
+
+        for (int i = 0; i < numToMerge; i++)
+        {
+            ctes[i] = new HashedCountThenEstimate(4096, new LinearCounting.Builder(65536));
+            int cardinality = (i % 2 == 0) ? 100 : 10000;
+            for (int j = 0; j < cardinality; j++)
+            {
+                ctes[i].offer(Math.random());
+            }
+        }
+        assertFalse(ctes[0].tipped());
+        assertTrue(ctes[1].tipped());
+
+        int expectedCardinality = 5 * 100 + 5 * 10000;
+        long mergedEstimate = HashedCountThenEstimate.mergeEstimators(ctes).cardinality();
+        double error = Math.abs(mergedEstimate - expectedCardinality) / (double) expectedCardinality;
+        assertEquals(0.01, error, 0.01);
+
+        HashedCountThenEstimate small = (HashedCountThenEstimate) ctes[0].merge(ctes[2]);
+        assertFalse(small.tipped());
+        assertEquals(200, small.cardinality());
+    }
+}
@@ -161,4 +161,50 @@ public class TestLinearCounting
         long baselineEstimate = baseline.cardinality();
         assertEquals(baselineEstimate, mergedEstimate);
     }
+
+    @Test
+    public void testBitLayout()
+    {
+        LinearCounting lc = new LinearCounting(10);
+        lc.offerHashed(9);
+        lc.offerHashed(79);
+
+        byte[] bytes = lc.getBytes();
+        assertEquals(10, bytes.length);
+        assertEquals(2, bytes[1]);
+        assertEquals((byte) 0x80, bytes[9]);
+        assertEquals(78, lc.getCount());
+
+        LinearCounting lc2 = new LinearCounting(bytes);
+        assertArrayEquals(bytes, lc2.getBytes());
+        assertEquals(lc.getCount(), lc2.getCount());
+    }
+
+    @Test
+    public void testOfferHashedBatch()
+    {
+        int size = 65536;
+        long[] hashes = new long[5000];
+        java.util.Random random = new java.util.Random(42);
+        for (int i = 0; i < hashes.length; i++)
+        {
+            hashes[i] = random.nextLong();
+        }
+
+        LinearCounting batch = new LinearCounting(size);
+        LinearCounting single = new LinearCounting(size);
+
+        assertTrue(batch.offerHashed(hashes));
+        for (long hash : hashes)
+        {
+            single.offerHashed(hash);
+        }
+
+        assertArrayEquals(single.map, batch.map);
+        assertEquals(single.getCount(), batch.getCount());
+        assertFalse(batch.offerHashed(hashes));
+
+        double error = Math.abs(batch.cardinality() - hashes.length) / (double) hashes.length;
+        assertEquals(0.01, error, 0.01);
+    }
 }
@@ -0,0 +1,102 @@
+package org.streaminer.stream.cardinality;
+
+import java.io.IOException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Maycon Viana Bordin <mayconbordin@gmail.com>
+ */
+public class ThetaSketchTest {
+
+    public ThetaSketchTest() {
+    }
+
+    @Test
+    public void testExactMode() {
+        ThetaSketch sketch = new ThetaSketch(1024);
+        for (int i=0; i<500; i++) {
+            sketch.offer(i);
+            sketch.offer(i);
+        }
+
+        assertEquals(500, sketch.cardinality());
+        assertEquals(1.0, sketch.getTheta(), 0.0);
+    }
+
+    @Test
+    public void testOffer() {
+        System.out.println("offer");
+        ThetaSketch sketch = new ThetaSketch(4096);
+        int size = 1000000;
+
+        for (int i=0; i<size; i++) {
+            sketch.offer(i);
+        }
+
+        long estimate = sketch.cardinality();
+        double err = Math.abs(estimate - size) / (double) size;
+        System.out.println("actual: " + size + ", estimated: " + estimate + ", error: " + err);
+
+        assertTrue(err < 0.05);
+        assertTrue(sketch.getRetainedEntries() >= 4096);
+    }
+
+    @Test
+    public void testSetOperations() {
+        System.out.println("set operations");
+        ThetaSketch a = new ThetaSketch(4096);
+        ThetaSketch b = new ThetaSketch(4096);
+
+        // a = [0, 200000), b = [100000, 250000)
+        for (int i=0; i<200000; i++) a.offer(i);
+        for (int i=100000; i<250000; i++) b.offer(i);
+
+        long union = ThetaSketch.union(a, b).cardinality();
+        long inter = ThetaSketch.intersection(a, b).cardinality();
+        long diff  = ThetaSketch.aNotB(a, b).cardinality();
+        double jaccard = ThetaSketch.jaccard(a, b);
+
+        System.out.println("union: " + union + ", intersection: " + inter
+                + ", a not b: " + diff + ", jaccard: " + jaccard);
+
+        assertEquals(250000, union, 250000 * 0.05);
+        assertEquals(100000, inter, 100000 * 0.1);
+        assertEquals(100000, diff, 100000 * 0.1);
+        assertEquals(0.4, jaccard, 0.04);
+    }
+
+    @Test
+    public void testMerge() throws CardinalityMergeException {
+        ThetaSketch a = new ThetaSketch(64);
+        ThetaSketch b = new ThetaSketch(64);
+        for (int i=0; i<40; i++) a.offer(i);
+        for (int i=20; i<60; i++) b.offer(i);
+
+        assertEquals(60, a.merge(b).cardinality());
+        assertEquals(40, a.cardinality());
+        assertEquals(40, b.cardinality());
+    }
+
+    @Test(expected = CardinalityMergeException.class)
+    public void testMergeDifferentClass() throws CardinalityMergeException {
+        new ThetaSketch(64).merge(new HyperLogLog(10));
+    }
+
+    @Test
+    public void testSerialization() throws IOException {
+        ThetaSketch sketch = new ThetaSketch(1024);
+        for (int i=0; i<100000; i++) {
+            sketch.offer(i);
+        }
+
+        byte[] bytes = sketch.getBytes();
+        assertTrue(bytes.length <= sketch.sizeof());
+
+        ThetaSketch copy = ThetaSketch.Builder.build(bytes);
+        assertEquals(sketch.cardinality(), copy.cardinality());
+        assertEquals(sketch.getTheta(), copy.getTheta(), 0.0);
+        assertEquals(1.0, ThetaSketch.jaccard(sketch, copy), 0.0);
+    }
+}
@@ -0,0 +1,92 @@
+package org.streaminer.stream.membership;
+
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Maycon Viana Bordin <mayconbordin@gmail.com>
+ */
+public class BucketCuckooFilterTest {
+
+    @Test
+    public void testHighLoad() {
+        for (int bits : new int[] {8, 16}) {
+            BucketCuckooFilter filter = new BucketCuckooFilter(100000, bits);
+
+            long added = 0;
+            while (filter.add(added)) {
+                added++;
+            }
+            assertTrue(filter.isFull());
+            assertTrue("load factor: " + filter.loadFactor(), filter.loadFactor() > 0.9);
+            assertEquals(added, filter.size());
+
+            // every item is still found, including the one whose insertion evicted a fingerprint
+            for (long i = 0; i < added; i++) {
+                assertTrue(filter.membershipTest(i));
+            }
+        }
+    }
+
+    @Test
+    public void testFalsePositiveRate() {
+        BucketCuckooFilter filter = new BucketCuckooFilter(50000, 16);
+        long[] items = new long[50000];
+        for (int i = 0; i < items.length; i++) {
+            items[i] = i;
+        }
+        assertEquals(items.length, filter.addAll(items));
+
+        int falsePositives = 0;
+        for (long i = items.length; i < items.length + 1000000; i++) {
+            if (filter.membershipTest(i)) {
+                falsePositives++;
+            }
+        }
+        // 8 candidate slots with 16-bit fingerprints give about 0.012%
+        assertTrue("false positives: " + falsePositives, falsePositives < 250);
+    }
+
+    @Test
+    public void testDelete() {
+        BucketCuckooFilter filter = new BucketCuckooFilter(10000, 8);
+        Random rand = new Random(42);
+        long[] items = new long[9000];
+        for (int i = 0; i < items.length; i++) {
+            items[i] = rand.nextLong();
+            assertTrue(filter.add(items[i]));
+        }
+
+        for (int i = 0; i < items.length; i += 2) {
+            assertTrue(filter.delete(items[i]));
+        }
+        assertEquals(items.length / 2, filter.size());
+        for (int i = 1; i < items.length; i += 2) {
+            assertTrue(filter.membershipTest(items[i]));
+        }
+
+        // a duplicate is stored twice and must be deleted twice
+        filter.add(items[1]);
+        assertTrue(filter.delete(items[1]));
+        assertTrue(filter.membershipTest(items[1]));
+        assertTrue(filter.delete(items[1]));
+    }
+
+    @Test
+    public void testBytesAndBatch() {
+        BucketCuckooFilter filter = new BucketCuckooFilter(1000);
+        filter.add("hello".getBytes());
+        assertTrue(filter.membershipTest("hello".getBytes()));
+        assertFalse(filter.membershipTest("world".getBytes()));
+        assertTrue(filter.delete("hello".getBytes()));
+        assertFalse(filter.membershipTest("hello".getBytes()));
+
+        filter.addAll(new long[] {1, 2, 3});
+        boolean[] out = new boolean[3];
+        filter.membershipTest(new long[] {1, 3, 2}, out);
+        assertTrue(out[0] && out[1] && out[2]);
+        assertEquals(0, filter.sizeof() % 8);
+    }
+}
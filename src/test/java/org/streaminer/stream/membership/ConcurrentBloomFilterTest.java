@@ -0,0 +1,89 @@
+package org.streaminer.stream.membership;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Maycon Viana Bordin <mayconbordin@gmail.com>
+ */
+public class ConcurrentBloomFilterTest {
+    private static final int THREADS = 8;
+    private static final int KEYS_PER_THREAD = 20000;
+
+    @Test
+    public void testConcurrentAdds() throws InterruptedException {
+        final ConcurrentBloomFilter filter = ConcurrentBloomFilter.create(THREADS * KEYS_PER_THREAD, 0.01);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger missing = new AtomicInteger();
+
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final int id = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < KEYS_PER_THREAD; i++) {
+                        byte[] key = ("key-" + id + "-" + i).getBytes();
+                        filter.add(key);
+                        if (!filter.membershipTest(key)) {
+                            missing.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(0, missing.get());
+        for (int t = 0; t < THREADS; t++) {
+            for (int i = 0; i < KEYS_PER_THREAD; i++) {
+                assertTrue(filter.membershipTest(("key-" + t + "-" + i).getBytes()));
+            }
+        }
+
+        long estimate = filter.approximateElementCount();
+        assertEquals(THREADS * KEYS_PER_THREAD, estimate, 0.03 * THREADS * KEYS_PER_THREAD);
+
+        int falsePositives = 0;
+        for (int i = 0; i < 100000; i++) {
+            if (filter.membershipTest(("other-" + i).getBytes())) {
+                falsePositives++;
+            }
+        }
+        assertTrue("false positives: " + falsePositives, falsePositives < 1500);
+    }
+
+    @Test
+    public void testPutAndMerge() {
+        ConcurrentBloomFilter a = new ConcurrentBloomFilter(10000, 5);
+        ConcurrentBloomFilter b = new ConcurrentBloomFilter(10000, 5);
+
+        assertTrue(a.put("a".getBytes()));
+        assertFalse(a.put("a".getBytes()));
+        assertEquals(5, a.bitCount(), 0);
+        assertEquals(1, a.approximateElementCount());
+
+        b.add("b".getBytes());
+        b.add("a".getBytes());
+        a.merge(b);
+        assertTrue(a.membershipTest("b".getBytes()));
+        assertEquals(b.bitCount(), a.bitCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIncompatibleMerge() {
+        new ConcurrentBloomFilter(1000, 3).merge(new ConcurrentBloomFilter(1000, 4));
+    }
+}
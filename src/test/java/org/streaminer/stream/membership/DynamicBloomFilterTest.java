@@ -0,0 +1,113 @@
+package org.streaminer.stream.membership;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.streaminer.util.hash.Hash;
+
+/**
+ *
+ * @author Maycon Viana Bordin <mayconbordin@gmail.com>
+ */
+public class DynamicBloomFilterTest {
+
+    @Test
+    public void testRowsShareTheHash() {
+        DynamicBloomFilter filter = new DynamicBloomFilter(1000, 5, Hash.MURMUR_HASH, 100);
+        for (int i = 0; i < 2000; i++) {
+            filter.add(key(i));
+        }
+        assertEquals(20, filter.getNbRows());
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int i = 0; i < 4000; i++) {
+                filter.setPool(null);
+                boolean sequential = filter.membershipTest(key(i));
+                filter.setPool(pool);
+                assertEquals(sequential, filter.membershipTest(key(i)));
+                if (i < 2000) {
+                    assertTrue(sequential);
+                }
+
+                filter.setPool(null);
+                boolean typed = filter.membershipTest((long) i);
+                filter.setPool(pool);
+                assertEquals(typed, filter.membershipTest((long) i));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testScalable() {
+        DynamicBloomFilter filter = new DynamicBloomFilter(1000, 7, Hash.MURMUR_HASH, 100, 2, 0.5);
+        assertTrue(filter.isScalable());
+        for (int i = 0; i < 100000; i++) {
+            filter.add(key(i));
+        }
+        // 100 * (2^10 - 1) keys fit in 10 rows
+        assertEquals(10, filter.getNbRows());
+        for (int i = 0; i < 100000; i++) {
+            assertTrue(filter.membershipTest(key(i)));
+        }
+
+        int falsePositives = 0;
+        for (int i = 100000; i < 200000; i++) {
+            if (filter.membershipTest(key(i))) {
+                falsePositives++;
+            }
+        }
+        // about 1% for the first row, so at most 2% overall
+        assertTrue("false positives: " + falsePositives, falsePositives < 2000);
+    }
+
+    @Test
+    public void testCappedRowsAreNotOverfilled() {
+        DynamicBloomFilter filter = new DynamicBloomFilter(1000, 7, Hash.MURMUR_HASH, 100, 4, 0.5);
+        for (int row = 0; row < 40; row++) {
+            // one more hash function per row, and 10 bits per key per 7 hash functions
+            double minBits = 10.0 * (7 + row) / 7;
+            assertTrue("row " + row, filter.rowSize(row) >= minBits * filter.rowCapacity(row) * 0.999999);
+        }
+        assertEquals(Integer.MAX_VALUE - 64, filter.rowSize(39));
+        assertTrue(filter.rowCapacity(39) < filter.rowCapacity(12));
+    }
+
+    @Test
+    public void testSerialization() throws IOException {
+        DynamicBloomFilter filter = new DynamicBloomFilter(1000, 7, Hash.MURMUR_HASH, 100, 4, 0.8);
+        for (int i = 0; i < 5000; i++) {
+            filter.add(key(i));
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        filter.write(new DataOutputStream(bytes));
+        DynamicBloomFilter copy = new DynamicBloomFilter();
+        copy.readFields(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertTrue(copy.isScalable());
+        assertEquals(filter.getNbRows(), copy.getNbRows());
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(filter.membershipTest(key(i)), copy.membershipTest(key(i)));
+        }
+
+        // keeps growing like the original
+        for (int i = 5000; i < 40000; i++) {
+            filter.add(key(i));
+            copy.add(key(i));
+        }
+        assertEquals(filter.getNbRows(), copy.getNbRows());
+        filter.or(copy);
+    }
+
+    private static Key key(int i) {
+        return new Key(("key" + i).getBytes());
+    }
+}
@@ -0,0 +1,114 @@
+package org.streaminer.stream.membership;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.streaminer.util.hash.Hash;
+
+/**
+ *
+ * @author Maycon Viana Bordin <mayconbordin@gmail.com>
+ */
+public class LongBloomFilterTest {
+    static final int ELEMENTS = 10000;
+
+    @Test
+    public void testAddAndFalsePositives() {
+        // 10 bits per element and 7 hashes give a false positive rate of about 0.8%
+        LongBloomFilter bf = new LongBloomFilter(10 * ELEMENTS, 7);
+        for (int i = 0; i < ELEMENTS; i++) {
+            bf.add(new Key(("key" + i).getBytes()));
+        }
+        for (int i = 0; i < ELEMENTS; i++) {
+            assertTrue(bf.membershipTest(new Key(("key" + i).getBytes())));
+        }
+
+        int falsePositives = 0;
+        for (int i = 0; i < 100000; i++) {
+            if (bf.membershipTest(new Key(("other" + i).getBytes()))) {
+                falsePositives++;
+            }
+        }
+        assertTrue("false positives: " + falsePositives, falsePositives < 1500);
+    }
+
+    @Test
+    public void testByteRange() {
+        LongBloomFilter bf = new LongBloomFilter(1000, 5);
+        byte[] buffer = "xxhello worldxx".getBytes();
+        bf.add(buffer, 2, 11);
+        assertTrue(bf.membershipTest(new Key("hello world".getBytes())));
+        assertTrue(bf.membershipTest(buffer, 2, 11));
+    }
+
+    @Test
+    public void testLogicalOperations() {
+        LongBloomFilter a = new LongBloomFilter(1001, 3);
+        LongBloomFilter b = new LongBloomFilter(1001, 3);
+        Key ka = new Key("a".getBytes());
+        Key kb = new Key("b".getBytes());
+        a.add(ka);
+        b.add(kb);
+
+        LongBloomFilter union = copy(a);
+        union.or(b);
+        assertTrue(union.membershipTest(ka));
+        assertTrue(union.membershipTest(kb));
+
+        LongBloomFilter intersection = copy(union);
+        intersection.and(a);
+        assertEquals(a.toString(), intersection.toString());
+
+        union.xor(a);
+        assertEquals(b.toString(), union.toString());
+
+        LongBloomFilter negated = copy(a);
+        negated.not();
+        assertEquals(1001 - a.cardinality(), negated.cardinality());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIncompatible() {
+        new LongBloomFilter(1000, 3).or(new BloomFilter(1000, 3, Hash.MURMUR_HASH));
+    }
+
+    @Test
+    public void testSerialization() throws IOException {
+        LongBloomFilter bf = new LongBloomFilter(1003, 4);
+        for (int i = 0; i < 100; i++) {
+            bf.add(new Key(("key" + i).getBytes()));
+        }
+
+        LongBloomFilter copy = copy(bf);
+        assertEquals(bf.toString(), copy.toString());
+        assertEquals(bf.getVectorSize(), copy.getVectorSize());
+        for (int i = 0; i < 100; i++) {
+            assertTrue(copy.membershipTest(new Key(("key" + i).getBytes())));
+        }
+
+        // the bit vector has the same layout as the one of BloomFilter
+        BloomFilter old = new BloomFilter(1003, 4, Hash.MURMUR_HASH);
+        old.add(new Key("key".getBytes()));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        old.write(new DataOutputStream(bytes));
+        LongBloomFilter converted = new LongBloomFilter();
+        converted.readFields(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(old.toString(), converted.toString());
+    }
+
+    private static LongBloomFilter copy(LongBloomFilter filter) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            filter.write(new DataOutputStream(bytes));
+            LongBloomFilter copy = new LongBloomFilter();
+            copy.readFields(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+            return copy;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
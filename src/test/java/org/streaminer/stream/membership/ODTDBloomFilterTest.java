@@ -5,6 +5,7 @@ import java.util.Map;
 import java.util.Random;
 import org.junit.Ignore;
 import org.junit.Test;
+import static org.junit.Assert.*;
 import org.streaminer.stream.frequency.FrequencyException;
 import org.streaminer.stream.frequency.RealCounting;
 
@@ -75,4 +76,20 @@ public class ODTDBloomFilterTest {
         }
         System.out.println("Difference: " + diff);
     }
+
+    @Test
+    public void testDecay() {
+        double beta = 0.9;
+        ODTDBloomFilter filter = new ODTDBloomFilter(1000, spec.bucketsPerElement, beta);
+        long now = 1400000000L;
+        filter.add("url", 10, now);
+        filter.add("other", 1, now);
+
+        double count = filter.estimateCount("url", now);
+        assertEquals(10 * Math.log(1 / beta), count, 1e-4);
+        assertEquals(count * Math.pow(beta, 10), filter.estimateCount("url", now + 10), 1e-4);
+        assertEquals(count * Math.pow(beta, 20), filter.estimateCount("url", now + 20), 1e-4);
+        assertTrue(filter.membershipTest("url"));
+        assertFalse(filter.membershipTest("missing"));
+    }
 }
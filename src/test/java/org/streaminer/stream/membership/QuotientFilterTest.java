@@ -0,0 +1,194 @@
+package org.streaminer.stream.membership;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Maycon Viana Bordin <mayconbordin@gmail.com>
+ */
+public class QuotientFilterTest {
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("quotient-filter", ".bin");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testCountsMatchFingerprints() {
+        // few slots and short remainders, so that runs and clusters are long
+        QuotientFilter filter = new QuotientFilter(8, 4);
+        Map<Long, Integer> expected = new HashMap<Long, Integer>();
+        Random rand = new Random(7);
+        long mask = (1L << 12) - 1;
+
+        for (int step = 0; step < 20000; step++) {
+            long hash = rand.nextInt(600);
+            Integer count = expected.get(hash & mask);
+            int c = (count == null) ? 0 : count;
+
+            if (rand.nextInt(3) == 0) {
+                assertEquals(c > 0, filter.deleteHash(hash));
+                if (c > 0) {
+                    expected.put(hash & mask, c - 1);
+                }
+            } else if (filter.size() < 200) {
+                filter.insertHash(hash);
+                expected.put(hash & mask, c + 1);
+            }
+
+            long probe = rand.nextInt(600);
+            Integer probeCount = expected.get(probe & mask);
+            assertEquals((probeCount == null) ? 0 : (int) probeCount, filter.countHash(probe));
+        }
+
+        long total = 0;
+        for (Map.Entry<Long, Integer> e : expected.entrySet()) {
+            assertEquals((int) e.getValue(), filter.countHash(e.getKey()));
+            total += e.getValue();
+        }
+        assertEquals(total, filter.size());
+    }
+
+    @Test
+    public void testAddDeleteCount() {
+        QuotientFilter filter = new QuotientFilter(10, 16);
+        for (int i = 0; i < 3; i++) {
+            filter.add("stream".getBytes());
+        }
+        filter.add(42L);
+
+        assertEquals(3, filter.count("stream".getBytes()));
+        assertTrue(filter.membershipTest(42L));
+        assertEquals(4, filter.size());
+
+        assertTrue(filter.delete("stream".getBytes()));
+        assertEquals(2, filter.count("stream".getBytes()));
+        assertTrue(filter.delete(42L));
+        assertFalse(filter.membershipTest(42L));
+        assertFalse(filter.delete(42L));
+        assertEquals(2, filter.size());
+    }
+
+    @Test
+    public void testResize() {
+        QuotientFilter filter = new QuotientFilter(8, 20);
+        for (long i = 0; i < 10000; i++) {
+            filter.add(i);
+        }
+
+        assertEquals(14, filter.getQuotientBits());
+        assertEquals(14, filter.getRemainderBits());
+        assertEquals(10000, filter.size());
+        assertTrue(filter.loadFactor() <= 0.9);
+        for (long i = 0; i < 10000; i++) {
+            assertTrue(filter.membershipTest(i));
+        }
+
+        int falsePositives = 0;
+        for (long i = 10000; i < 110000; i++) {
+            if (filter.membershipTest(i)) {
+                falsePositives++;
+            }
+        }
+        // about 0.6 / 2^14 = 0.004%
+        assertTrue("false positives: " + falsePositives, falsePositives < 20);
+    }
+
+    @Test
+    public void testMerge() {
+        QuotientFilter a = new QuotientFilter(12, 16);
+        QuotientFilter b = new QuotientFilter(10, 18);
+        for (long i = 0; i < 3000; i++) {
+            a.add(i);
+            b.add(i + 2000);
+        }
+        a.merge(b);
+
+        assertEquals(6000, a.size());
+        assertEquals(13, a.getQuotientBits());
+        for (long i = 0; i < 2000; i++) {
+            assertEquals(1, a.count(i));
+        }
+        for (long i = 2000; i < 3000; i++) {
+            assertEquals(2, a.count(i));
+        }
+        for (long i = 3000; i < 5000; i++) {
+            assertEquals(1, a.count(i));
+        }
+    }
+
+    @Test
+    public void testMergeGrowsForLongClusters() throws IOException {
+        // 160 copies of the last quotient do not fit in the slots past it
+        QuotientFilter a = new QuotientFilter(file, 8, 8);
+        QuotientFilter b = new QuotientFilter(8, 8);
+        for (int i = 0; i < 80; i++) {
+            a.insertHash(0xFF00);
+            b.insertHash(0xFF00);
+        }
+        a.merge(b);
+
+        assertEquals(160, a.size());
+        assertEquals(160, a.countHash(0xFF00));
+        assertTrue(a.getQuotientBits() > 8);
+        a.close();
+
+        QuotientFilter reopened = QuotientFilter.open(file);
+        assertEquals(160, reopened.countHash(0xFF00));
+        reopened.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFingerprintLongerThanHash() {
+        new QuotientFilter(10, 60);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMergeDifferentFingerprints() {
+        new QuotientFilter(10, 16).merge(new QuotientFilter(10, 12));
+    }
+
+    @Test
+    public void testMappedReopen() throws IOException {
+        QuotientFilter filter = new QuotientFilter(file, 8, 24);
+        for (long i = 0; i < 5000; i++) {
+            filter.add(i);
+        }
+        filter.delete(0L);
+        filter.close();
+
+        QuotientFilter reopened = QuotientFilter.open(file);
+        assertEquals(4999, reopened.size());
+        assertEquals(13, reopened.getQuotientBits());
+        assertEquals(19, reopened.getRemainderBits());
+        assertFalse(reopened.membershipTest(0L));
+        for (long i = 1; i < 5000; i++) {
+            assertTrue(reopened.membershipTest(i));
+        }
+
+        reopened.add(0L);
+        reopened.close();
+        assertTrue(new QuotientFilter(file, 16, 16).membershipTest(0L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMappedDifferentFingerprints() throws IOException {
+        new QuotientFilter(file, 8, 24).close();
+        new QuotientFilter(file, 8, 16);
+    }
+}
@@ -0,0 +1,93 @@
+package org.streaminer.stream.membership;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Maycon Viana Bordin <mayconbordin@gmail.com>
+ */
+public class SplitBlockBloomFilterTest {
+
+    @Test
+    public void testFalsePositiveRate() {
+        int n = 100000;
+        double fpp = 0.01;
+        SplitBlockBloomFilter filter = SplitBlockBloomFilter.create(n, fpp);
+
+        for (long i = 0; i < n; i++) {
+            filter.add(i);
+        }
+        for (long i = 0; i < n; i++) {
+            assertTrue(filter.membershipTest(i));
+        }
+
+        int falsePositives = 0;
+        int trials = 200000;
+        for (long i = n; i < n + trials; i++) {
+            if (filter.membershipTest(i)) {
+                falsePositives++;
+            }
+        }
+        double rate = falsePositives / (double) trials;
+        assertTrue("false positive rate: " + rate, rate < 1.2 * fpp);
+        assertTrue("false positive rate: " + rate, rate > 0.5 * fpp);
+    }
+
+    @Test
+    public void testBatchProbe() {
+        SplitBlockBloomFilter filter = new SplitBlockBloomFilter(1 << 16);
+        Random rand = new Random(42);
+
+        long[] added = new long[1000];
+        for (int i = 0; i < added.length; i++) {
+            added[i] = rand.nextLong();
+        }
+        filter.putHashes(added);
+
+        long[] hashes = new long[2000];
+        System.arraycopy(added, 0, hashes, 0, added.length);
+        for (int i = added.length; i < hashes.length; i++) {
+            hashes[i] = rand.nextLong();
+        }
+
+        boolean[] out = new boolean[hashes.length];
+        filter.mightContain(hashes, out);
+        for (int i = 0; i < hashes.length; i++) {
+            assertEquals(filter.mightContainHash(hashes[i]), out[i]);
+            if (i < added.length) {
+                assertTrue(out[i]);
+            }
+        }
+    }
+
+    @Test
+    public void testBytesMergeAndSerialization() throws IOException {
+        SplitBlockBloomFilter a = new SplitBlockBloomFilter(1000);
+        SplitBlockBloomFilter b = new SplitBlockBloomFilter(1000);
+        assertEquals(16, a.getNumBlocks());
+        assertEquals(1024, a.sizeof());
+
+        a.add("a".getBytes());
+        b.add("b".getBytes());
+        a.merge(b);
+        assertTrue(a.membershipTest("a".getBytes()));
+        assertTrue(a.membershipTest("b".getBytes()));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        a.write(new DataOutputStream(bytes));
+        SplitBlockBloomFilter copy = SplitBlockBloomFilter.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(a.getNumBlocks(), copy.getNumBlocks());
+        assertTrue(copy.membershipTest("a".getBytes()));
+        assertTrue(copy.membershipTest("b".getBytes()));
+
+        copy.clear();
+        assertFalse(copy.membershipTest("a".getBytes()));
+    }
+}
@@ -68,5 +68,28 @@ public class StableBloomFilterTest {
       //assertFalse("False positive", sbf.membershipTest("no"));
       //assertFalse("Old items might NOT be in the filter", sbf.membershipTest((char) min + ""));
     }
-    
-}
\ No newline at end of file
+
+    @Test
+    public void testPutDetectsDuplicates() {
+        StableBloomFilter<CharSequence> filter = new StableBloomFilter<CharSequence>(10000, 3, 10, Funnels.stringFunnel());
+        assertFalse(filter.put("1test"));
+        assertTrue(filter.put("1test"));
+        assertTrue(filter.membershipTest("1test"));
+        assertEquals(8 * 313, filter.sizeof());
+    }
+
+    @Test
+    public void testContiguousDecrement() {
+        // every insertion decrements all the cells, so an item lasts for three insertions
+        StableBloomFilter<CharSequence> filter = new StableBloomFilter<CharSequence>(1000, 3, 1000, Funnels.stringFunnel());
+        for (int i = 0; i < 100; i++) {
+            filter.add("item" + i);
+            if (i >= 2) {
+                assertTrue(filter.membershipTest("item" + (i - 2)));
+            }
+            if (i >= 3) {
+                assertFalse(filter.membershipTest("item" + (i - 3)));
+            }
+        }
+    }
+}
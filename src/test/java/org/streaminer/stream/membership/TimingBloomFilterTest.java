@@ -1,108 +1,132 @@
 package org.streaminer.stream.membership;
 
+import java.util.concurrent.atomic.AtomicLong;
 import org.junit.Test;
 import static org.junit.Assert.*;
-import org.junit.Ignore;
 
 /**
  *
  * @author Maycon Viana Bordin <mayconbordin@gmail.com>
  */
 public class TimingBloomFilterTest {
-    
-    public TimingBloomFilterTest() {
+
+    /**
+     * A filter whose clock is set by the test.
+     */
+    private static class ManualTimingBloomFilter extends TimingBloomFilter {
+        final AtomicLong now = new AtomicLong(1000000);
+
+        ManualTimingBloomFilter(int capacity, int decayTime) {
+            super(capacity, decayTime);
+        }
+
+        @Override
+        protected long time() {
+            return now.get();
+        }
     }
-    
+
     @Test
-    @Ignore
-    public void testDecay() throws InterruptedException {
-        TimingBloomFilter filter = new TimingBloomFilter(500, 4);
-        filter.startDecay();
+    public void testDecay() {
+        ManualTimingBloomFilter filter = new ManualTimingBloomFilter(500, 64);
         filter.add("hello");
-        
         assertTrue(filter.membershipTest("hello"));
-        
-        Thread.sleep(5 * 1000);
-        
+
+        filter.now.addAndGet(60);
+        assertTrue(filter.membershipTest("hello"));
+
+        filter.now.addAndGet(10);
+        assertFalse(filter.membershipTest("hello"));
+    }
+
+    @Test
+    public void testStaleClock() {
+        // 32 ticks per second, a clock one second behind sees the fresh ticks 32 ticks ahead
+        ManualTimingBloomFilter filter = new ManualTimingBloomFilter(500, 2);
+        filter.now.incrementAndGet();
+        filter.add("hello");
+
+        filter.now.decrementAndGet();
+        assertTrue(filter.membershipTest("hello"));
+        filter.decay();
+
+        filter.now.incrementAndGet();
+        assertTrue(filter.membershipTest("hello"));
+    }
+
+    @Test
+    public void testExpiredTicksDoNotWrapAround() {
+        ManualTimingBloomFilter filter = new ManualTimingBloomFilter(1000, 64);
+        for (int i = 0; i < 500; i++) {
+            filter.add("old_" + i);
+        }
+
+        // the ring of ticks wraps around after 255 seconds, with and without writes
+        for (int t = 1; t <= 1000; t++) {
+            filter.now.incrementAndGet();
+            if (t % 300 < 200) {
+                filter.add("new_" + t);
+            }
+            if (t > 64) {
+                for (int i = 0; i < 500; i += 50) {
+                    assertFalse("at " + t, filter.membershipTest("old_" + i));
+                }
+            }
+        }
+
+        // a long pause
+        filter.add("hello");
+        filter.now.addAndGet(255);
         assertFalse(filter.membershipTest("hello"));
     }
-    
+
     @Test
-    @Ignore
     public void testAdd() {
         int capacity = 100000;
-        TimingBloomFilter filter = new TimingBloomFilter(capacity*2, 10);
-        filter.startDecay();
-        
-        System.out.println("Adding");
+        ManualTimingBloomFilter filter = new ManualTimingBloomFilter(capacity*2, 10);
         for (int i=0; i<capacity; i++)
             filter.add("idx_" + i);
-        
-        System.out.println("MembershipTest(+)");
+
         for (int i=0; i<capacity; i++)
             assertTrue("False negative", filter.membershipTest("idx_" + i));
-        
-        System.out.println("MembershipTest(-)");
+
         int c = 0;
         for (int i=capacity; i<2*capacity; i++) {
             c += (filter.membershipTest("idx_" + i) == true) ? 1 : 0;
         }
-        
+
         double falsePos = ((double)c) / ((double)capacity);
-        System.out.println("C: " + c);
-        System.out.println("False positives: " + falsePos);
-        System.out.println("Error threshold: " + filter.getError());
-        assertTrue("Too many false positives", falsePos <= filter.getError());
-    }
-    
-    /*
-    @Test
-    public void testAdd() {
-        System.out.println("Adding");
-        for (int i=0; i<capacity; i++)
-            filter.add("idx_" + i);
+        assertTrue("Too many false positives: " + falsePos, falsePos <= filter.getError());
+        assertTrue(filter.sizeof() < 3 * capacity * 8);
     }
-    
-    @Test
-    public void testMembershipTestPositive() {
-        System.out.println("MembershipTest(+)");
-        for (int i=0; i<capacity; i++)
-            assertTrue("False negative", filter.membershipTest("idx_" + i));
-    }
-    
+
     @Test
-    public void testMembershipTestNegative() {
-        System.out.println("MembershipTest(-)");
-        int c = 0;
-        for (int i=capacity; i<2*capacity; i++)
-            c += filter.membershipTest("idx_" + i) ? 1 : 0;
-        
-        double falsePos = c / capacity;
-        System.out.println("C: " + c);
-        System.out.println("Capacity: " + capacity);
-        System.out.println("False positives: " + falsePos);
-        System.out.println("Error threshold: " + filter.getError());
-        assertTrue("Too many false positives", falsePos <= filter.getError());
+    public void testConcurrentWriters() throws InterruptedException {
+        final ManualTimingBloomFilter filter = new ManualTimingBloomFilter(100000, 64);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int id = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 20000; i++) {
+                        filter.add(id + "_" + i);
+                        if (i % 5000 == 0) {
+                            filter.now.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        for (int t = 0; t < threads.length; t++) {
+            for (int i = 0; i < 20000; i++) {
+                assertTrue(filter.membershipTest(t + "_" + i));
+            }
+        }
     }
-    
-    /*
-    @Test
-    public void test() throws InterruptedException {
-
-        filter.add("teste", (System.currentTimeMillis()/1000));
-        filter.add("done", (System.currentTimeMillis()/1000));
-        
-        //long[] hashes = filter.indexes("teste");
-        
-        System.out.println("Contains 'teste': " + filter.membershipTest("teste"));
-        
-        System.out.println("Sleep 5s");
-        Thread.sleep(5 * 1000);
-        System.out.println("Contains 'teste': " + filter.membershipTest("teste"));
-        
-        System.out.println("Sleep 5s");
-        Thread.sleep(5 * 1000);
-        System.out.println("Contains 'teste': " + filter.membershipTest("teste"));
-    }*/
-    
 }
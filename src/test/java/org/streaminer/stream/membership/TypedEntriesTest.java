@@ -0,0 +1,170 @@
+package org.streaminer.stream.membership;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Funnel;
+import com.google.common.hash.Funnels;
+import com.google.common.hash.PrimitiveSink;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.streaminer.util.hash.Hash;
+
+/**
+ * Typed entries of the filters derived from {@link AbstractFilter}.
+ *
+ * @author Maycon Viana Bordin <mayconbordin@gmail.com>
+ */
+public class TypedEntriesTest {
+    private static final int ELEMENTS = 5000;
+
+    private static final Funnel<String> PREFIXED = new Funnel<String>() {
+        @Override
+        public void funnel(String from, PrimitiveSink into) {
+            into.putUnencodedChars("prefix-").putUnencodedChars(from);
+        }
+    };
+
+    @Test
+    public void testBloomFilter() {
+        checkTypedEntries(new BloomFilter(40 * ELEMENTS, 7, Hash.MURMUR_HASH));
+    }
+
+    @Test
+    public void testCountingBloomFilter() {
+        checkTypedEntries(new CountingBloomFilter(40 * ELEMENTS, 7, Hash.MURMUR_HASH));
+    }
+
+    @Test
+    public void testDynamicBloomFilter() {
+        DynamicBloomFilter filter = new DynamicBloomFilter(10 * ELEMENTS, 7, Hash.MURMUR_HASH, ELEMENTS);
+        checkTypedEntries(filter);
+    }
+
+    @Test
+    public void testLongBloomFilter() {
+        LongBloomFilter filter = new LongBloomFilter(40 * ELEMENTS, 7);
+        checkTypedEntries(filter);
+
+        // keys are hashed as byte ranges
+        filter.add(new Key("key".getBytes()));
+        assertTrue(filter.membershipTest("key".getBytes(), 0, 3));
+    }
+
+    @Test
+    public void testEntriesAgreeWithFunnels() {
+        BloomFilter filter = new BloomFilter(1000, 5, Hash.MURMUR_HASH);
+        filter.add(42L);
+        filter.add("hello");
+        filter.add("xxbytesxx".getBytes(), 2, 5);
+
+        assertTrue(filter.membershipTest(42L, Funnels.longFunnel()));
+        assertTrue(filter.membershipTest(new StringBuilder("hello"), Funnels.unencodedCharsFunnel()));
+        assertTrue(filter.membershipTest("bytes".getBytes(), Funnels.byteArrayFunnel()));
+        assertTrue(filter.membershipTest("hello", Funnels.stringFunnel(Charsets.UTF_16LE)));
+    }
+
+    @Test
+    public void testCountingBloomFilterDeleteAndCount() {
+        CountingBloomFilter filter = new CountingBloomFilter(40 * ELEMENTS, 7, Hash.MURMUR_HASH);
+        byte[] buffer = new byte[16];
+        for (int i = 0; i < ELEMENTS; i++) {
+            for (int n = 0; n < 1 + i % 3; n++) {
+                filter.add((long) i);
+                filter.add("str" + i);
+                filter.add("obj" + i, PREFIXED);
+                writeInt(buffer, 4, i);
+                filter.add(buffer, 4, 4);
+            }
+        }
+
+        int overestimates = 0;
+        for (int i = 0; i < ELEMENTS; i++) {
+            int count = 1 + i % 3;
+            writeInt(buffer, 8, i);
+            int[] counts = {
+                filter.estimateCount((long) i),
+                filter.estimateCount("str" + i),
+                filter.estimateCount("obj" + i, PREFIXED),
+                filter.estimateCount(buffer, 8, 4)
+            };
+            for (int c : counts) {
+                assertTrue(c >= count);
+                if (c > count) {
+                    overestimates++;
+                }
+            }
+        }
+        assertTrue("overestimates: " + overestimates, overestimates < ELEMENTS / 10);
+
+        for (int i = 0; i < ELEMENTS; i++) {
+            for (int n = 0; n < 1 + i % 3; n++) {
+                filter.delete((long) i);
+                filter.delete(new StringBuilder("str").append(i));
+                filter.delete("obj" + i, PREFIXED);
+                writeInt(buffer, 4, i);
+                filter.delete(buffer, 4, 4);
+            }
+        }
+
+        // every entry was removed, so the filter is empty again
+        for (int i = 0; i < ELEMENTS; i++) {
+            assertEquals(0, filter.estimateCount((long) i));
+            assertFalse(filter.membershipTest("str" + i));
+            assertFalse(filter.membershipTest("prefix-obj" + i));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCountingBloomFilterDeleteMissing() {
+        CountingBloomFilter filter = new CountingBloomFilter(1000, 5, Hash.MURMUR_HASH);
+        filter.add(1L);
+        filter.delete(2L);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testRetouchedBloomFilterAdd() {
+        new RetouchedBloomFilter(1000, 5, Hash.MURMUR_HASH).add(1L);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testRetouchedBloomFilterTest() {
+        new RetouchedBloomFilter(1000, 5, Hash.MURMUR_HASH).membershipTest("hello");
+    }
+
+    /**
+     * Adds four entries for each element, the filters are sized accordingly.
+     */
+    private static void checkTypedEntries(AbstractFilter filter) {
+        byte[] buffer = new byte[16];
+        for (int i = 0; i < ELEMENTS; i++) {
+            filter.add((long) i);
+            filter.add("str" + i);
+            filter.add("obj" + i, PREFIXED);
+            writeInt(buffer, 4, i);
+            filter.add(buffer, 4, 4);
+        }
+
+        for (int i = 0; i < ELEMENTS; i++) {
+            assertTrue(filter.membershipTest((long) i));
+            assertTrue(filter.membershipTest("str" + i));
+            assertTrue(filter.membershipTest(new StringBuilder("str").append(i)));
+            assertTrue(filter.membershipTest("obj" + i, PREFIXED));
+            assertTrue(filter.membershipTest("prefix-obj" + i));
+            writeInt(buffer, 8, i);
+            assertTrue(filter.membershipTest(buffer, 8, 4));
+        }
+
+        int falsePositives = 0;
+        for (int i = ELEMENTS; i < 2 * ELEMENTS; i++) {
+            if (filter.membershipTest((long) i) || filter.membershipTest("str" + i)) {
+                falsePositives++;
+            }
+        }
+        assertTrue("false positives: " + falsePositives, falsePositives < ELEMENTS / 10);
+    }
+
+    private static void writeInt(byte[] buffer, int offset, int value) {
+        for (int i = 0; i < 4; i++) {
+            buffer[offset + i] = (byte) (value >>> (8 * i));
+        }
+    }
+}
@@ -101,4 +101,19 @@ public class VarCountingBloomFilterTest {
         cbf.delete("a");
         assertEquals(MAX_COUNT, cbf.maxBucket());
     }
+
+    @Test
+    public void testCounterWidths() {
+        for (int exp : new int[] {2, 3, 8}) {
+            VarCountingBloomFilter filter = new VarCountingBloomFilter(ELEMENTS, spec.bucketsPerElement, exp);
+            int max = (1 << exp) - 1;
+            for (int i = 0; i < max + 5; i++) {
+                filter.add("a");
+            }
+            assertEquals(max, filter.maxBucket());
+            assertTrue(filter.membershipTest("a"));
+            assertFalse(filter.membershipTest("b"));
+            assertEquals(8 * ((ELEMENTS * spec.bucketsPerElement + 20) / (64 / exp)), filter.sizeof());
+        }
+    }
 }
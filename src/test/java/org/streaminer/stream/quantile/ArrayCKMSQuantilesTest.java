@@ -0,0 +1,145 @@
+package org.streaminer.stream.quantile;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+import org.streaminer.stream.quantile.CKMSQuantiles.Quantile;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Maycon Viana Bordin <mayconbordin@gmail.com>
+ */
+public class ArrayCKMSQuantilesTest {
+    private static final Quantile[] QUANTILES = {
+        new Quantile(0.50, 0.050),
+        new Quantile(0.90, 0.010),
+        new Quantile(0.95, 0.005),
+        new Quantile(0.99, 0.001)
+    };
+
+    @Test
+    public void testArrayCKMS() throws QuantilesException {
+        final int windowSize = 200000;
+        ArrayCKMSQuantiles estimator = new ArrayCKMSQuantiles(QUANTILES);
+
+        for (long l : shuffled(windowSize)) {
+            estimator.offer(l);
+        }
+
+        assertEquals(windowSize, estimator.getCount());
+        checkQuantiles(estimator, windowSize);
+        assertTrue(estimator.size() < windowSize / 10);
+    }
+
+    @Test(expected = QuantilesException.class)
+    public void testEmpty() throws QuantilesException {
+        new ArrayCKMSQuantiles(QUANTILES).getQuantile(0.5);
+    }
+
+    @Test
+    public void testConcurrentRecorder() throws Exception {
+        final int threads = 8;
+        final int perThread = 25000;
+        final ConcurrentCKMSQuantiles estimator = new ConcurrentCKMSQuantiles(QUANTILES);
+        final List<Long> values = shuffled(threads * perThread);
+        final CountDownLatch start = new CountDownLatch(1);
+
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final int offset = t * perThread;
+            Thread worker = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < perThread; i++) {
+                        estimator.offer(values.get(offset + i));
+                        // concurrent queries must not block the recorders
+                        if (i % 5000 == 0) {
+                            try {
+                                estimator.getQuantile(0.5);
+                            } catch (QuantilesException e) {
+                                // no samples drained yet
+                            }
+                        }
+                    }
+                }
+            };
+            worker.start();
+            workers.add(worker);
+        }
+
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        assertEquals(threads * perThread, estimator.getCount());
+        checkQuantiles(estimator, threads * perThread);
+    }
+
+    @Test
+    public void testQueriesSeeCompletedOffers() throws Exception {
+        final ConcurrentCKMSQuantiles estimator = new ConcurrentCKMSQuantiles(QUANTILES, 50);
+        final AtomicLong offered = new AtomicLong();
+        final AtomicBoolean done = new AtomicBoolean();
+
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            Thread worker = new Thread() {
+                @Override
+                public void run() {
+                    for (long i = 0; i < 50000; i++) {
+                        estimator.offer(i);
+                        offered.incrementAndGet();
+                    }
+                }
+            };
+            worker.start();
+            workers.add(worker);
+        }
+
+        // a full batch being inserted by its owner must still be counted
+        while (!done.get()) {
+            done.set(true);
+            for (Thread worker : workers) {
+                if (worker.isAlive()) {
+                    done.set(false);
+                }
+            }
+            long before = offered.get();
+            long count = estimator.getCount();
+            assertTrue(count + " < " + before, count >= before);
+        }
+        assertEquals(4 * 50000, estimator.getCount());
+    }
+
+    private static List<Long> shuffled(int n) {
+        Long[] shuffle = new Long[n];
+        for (int i = 0; i < shuffle.length; i++) {
+            shuffle[i] = (long) i;
+        }
+        Collections.shuffle(Arrays.asList(shuffle), new Random(0xDEADBEEF));
+        return Arrays.asList(shuffle);
+    }
+
+    private static void checkQuantiles(IQuantiles<Long> estimator, int windowSize) throws QuantilesException {
+        for (Quantile quantile : QUANTILES) {
+            long estimate = estimator.getQuantile(quantile.quantile);
+            long actual = (long) (quantile.quantile * (windowSize - 1));
+            double off = ((double) Math.abs(actual - estimate)) / (double) windowSize;
+            assertTrue(String.format("Q(%.2f, %.3f) was %d (off by %.4f)",
+                    quantile.quantile, quantile.error, estimate, off), off <= quantile.error);
+        }
+    }
+}
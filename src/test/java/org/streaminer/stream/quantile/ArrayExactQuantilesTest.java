@@ -0,0 +1,76 @@
+package org.streaminer.stream.quantile;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Maycon Viana Bordin <mayconbordin@gmail.com>
+ */
+public class ArrayExactQuantilesTest {
+    private static final double[] QUANTILES = {0.0, 0.01, 0.25, 0.5, 0.75, 0.99, 1.0};
+
+    @Test
+    public void testSameAsExactQuantiles() throws QuantilesException {
+        ArrayExactQuantiles instance = new ArrayExactQuantiles(16);
+        ExactQuantiles expected = new ExactQuantiles();
+        Random rand = new Random(42);
+
+        assertTrue(Double.isNaN(instance.getQuantile(0.5)));
+
+        // queries between the offers exercise the merge of the new values
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 1000 + round * 37; i++) {
+                double value = Math.floor(rand.nextGaussian() * 100);
+                instance.offer(value);
+                expected.offer(value);
+            }
+            for (double q : QUANTILES) {
+                assertEquals(expected.getQuantile(q), instance.getQuantile(q));
+            }
+        }
+    }
+
+    @Test
+    public void testParallelSort() throws QuantilesException {
+        int n = 3 * ArrayExactQuantiles.PARALLEL_THRESHOLD + 17;
+        double[] data = new double[n];
+        Random rand = new Random(7);
+        for (int i = 0; i < n; i++) {
+            data[i] = rand.nextDouble();
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            ArrayExactQuantiles instance = new ArrayExactQuantiles(1, pool);
+            instance.offer(data, 0, n);
+            assertEquals(n, instance.getCount());
+
+            double[] sorted = data.clone();
+            Arrays.sort(sorted);
+            for (double q : QUANTILES) {
+                int rank = (int) Math.floor(q * n);
+                assertEquals(sorted[Math.max(rank - 1, 0)], instance.getQuantile(q), 0.0);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testClear() throws QuantilesException {
+        ArrayExactQuantiles instance = new ArrayExactQuantiles();
+        for (int i = 0; i < 100; i++) {
+            instance.offer((double) i);
+        }
+        assertEquals(49.0, instance.getQuantile(0.5), 0.0);
+
+        instance.clear();
+        instance.offer(5.0);
+        assertEquals(5.0, instance.getQuantile(0.5), 0.0);
+        assertEquals(1, instance.getCount());
+    }
+}
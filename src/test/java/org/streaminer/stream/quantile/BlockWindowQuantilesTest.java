@@ -0,0 +1,79 @@
+package org.streaminer.stream.quantile;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Maycon Viana Bordin <mayconbordin@gmail.com>
+ */
+public class BlockWindowQuantilesTest {
+
+    @Test
+    public void testCountWindow() throws QuantilesException {
+        BlockWindowQuantiles instance = new BlockWindowQuantiles(10000, 10, 200, 42);
+        Random rand = new Random(42);
+
+        // the first values are far from the ones in the window and must expire
+        for (int i = 0; i < 50000; i++) {
+            instance.offer(1000 + rand.nextDouble());
+        }
+
+        double[] window = new double[10000];
+        for (int i = 0; i < window.length; i++) {
+            window[i] = rand.nextGaussian();
+            instance.offer(window[i]);
+        }
+
+        assertEquals(10000, instance.getCount());
+        Arrays.sort(window);
+        for (double q : new double[] {0.01, 0.25, 0.5, 0.75, 0.99}) {
+            double estimate = instance.getQuantile(q);
+            int rank = Arrays.binarySearch(window, estimate);
+            assertTrue(rank >= 0);
+            assertEquals("rank of quantile " + q, q * window.length, rank, 0.02 * window.length);
+        }
+    }
+
+    @Test
+    public void testSubWindow() throws QuantilesException {
+        BlockWindowQuantiles instance = new BlockWindowQuantiles(60000, 60, 200, 42);
+
+        // one value per millisecond, the value is the second of the timestamp
+        for (long t = 0; t < 120000; t++) {
+            instance.offer((double) (t / 1000), t);
+        }
+
+        assertEquals(119.0, instance.getQuantile(0.5, 1000), 0.0);
+        assertEquals(115.0, instance.getQuantile(0.0, 5000), 0.0);
+        assertEquals(60.0, instance.getQuantile(0.0), 0.0);
+        assertEquals(90.0, instance.getQuantile(0.5), 1.0);
+        assertEquals(5000, instance.getSketch(4500).getN());
+    }
+
+    @Test
+    public void testGapsAndLateValues() throws QuantilesException {
+        BlockWindowQuantiles instance = new BlockWindowQuantiles(100, 10, 200, 42);
+
+        for (long t = 0; t < 100; t++) {
+            instance.offer(1.0, t);
+        }
+        // a gap longer than the window expires every block
+        instance.offer(2.0, 500);
+        assertEquals(1, instance.getCount());
+        assertEquals(2.0, instance.getQuantile(0.0), 0.0);
+
+        // late values are kept while their block is in the window, and dropped after
+        instance.offer(3.0, 410);
+        instance.offer(4.0, 400);
+        assertEquals(2, instance.getCount());
+        assertEquals(3.0, instance.getQuantile(1.0), 0.0);
+    }
+
+    @Test(expected = QuantilesException.class)
+    public void testEmpty() throws QuantilesException {
+        new BlockWindowQuantiles(100, 10).getQuantile(0.5);
+    }
+}
@@ -0,0 +1,105 @@
+package org.streaminer.stream.quantile;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Maycon Viana Bordin <mayconbordin@gmail.com>
+ */
+public class BufferedGKQuantilesTest {
+    private static final double[] QUANTILES = {0.01, 0.05, 0.25, 0.5, 0.75, 0.95, 0.99};
+
+    @Test
+    public void testRankError() throws QuantilesException {
+        double epsilon = 0.01;
+        BufferedGKQuantiles instance = new BufferedGKQuantiles(epsilon, 500);
+        Random rand = new Random(42);
+
+        double[] data = new double[100000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = rand.nextGaussian();
+            instance.offer(data[i]);
+        }
+
+        checkRankError(instance, data, epsilon);
+        assertEquals(data.length, instance.getCount());
+        assertTrue("summary too large: " + instance.size(), instance.size() < data.length / 50);
+    }
+
+    @Test
+    public void testBatchOffer() throws QuantilesException {
+        double epsilon = 0.005;
+        BufferedGKQuantiles instance = new BufferedGKQuantiles(epsilon);
+
+        double[] data = new double[50000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = data.length - i;
+        }
+        instance.offer(Arrays.copyOfRange(data, 0, 1234));
+        instance.offer(Arrays.copyOfRange(data, 1234, data.length));
+
+        checkRankError(instance, data, epsilon);
+        assertEquals(1.0, instance.getQuantile(0), 0);
+        assertEquals(data.length, instance.getQuantile(1), 0);
+    }
+
+    @Test
+    public void testSmallCounts() throws QuantilesException {
+        BufferedGKQuantiles instance = new BufferedGKQuantiles(0.05);
+        assertTrue(Double.isNaN(instance.getQuantile(0.5)));
+
+        instance.offer(5.0);
+        assertEquals(5.0, instance.getQuantile(0.5), 0);
+
+        instance.offer(1.0);
+        instance.offer(3.0);
+        assertEquals(1.0, instance.getQuantile(0), 0);
+        assertEquals(3.0, instance.getQuantile(0.5), 0);
+        assertEquals(5.0, instance.getQuantile(1), 0);
+    }
+
+    @Test(expected = QuantilesException.class)
+    public void testInvalidQuantile() throws QuantilesException {
+        new BufferedGKQuantiles(0.05).getQuantile(1.5);
+    }
+
+    private void checkRankError(BufferedGKQuantiles instance, double[] data, double epsilon) throws QuantilesException {
+        double[] sorted = data.clone();
+        Arrays.sort(sorted);
+
+        for (double q : QUANTILES) {
+            double estimate = instance.getQuantile(q);
+            int lo = lowerBound(sorted, estimate);
+            int hi = upperBound(sorted, estimate);
+            long rank = (long) Math.ceil(q * sorted.length);
+            long error = rank < lo ? lo - rank : (rank > hi ? rank - hi : 0);
+            assertTrue("quantile " + q + " off by " + error + " ranks",
+                    error <= epsilon * sorted.length);
+        }
+    }
+
+    private static int lowerBound(double[] sorted, double value) {
+        int i = Arrays.binarySearch(sorted, value);
+        if (i < 0) {
+            return -i - 1;
+        }
+        while (i > 0 && sorted[i - 1] == value) {
+            i--;
+        }
+        return i;
+    }
+
+    private static int upperBound(double[] sorted, double value) {
+        int i = Arrays.binarySearch(sorted, value);
+        if (i < 0) {
+            return -i - 1;
+        }
+        while (i < sorted.length - 1 && sorted[i + 1] == value) {
+            i++;
+        }
+        return i + 1;
+    }
+}
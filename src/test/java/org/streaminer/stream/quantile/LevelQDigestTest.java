@@ -0,0 +1,149 @@
+package org.streaminer.stream.quantile;
+
+import cern.jet.random.Normal;
+import cern.jet.random.engine.MersenneTwister64;
+import cern.jet.random.engine.RandomEngine;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LevelQDigestTest
+{
+    @Test
+    public void testComprehensiveOnMixture() {
+        RandomEngine r = new MersenneTwister64(0);
+        Normal[] dists = new Normal[] {
+            new Normal(100, 50, r),
+            new Normal(150, 20, r),
+            new Normal(500, 300, r),
+            new Normal(10000, 10000, r),
+            new Normal(1200, 300, r),
+        };
+        for (int numSamples : new int[] {1, 10, 100, 1000, 10000}) {
+            long[][] samples = new long[dists.length][];
+            long max = 0;
+            for (int i = 0; i < dists.length; ++i) {
+                samples[i] = new long[numSamples];
+                for (int j = 0; j < samples[i].length; ++j) {
+                    samples[i][j] = (long) Math.max(0, dists[i].nextDouble());
+                    max = Math.max(max, samples[i][j]);
+                }
+            }
+            double compressionFactor = 1000;
+            int logCapacity = 1;
+            for (double scale = 1; scale < max; scale *= 2, logCapacity++)
+            {
+                ;
+            }
+            double eps = logCapacity / compressionFactor;
+
+            List<LevelQDigest> digests = new ArrayList<LevelQDigest>();
+            int numTotal = 0;
+            for (int i = 0; i < dists.length; ++i) {
+                LevelQDigest digest = new LevelQDigest(compressionFactor);
+                for (long x : samples[i]) {
+                    digest.offer(x);
+                }
+                assertEquals(samples[i].length, digest.computeActualSize());
+                assertTrue(digest.getNumNodes() <= 3 * compressionFactor);
+                checkError(digest, samples[i], eps);
+                digests.add(digest);
+                numTotal += samples[i].length;
+            }
+
+            long[] total = new long[numTotal];
+            int offset = 0;
+            LevelQDigest union = new LevelQDigest(compressionFactor);
+            for (int i = 0; i < dists.length; ++i) {
+                System.arraycopy(samples[i], 0, total, offset, samples[i].length);
+                offset += samples[i].length;
+                union = LevelQDigest.unionOf(union, digests.get(i));
+            }
+            assertEquals(numTotal, union.computeActualSize());
+            checkError(union, total, eps);
+
+            LevelQDigest merged = LevelQDigest.merge(digests);
+            assertEquals(numTotal, merged.computeActualSize());
+            checkError(merged, total, eps);
+        }
+    }
+
+    @Test
+    public void testMatchesQDigestRanges() {
+        Random rand = new Random(42);
+        long[] samples = new long[5000];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = rand.nextInt(1 << (1 + i / 500));
+        }
+
+        LevelQDigest digest = new LevelQDigest(100);
+        for (long x : samples) {
+            digest.offer(x);
+        }
+        checkError(digest, samples, 13 / 100.0);
+
+        // the ranges are sorted by right end, then by width
+        long lastRight = -1, lastWidth = 0;
+        for (long[] range : digest.toAscRanges()) {
+            long width = range[1] - range[0];
+            assertTrue(range[1] > lastRight || (range[1] == lastRight && width > lastWidth));
+            lastRight = range[1];
+            lastWidth = width;
+        }
+    }
+
+    @Test
+    public void testSerialization() {
+        Random rand = new Random(42);
+        LevelQDigest digest = new LevelQDigest(50);
+        QDigest legacy = new QDigest(50);
+        for (int i = 0; i < 10000; i++) {
+            long x = rand.nextInt(100000);
+            digest.offer(x);
+            legacy.offer(x);
+        }
+
+        LevelQDigest copy = LevelQDigest.deserialize(LevelQDigest.serialize(digest));
+        assertEquals(digest.toString(), copy.toString());
+
+        QDigest fromLevel = QDigest.deserialize(LevelQDigest.serialize(digest));
+        assertEquals(digest.toString(), fromLevel.toString());
+
+        LevelQDigest fromLegacy = LevelQDigest.deserialize(QDigest.serialize(legacy));
+        assertEquals(legacy.toString(), fromLegacy.toString());
+        for (double q = 0; q <= 1; q += 0.05) {
+            assertEquals(legacy.getQuantile(q), fromLegacy.getQuantile(q));
+        }
+
+        // the copy keeps working
+        copy.offer(1L << 20);
+        assertEquals(10001, copy.computeActualSize());
+        assertTrue(copy.getQuantile(1) >= 1L << 20);
+    }
+
+    private void checkError(LevelQDigest digest, long[] samples, double eps) {
+        for (double q = 0; q <= 1; q += 0.01) {
+            long res = digest.getQuantile(q);
+            double[] actualRank = actualRankOf(res, samples);
+            assertTrue(
+                    actualRank[0] + " .. " + actualRank[1] + " outside error bound for  " + q,
+                    q >= actualRank[0] - eps && q <= actualRank[1] + eps);
+        }
+    }
+
+    private double[] actualRankOf(long x, long[] ys) {
+        int numSmaller = 0;
+        int numEqual = 0;
+        for (long y : ys) if (y < x) numSmaller++;
+        for (long y : ys) if (y == x) numEqual++;
+        return new double[] {
+                1.0 * numSmaller / ys.length,
+                1.0 * (numSmaller + numEqual) / ys.length
+        };
+    }
+}
@@ -0,0 +1,132 @@
+package org.streaminer.stream.quantile;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Maycon Viana Bordin <mayconbordin@gmail.com>
+ */
+public class LogHistogramTest {
+    private static final double[] QUANTILES = {0, 0.01, 0.25, 0.5, 0.75, 0.9, 0.99, 0.999, 1};
+
+    @Test
+    public void testRelativeAccuracy() throws QuantilesException {
+        double accuracy = 0.01;
+        LogHistogram histogram = new LogHistogram(accuracy, 1e-9, 1e9);
+        Random rand = new Random(42);
+
+        double[] data = new double[100000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = Math.exp(rand.nextGaussian() * 3);
+            histogram.record(data[i]);
+        }
+
+        assertEquals(data.length, histogram.getCount());
+        checkQuantiles(histogram, data, accuracy);
+    }
+
+    @Test
+    public void testEveryBucket() {
+        double accuracy = 0.02;
+        LogLinearMapping mapping = new LogLinearMapping(accuracy, 1, 1e6);
+        for (double v = 1; v < 1e6; v *= 1.0007) {
+            double estimate = mapping.value(mapping.index(v));
+            assertEquals(v, estimate, v * accuracy * (1 + 1e-9));
+        }
+    }
+
+    @Test
+    public void testOutOfRange() throws QuantilesException {
+        LogHistogram histogram = new LogHistogram(0.01, 1, 1000);
+        histogram.record(0);
+        histogram.record(0.5);
+        histogram.record(1e6);
+
+        assertEquals(0, histogram.getQuantile(0), 0);
+        assertEquals(1000, histogram.getQuantile(1), 1000 * 0.01);
+        assertEquals(2 / 3.0, histogram.getRank(0.9), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegative() {
+        new LogHistogram(0.01, 1, 1000).record(-1);
+    }
+
+    @Test
+    public void testMerge() throws QuantilesException {
+        LogHistogram a = new LogHistogram(0.01, 1, 1e6);
+        LogHistogram b = new LogHistogram(0.01, 1, 1e6);
+        LogHistogram all = new LogHistogram(0.01, 1, 1e6);
+        Random rand = new Random(42);
+
+        for (int i = 0; i < 10000; i++) {
+            double x = 1 + rand.nextDouble() * 1000;
+            (i % 2 == 0 ? a : b).record(x);
+            all.record(x);
+        }
+
+        a.merge(b);
+        assertEquals(all.getCount(), a.getCount());
+        assertArrayEquals(all.getCounts(), a.getCounts());
+    }
+
+    @Test
+    public void testConcurrentRecording() throws Exception {
+        final double accuracy = 0.01;
+        final ConcurrentLogHistogram histogram = new ConcurrentLogHistogram(accuracy, 1, 1e9, 4);
+        assertEquals(4 * 8 * histogram.getNumBuckets(), histogram.sizeof());
+
+        final int threads = 8;
+        final int perThread = 50000;
+        final double[] data = new double[threads * perThread];
+        Random rand = new Random(42);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = 1000 * Math.exp(rand.nextGaussian());
+        }
+
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final int offset = t * perThread;
+            Thread worker = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        histogram.record(data[offset + i]);
+                    }
+                }
+            };
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        LogHistogram snapshot = histogram.snapshot();
+        assertEquals(data.length, snapshot.getCount());
+        checkQuantiles(snapshot, data, accuracy);
+
+        LogHistogram interval = histogram.snapshotAndReset();
+        assertArrayEquals(snapshot.getCounts(), interval.getCounts());
+        assertEquals(0, histogram.snapshot().getCount());
+
+        histogram.merge(interval);
+        assertEquals(data.length, histogram.snapshot().getCount());
+    }
+
+    private void checkQuantiles(LogHistogram histogram, double[] data, double accuracy) throws QuantilesException {
+        double[] sorted = data.clone();
+        Arrays.sort(sorted);
+
+        for (double q : QUANTILES) {
+            double expected = sorted[(int) (q * (sorted.length - 1))];
+            double estimate = histogram.getQuantile(q);
+            assertEquals("quantile " + q, expected, estimate, expected * accuracy * (1 + 1e-9));
+        }
+    }
+}
@@ -51,4 +51,41 @@ public class MPQuantilesTest extends TestCase {
         List<Double> quantiles = qe.getQuantiles();
         assertTrue(testQuantiles.containsAll(quantiles));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testBatchOffer() {
+        double[] values = new double[100000];
+        java.util.Random rand = new java.util.Random(42);
+        for (int i = 0; i < values.length; i++) {
+            values[i] = rand.nextGaussian();
+        }
+
+        MPQuantiles single = create(11);
+        for (double v : values) {
+            single.offer(v);
+        }
+
+        MPQuantiles batch = create(11);
+        batch.offer(values, 0, 1234);
+        batch.offer(Arrays.copyOfRange(values, 1234, values.length));
+
+        assertEquals(single.getQuantiles(), batch.getQuantiles());
+    }
+
+    @Test
+    public void testLargeStream() throws QuantilesException {
+        MPQuantiles qe = create(11);
+        int n = 1000000;
+        for (int i = 0; i < n; i++) {
+            qe.offer((double) ((i * 7919L) % n));
+        }
+
+        List<Double> quantiles = qe.getQuantiles();
+        assertEquals(11, quantiles.size());
+        for (int i = 0; i < quantiles.size(); i++) {
+            assertEquals(i * 0.1 * n, quantiles.get(i), 0.1 * n);
+        }
+        assertEquals(0.0, qe.getQuantile(0.0), 0);
+        assertEquals(n - 1, qe.getQuantile(1.0), 0);
+    }
+}
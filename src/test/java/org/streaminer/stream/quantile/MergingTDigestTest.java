@@ -0,0 +1,158 @@
+package org.streaminer.stream.quantile;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Maycon Viana Bordin <mayconbordin@gmail.com>
+ */
+public class MergingTDigestTest {
+    private static final double[] QUANTILES = {0.001, 0.01, 0.1, 0.25, 0.5, 0.75, 0.9, 0.99, 0.999};
+
+    @Test
+    public void testUniform() {
+        Random gen = new Random(42);
+        MergingTDigest digest = new MergingTDigest(100);
+        double[] data = new double[100000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = gen.nextDouble();
+            digest.add(data[i]);
+        }
+
+        checkQuantiles(digest, data, 0.005);
+        assertEquals(data.length, digest.size());
+        assertTrue(digest.centroidCount() <= 2 * 100 + 10);
+    }
+
+    @Test
+    public void testBulkAdd() {
+        Random gen = new Random(42);
+        double[] data = new double[100000];
+        double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < data.length; i++) {
+            data[i] = gen.nextGaussian();
+            min = Math.min(min, data[i]);
+            max = Math.max(max, data[i]);
+        }
+
+        MergingTDigest digest = new MergingTDigest(200);
+        digest.add(data, 0, 50000);
+        digest.add(Arrays.copyOfRange(data, 50000, data.length));
+
+        checkQuantiles(digest, data, 0.005);
+        assertEquals(min, digest.quantile(0), 0);
+        assertEquals(max, digest.quantile(1), 0);
+    }
+
+    @Test
+    public void testSequentialPoints() {
+        MergingTDigest digest = new MergingTDigest(100);
+        double[] data = new double[100000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = i;
+            digest.add(i);
+        }
+
+        checkQuantiles(digest, data, 0.005);
+        assertEquals(0.5, digest.cdf(49999.5), 0.005);
+    }
+
+    @Test
+    public void testRepeatedValues() {
+        MergingTDigest digest = new MergingTDigest(100);
+        Random gen = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            digest.add(gen.nextInt(10));
+        }
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0.1 * (i + 1), digest.cdf(i + 0.5), 0.02);
+        }
+    }
+
+    @Test
+    public void testMerge() {
+        Random gen = new Random(42);
+        List<MergingTDigest> parts = new ArrayList<MergingTDigest>();
+        double[] data = new double[100000];
+
+        for (int p = 0; p < 20; p++) {
+            MergingTDigest part = new MergingTDigest(100);
+            for (int i = 0; i < 5000; i++) {
+                double x = gen.nextDouble() * (p + 1);
+                data[p * 5000 + i] = x;
+                part.add(x);
+            }
+            parts.add(part);
+        }
+
+        MergingTDigest merged = MergingTDigest.merge(100, parts);
+        assertEquals(data.length, merged.size());
+        checkQuantiles(merged, data, 0.01);
+    }
+
+    @Test
+    public void testSerialization() {
+        Random gen = new Random(42);
+        MergingTDigest digest = new MergingTDigest(100);
+        for (int i = 0; i < 10000; i++) {
+            digest.add(gen.nextDouble());
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(digest.smallByteSize());
+        digest.asSmallBytes(buf);
+        buf.flip();
+        MergingTDigest copy = MergingTDigest.fromBytes(buf);
+        assertEquals(digest.size(), copy.size());
+        assertEquals(digest.centroidCount(), copy.centroidCount());
+
+        buf.rewind();
+        TDigest legacy = TDigest.fromBytes(buf);
+        assertEquals(digest.size(), legacy.size());
+
+        for (double q = 0.05; q < 1; q += 0.05) {
+            assertEquals(digest.quantile(q), copy.quantile(q), 1e-3);
+            assertEquals(digest.quantile(q), legacy.quantile(q), 0.01);
+        }
+
+        buf = ByteBuffer.allocate(legacy.byteSize());
+        legacy.asBytes(buf);
+        buf.flip();
+        copy = MergingTDigest.fromBytes(buf);
+        assertEquals(legacy.size(), copy.size());
+        assertEquals(legacy.quantile(0.5), copy.quantile(0.5), 0.01);
+    }
+
+    @Test
+    public void testEmpty() {
+        MergingTDigest digest = new MergingTDigest(100);
+        assertTrue(Double.isNaN(digest.quantile(0.5)));
+        assertTrue(Double.isNaN(digest.cdf(0)));
+
+        digest.add(3.0);
+        assertEquals(3.0, digest.quantile(0.5), 0);
+        assertEquals(0, digest.cdf(2.9), 0);
+        assertEquals(1, digest.cdf(3.0), 0);
+    }
+
+    private void checkQuantiles(MergingTDigest digest, double[] data, double tolerance) {
+        double[] sorted = data.clone();
+        Arrays.sort(sorted);
+
+        for (double q : QUANTILES) {
+            double estimate = digest.quantile(q);
+            int rank = Arrays.binarySearch(sorted, estimate);
+            if (rank < 0) {
+                rank = -rank - 1;
+            }
+            assertEquals("quantile " + q, q, rank / (double) sorted.length, tolerance);
+            assertEquals("cdf at quantile " + q, q, digest.cdf(sorted[(int) (q * sorted.length)]), tolerance);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package org.streaminer.stream.quantile;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Maycon Viana Bordin <mayconbordin@gmail.com>
+ */
+public class SimpleQuantilesTest {
+    private static final double[] QUANTILES = {0.05, 0.25, 0.5, 0.75, 0.95};
+
+    @Test
+    public void testSlidingWindow() throws QuantilesException {
+        SimpleQuantiles instance = new SimpleQuantiles(0.1, 1);
+        int size = instance.getBufferSize();
+
+        assertTrue(instance.isInInitialPhase());
+        assertTrue(Double.isNaN(instance.getQuantile(0.5)));
+
+        // only the last bufferSize values are kept
+        for (int i = 0; i < 1000000; i++) {
+            instance.offer(i < 1000000 - size ? -1.0 : 1.0);
+        }
+        assertFalse(instance.isInInitialPhase());
+        assertEquals(1.0, instance.getQuantile(0.0), 0.0);
+        assertEquals(1.0, instance.getQuantile(1.0), 0.0);
+    }
+
+    @Test
+    public void testRankError() throws QuantilesException {
+        double epsilon = 0.01;
+        SimpleQuantiles instance = new SimpleQuantiles(epsilon, 1);
+        Random rand = new Random(42);
+
+        double[] window = new double[instance.getBufferSize()];
+        for (int i = 0; i < 100000; i++) {
+            double value = rand.nextGaussian();
+            instance.offer(value);
+            window[i % window.length] = value;
+        }
+
+        Arrays.sort(window);
+        for (double q : QUANTILES) {
+            double estimate = instance.getQuantile(q);
+            int rank = Arrays.binarySearch(window, estimate);
+            assertTrue("value not in the window", rank >= 0);
+            assertEquals("rank of quantile " + q, q * window.length, rank, epsilon * window.length + 1);
+        }
+    }
+
+    @Test
+    public void testConcurrentOffers() throws Exception {
+        final SimpleQuantiles instance = new SimpleQuantiles(0.05, 4);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int seed = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    Random rand = new Random(seed);
+                    for (int i = 0; i < 200000; i++) {
+                        instance.offer(rand.nextDouble());
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertFalse(instance.isInInitialPhase());
+        for (double q : QUANTILES) {
+            assertEquals(q, instance.getQuantile(q), 0.1);
+        }
+    }
+
+    @Test(expected = QuantilesException.class)
+    public void testInvalidQuantile() throws QuantilesException {
+        new SimpleQuantiles(0.1).getQuantile(1.5);
+    }
+}
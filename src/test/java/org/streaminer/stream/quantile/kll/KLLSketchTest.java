@@ -0,0 +1,165 @@
+package org.streaminer.stream.quantile.kll;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import org.streaminer.stream.quantile.QuantilesException;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Maycon Viana Bordin <mayconbordin@gmail.com>
+ */
+public class KLLSketchTest {
+    private static final double[] QUANTILES = {0.01, 0.1, 0.25, 0.5, 0.75, 0.9, 0.99};
+
+    @Test
+    public void testRankError() throws QuantilesException {
+        KLLSketch sketch = new KLLSketch(200, 42);
+        Random rand = new Random(42);
+        double[] data = new double[1000000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = rand.nextGaussian();
+            sketch.update(data[i]);
+        }
+
+        assertEquals(data.length, sketch.getN());
+        assertTrue("retained " + sketch.getNumRetained(), sketch.getNumRetained() < 3 * 200 + 100);
+        checkRankError(sketch, data, 0.02);
+        assertEquals(sketch.getMin(), sketch.getQuantile(0), 0);
+        assertEquals(sketch.getMax(), sketch.getQuantile(1), 0);
+    }
+
+    @Test
+    public void testSmallStreamIsExact() throws QuantilesException {
+        KLLSketch sketch = new KLLSketch(200, 42);
+        for (int i = 1; i <= 100; i++) {
+            sketch.offer((double) i);
+        }
+        assertEquals(50.0, sketch.getQuantile(0.5), 0);
+        assertEquals(0.3, sketch.getRank(30), 0);
+        assertArrayEquals(new double[] {0, 0.1, 1, 1}, sketch.getCDF(new double[] {0.5, 10, 1000}), 0);
+    }
+
+    @Test
+    public void testSeedIsDeterministic() throws Exception {
+        KLLSketch a = new KLLSketch(100, 7);
+        KLLSketch b = new KLLSketch(100, 7);
+        for (int i = 0; i < 100000; i++) {
+            a.update(i % 997);
+            b.update(i % 997);
+        }
+        assertArrayEquals(a.getBytes(), b.getBytes());
+    }
+
+    @Test
+    public void testMerge() throws QuantilesException {
+        Random rand = new Random(42);
+        double[] data = new double[500000];
+        List<KLLSketch> shards = new ArrayList<KLLSketch>();
+
+        for (int s = 0; s < 100; s++) {
+            KLLSketch shard = new KLLSketch(200, s);
+            for (int i = 0; i < 5000; i++) {
+                double x = rand.nextDouble() * (s + 1);
+                data[s * 5000 + i] = x;
+                shard.update(x);
+            }
+            shards.add(shard);
+        }
+
+        KLLSketch merged = AbstractKLLSketch.merge(shards);
+        assertEquals(data.length, merged.getN());
+        checkRankError(merged, data, 0.02);
+
+        KLLSketch sequential = new KLLSketch(200, 1);
+        for (KLLSketch shard : shards) {
+            sequential.merge(shard);
+        }
+        assertEquals(data.length, sequential.getN());
+        checkRankError(sequential, data, 0.02);
+
+        // the shards are left unchanged
+        assertEquals(5000, shards.get(0).getN());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMergeDifferentK() {
+        new KLLSketch(100, 1).merge(new KLLSketch(200, 1));
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        KLLSketch sketch = new KLLSketch(200, 42);
+        Random rand = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            sketch.update(rand.nextDouble());
+        }
+
+        KLLSketch copy = KLLSketch.fromBytes(sketch.getBytes());
+        assertEquals(sketch.getN(), copy.getN());
+        assertEquals(sketch.getNumRetained(), copy.getNumRetained());
+        for (double q : QUANTILES) {
+            assertEquals(sketch.getQuantile(q), copy.getQuantile(q), 0);
+        }
+
+        // the copy keeps working
+        copy.update(2.0);
+        assertEquals(2.0, copy.getMax(), 0);
+
+        KLLSketch empty = KLLSketch.fromBytes(new KLLSketch(50, 1).getBytes());
+        assertTrue(empty.isEmpty());
+        assertEquals(50, empty.getK());
+    }
+
+    @Test
+    public void testFloatSketch() throws Exception {
+        KLLFloatSketch sketch = new KLLFloatSketch(200, 42);
+        for (int i = 0; i < 100000; i++) {
+            sketch.update(i);
+        }
+        assertEquals(50000, sketch.getQuantile(0.5), 2000);
+        assertEquals(0.25, sketch.getRank(25000), 0.02);
+
+        KLLFloatSketch copy = KLLFloatSketch.fromBytes(sketch.getBytes());
+        assertEquals(sketch.getQuantile(0.9), copy.getQuantile(0.9), 0);
+    }
+
+    @Test
+    public void testLongSketch() throws Exception {
+        KLLLongSketch sketch = new KLLLongSketch(200, 42);
+        long base = Long.MAX_VALUE - 1000000;
+        for (int i = 0; i < 1000000; i++) {
+            sketch.update(base + i);
+        }
+        sketch.update(Long.MIN_VALUE);
+
+        assertEquals(Long.MIN_VALUE, (long) sketch.getQuantile(0));
+        assertEquals(base + 999999, (long) sketch.getQuantile(1));
+        assertEquals(base + 500000, sketch.getQuantile(0.5), 20000);
+
+        byte[] bytes = sketch.getBytes();
+        KLLLongSketch copy = KLLLongSketch.fromBytes(bytes);
+        assertEquals(sketch.getN(), copy.getN());
+        for (double q : QUANTILES) {
+            assertEquals(sketch.getQuantile(q), copy.getQuantile(q));
+        }
+        // delta encoding takes less than the raw values
+        assertTrue(bytes.length < 8 * sketch.getNumRetained());
+    }
+
+    private void checkRankError(KLLSketch sketch, double[] data, double tolerance) throws QuantilesException {
+        double[] sorted = data.clone();
+        Arrays.sort(sorted);
+
+        for (double q : QUANTILES) {
+            double estimate = sketch.getQuantile(q);
+            int rank = Arrays.binarySearch(sorted, estimate);
+            assertTrue(rank >= 0);
+            assertEquals("quantile " + q, q, rank / (double) sorted.length, tolerance);
+            assertEquals("rank at quantile " + q, q, sketch.getRank(sorted[(int) (q * sorted.length)]), tolerance);
+        }
+    }
+}